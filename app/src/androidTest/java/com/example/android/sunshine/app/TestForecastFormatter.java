@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks that ForecastFormatter produces exactly what the Utility helpers it replaces do, in
+    both units and across the rounding edge cases, and counts the allocations of formatting a
+    16 day forecast list with each.
+ */
+public class TestForecastFormatter extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastFormatter.class.getSimpleName();
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int NUM_DAYS = 16;
+    private static final double[] TEMPERATURES = {
+            0, -0.0, 0.4, 0.5, -0.4, -0.5, -0.6, 1.5, 2.5, -1.5, -2.5, 0.49999999999999994,
+            -0.49999999999999994, 21.3, -17.7, 37.77777777777778, -40, 99.5, 149.4, 149.5,
+            150.5, 320, -320, Double.NaN
+    };
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mSavedUnits = mPrefs.getString(mUnitsKey, null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mSavedUnits == null) {
+            mPrefs.edit().remove(mUnitsKey).commit();
+        } else {
+            mPrefs.edit().putString(mUnitsKey, mSavedUnits).commit();
+        }
+        super.tearDown();
+    }
+
+    private void setUnits(final ForecastFormatter formatter, int unitsId) {
+        final boolean metric = unitsId == R.string.pref_units_metric;
+        mPrefs.edit().putString(mUnitsKey, mContext.getString(unitsId)).commit();
+        // The listener is called on the main thread
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return formatter.isMetric() == metric;
+            }
+        }.run();
+    }
+
+    private void checkTemperatures(ForecastFormatter formatter) {
+        // Twice, so the second round is served from the cache
+        for (int i = 0; i < 2; i++) {
+            for (double temperature : TEMPERATURES) {
+                String expected = Utility.formatTemperature(mContext, temperature);
+                assertEquals("Error: " + temperature + " formatted differently",
+                        expected, formatter.formatTemperature(temperature));
+                assertEquals(mContext.getString(R.string.a11y_high_temp, expected),
+                        formatter.getHighTemperatureDescription(temperature));
+                assertEquals(mContext.getString(R.string.a11y_low_temp, expected),
+                        formatter.getLowTemperatureDescription(temperature));
+            }
+        }
+    }
+
+    public void testTemperaturesMatchUtility() {
+        ForecastFormatter formatter = new ForecastFormatter(mContext);
+        setUnits(formatter, R.string.pref_units_metric);
+        checkTemperatures(formatter);
+
+        // The cached metric strings must not survive the switch
+        setUnits(formatter, R.string.pref_units_imperial);
+        checkTemperatures(formatter);
+    }
+
+    public void testDaysMatchUtility() {
+        ForecastFormatter formatter = new ForecastFormatter(mContext);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 2; i++) {
+            for (int day = -3; day < ForecastFormatter.DAY_CACHE_DAYS + 3; day++) {
+                long date = now + day * DAY_IN_MILLIS;
+                assertEquals(Utility.getFriendlyDayString(mContext, date, true),
+                        formatter.getFriendlyDayString(date, true));
+                assertEquals(Utility.getFriendlyDayString(mContext, date, false),
+                        formatter.getFriendlyDayString(date, false));
+                assertEquals(Utility.getFullFriendlyDayString(mContext, date),
+                        formatter.getFullFriendlyDayString(date));
+            }
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testAllocationsPerBind() {
+        ForecastFormatter formatter = new ForecastFormatter(mContext);
+        long now = System.currentTimeMillis();
+        // Fill the caches, as the first screen of the list would
+        bindWithFormatter(formatter, now);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        bindWithUtility(now);
+        Debug.stopAllocCounting();
+        int utilityAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        bindWithFormatter(formatter, now);
+        Debug.stopAllocCounting();
+        int formatterAllocations = Debug.getThreadAllocCount();
+
+        Log.i(LOG_TAG, String.format("Allocations per bind, Utility %.1f vs ForecastFormatter %.1f",
+                (float) utilityAllocations / NUM_DAYS, (float) formatterAllocations / NUM_DAYS));
+        assertTrue("Error: " + formatterAllocations + " allocations binding " + NUM_DAYS +
+                " cached rows", formatterAllocations * 10 < utilityAllocations);
+    }
+
+    // What ForecastAdapter.onBindViewHolder formats for each row
+    private void bindWithUtility(long now) {
+        for (int day = 0; day < NUM_DAYS; day++) {
+            Utility.getFriendlyDayString(mContext, now + day * DAY_IN_MILLIS, day == 0);
+            String high = Utility.formatTemperature(mContext, 20.4 + day);
+            mContext.getString(R.string.a11y_high_temp, high);
+            String low = Utility.formatTemperature(mContext, 10.6 - day);
+            mContext.getString(R.string.a11y_low_temp, low);
+        }
+    }
+
+    private static void bindWithFormatter(ForecastFormatter formatter, long now) {
+        for (int day = 0; day < NUM_DAYS; day++) {
+            formatter.getFriendlyDayString(now + day * DAY_IN_MILLIS, day == 0);
+            formatter.formatTemperature(20.4 + day);
+            formatter.getHighTemperatureDescription(20.4 + day);
+            formatter.formatTemperature(10.6 - day);
+            formatter.getLowTemperatureDescription(10.6 - day);
+        }
+    }
+}
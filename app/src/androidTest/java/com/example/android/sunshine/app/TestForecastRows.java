@@ -0,0 +1,259 @@
+package com.example.android.sunshine.app;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+    Checks that ForecastLoader builds the rows ForecastAdapter used to format while binding, that
+    reloading an unchanged forecast doesn't rebind anything, and compares the main thread work of
+    binding a row from the cursor with binding it from a ForecastRow, over several locations.
+    Only the data each bind reads and formats is measured, the views are left out.
+ */
+public class TestForecastRows extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastRows.class.getSimpleName();
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final long FRAME_NANOS = 16 * 1000 * 1000;
+    private static final int NUM_LOCATIONS = 8;
+    private static final int NUM_DAYS = 16;
+    private static final int ROUNDS = 20;
+    private static final int[] WEATHER_IDS = {200, 300, 500, 511, 600, 701, 761, 800, 801, 803};
+
+    private long mStartDate;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mStartDate = WeatherContract.normalizeDate(System.currentTimeMillis());
+        for (int location = 0; location < NUM_LOCATIONS; location++) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, getLocation(location));
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + location);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, 10.5 + location);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, -20.25 - location);
+            Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    locationValues);
+            long locationId = Long.parseLong(uri.getLastPathSegment());
+
+            ContentValues[] days = new ContentValues[NUM_DAYS];
+            for (int day = 0; day < NUM_DAYS; day++) {
+                days[day] = new ContentValues();
+                days[day].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                days[day].put(WeatherEntry.COLUMN_DATE, mStartDate + day * DAY_IN_MILLIS);
+                days[day].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                days[day].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                days[day].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+                days[day].put(WeatherEntry.COLUMN_MAX_TEMP, 20.4 + day - location);
+                days[day].put(WeatherEntry.COLUMN_MIN_TEMP, 10.6 - day - location);
+                days[day].put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+                days[day].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                days[day].put(WeatherEntry.COLUMN_WEATHER_ID,
+                        WEATHER_IDS[(day + location) % WEATHER_IDS.length]);
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String getLocation(int location) {
+        return "9900" + location;
+    }
+
+    private Cursor queryForecast(int location) {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(getLocation(location), mStartDate),
+                ForecastFragment.FORECAST_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+    }
+
+    private List<ForecastRow> loadRows(int location) {
+        Cursor cursor = queryForecast(location);
+        try {
+            return ForecastLoader.buildRows(mContext, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testRowsMatchCursor() {
+        Cursor cursor = queryForecast(0);
+        List<ForecastRow> rows = loadRows(0);
+        assertEquals(NUM_DAYS, rows.size());
+        for (ForecastRow row : rows) {
+            assertTrue(cursor.moveToNext());
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+
+            assertEquals(date, row.date);
+            assertEquals(cursor.getString(ForecastFragment.COL_COORD_LAT), row.coordLat);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, false), row.dateText);
+            assertEquals(Utility.getFriendlyDayString(mContext, date, true), row.todayDateText);
+            assertEquals(Utility.getIconResourceForWeatherCondition(weatherId), row.iconResourceId);
+            assertEquals(Utility.getArtResourceForWeatherCondition(weatherId), row.artResourceId);
+            assertEquals(description, row.description);
+            assertEquals(mContext.getString(R.string.a11y_forecast, description),
+                    row.descriptionContentDescription);
+            assertEquals("Error: high temperature of " + date + " differs",
+                    Utility.formatTemperature(mContext, high), row.highText);
+            assertEquals(Utility.formatTemperature(mContext, low), row.lowText);
+        }
+        assertFalse(cursor.moveToNext());
+        cursor.close();
+    }
+
+    public void testStableIdsAreUnique() {
+        Set<Long> stableIds = new HashSet<>();
+        for (int location = 0; location < NUM_LOCATIONS; location++) {
+            for (ForecastRow row : loadRows(location)) {
+                assertEquals(ForecastRow.getStableId(row.locationId, row.date), row.stableId);
+                assertTrue("Error: two days share the id of " + row, stableIds.add(row.stableId));
+            }
+        }
+        assertEquals(NUM_LOCATIONS * NUM_DAYS, stableIds.size());
+    }
+
+    public void testReloadOnlyRebindsChangedDays() {
+        List<ForecastRow> rows = loadRows(1);
+        UpdateCounter unchanged = new UpdateCounter();
+        DiffUtil.calculateDiff(new ForecastRow.DiffCallback(rows, loadRows(1)), false)
+                .dispatchUpdatesTo(unchanged);
+        assertEquals("Error: an unchanged reload caused updates", 0, unchanged.mUpdates);
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, -30);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mStartDate + 3 * DAY_IN_MILLIS)});
+
+        UpdateCounter changed = new UpdateCounter();
+        DiffUtil.calculateDiff(new ForecastRow.DiffCallback(rows, loadRows(1)), false)
+                .dispatchUpdatesTo(changed);
+        assertEquals(1, changed.mUpdates);
+        assertEquals(3, changed.mLastChanged);
+    }
+
+    public void testBindBenchmark() {
+        // Warms ForecastFormatter and the resources, as the first screen of the list would
+        for (int location = 0; location < NUM_LOCATIONS; location++) {
+            loadRows(location);
+        }
+
+        long cursorBinds = 0;
+        long rowBinds = 0;
+        long loads = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            for (int location = 0; location < NUM_LOCATIONS; location++) {
+                Cursor cursor = queryForecast(location);
+                long start = System.nanoTime();
+                for (int position = 0; position < NUM_DAYS; position++) {
+                    bindFromCursor(cursor, position);
+                }
+                cursorBinds += System.nanoTime() - start;
+                cursor.close();
+
+                start = System.nanoTime();
+                List<ForecastRow> rows = loadRows(location);
+                loads += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (int position = 0; position < NUM_DAYS; position++) {
+                    bindFromRow(rows.get(position), position);
+                }
+                rowBinds += System.nanoTime() - start;
+            }
+        }
+
+        long binds = (long) ROUNDS * NUM_LOCATIONS * NUM_DAYS;
+        Log.i(LOG_TAG, String.format("Main thread work per bind, cursor %.1f us vs row %.1f us" +
+                        " (%.2f%% vs %.2f%% of a frame); building %d rows off it takes %.1f us",
+                cursorBinds / 1e3 / binds, rowBinds / 1e3 / binds,
+                100.0 * cursorBinds / binds / FRAME_NANOS, 100.0 * rowBinds / binds / FRAME_NANOS,
+                NUM_DAYS, loads / 1e3 / ROUNDS / NUM_LOCATIONS));
+        assertTrue("Error: binding from rows was slower than from the cursor",
+                rowBinds < cursorBinds);
+    }
+
+    private static int sSink;
+
+    // What ForecastAdapter.onBindViewHolder read and formatted before the rows
+    private void bindFromCursor(Cursor cursor, int position) {
+        cursor.moveToPosition(position);
+        int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        int defaultImage = position == 0
+                ? Utility.getArtResourceForWeatherCondition(weatherId)
+                : Utility.getIconResourceForWeatherCondition(weatherId);
+        long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+        String dateText = Utility.getFriendlyDayString(mContext, date, position == 0);
+        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        String descriptionA11y = mContext.getString(R.string.a11y_forecast, description);
+        String high = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+        String highA11y = mContext.getString(R.string.a11y_high_temp, high);
+        String low = Utility.formatTemperature(mContext,
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+        String lowA11y = mContext.getString(R.string.a11y_low_temp, low);
+        sSink += defaultImage + dateText.length() + descriptionA11y.length() + highA11y.length()
+                + lowA11y.length();
+    }
+
+    // What it reads now
+    private static void bindFromRow(ForecastRow row, int position) {
+        int defaultImage = position == 0 ? row.artResourceId : row.iconResourceId;
+        String dateText = position == 0 ? row.todayDateText : row.dateText;
+        sSink += defaultImage + dateText.length() + row.description.length()
+                + row.descriptionContentDescription.length() + row.highText.length()
+                + row.highContentDescription.length() + row.lowText.length()
+                + row.lowContentDescription.length();
+    }
+
+    private static class UpdateCounter implements ListUpdateCallback {
+        int mUpdates;
+        int mLastChanged = -1;
+
+        @Override
+        public void onInserted(int position, int count) {
+            mUpdates += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mUpdates += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mUpdates++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mUpdates += count;
+            mLastChanged = position;
+        }
+    }
+}
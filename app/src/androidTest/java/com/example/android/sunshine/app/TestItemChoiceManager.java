@@ -0,0 +1,162 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that ItemChoiceManager keeps the selection on the same item through the partial
+    updates DiffUtil dispatches, without looking up any IDs, and that a whole data set change
+    still finds it by ID.
+ */
+public class TestItemChoiceManager extends AndroidTestCase {
+
+    private static List<Long> range(long first, long last) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = first; id <= last; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    private static void select(ItemChoiceManager icm, IdAdapter adapter, int position) {
+        icm.clearSelections();
+        icm.mCheckStates.put(position, true);
+        icm.mCheckedIdStates.put(adapter.getItemId(position), position);
+        adapter.mGetItemIdCalls = 0;
+    }
+
+    private static void assertSelected(ItemChoiceManager icm, IdAdapter adapter, long id) {
+        int position = icm.getSelectedItemPosition();
+        assertTrue("Error: the selection was lost", position != RecyclerView.NO_POSITION);
+        assertEquals("Error: the selection is on the wrong item", id, adapter.getItemId(position));
+        assertEquals(Integer.valueOf(position), icm.mCheckedIdStates.get(id));
+    }
+
+    public void testSelectionFollowsPartialUpdates() {
+        IdAdapter adapter = new IdAdapter(range(100, 115));
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        select(icm, adapter, 5);
+
+        // The next day's sync: the two oldest days go, two new ones are added at the end
+        adapter.setIds(range(102, 117), false);
+        assertEquals("Error: partial updates looked up IDs", 0, adapter.mGetItemIdCalls);
+        assertSelected(icm, adapter, 105);
+        assertEquals(3, icm.getSelectedItemPosition());
+
+        // Days inserted in front of the selection, and the ones after 110 removed
+        List<Long> ids = range(98, 110);
+        adapter.setIds(ids, false);
+        assertEquals(0, adapter.mGetItemIdCalls);
+        assertSelected(icm, adapter, 105);
+
+        // Moves, in both directions
+        ids = new ArrayList<>(ids);
+        ids.remove(Long.valueOf(105));
+        ids.add(0, 105L);
+        ids.remove(Long.valueOf(98));
+        ids.add(98L);
+        adapter.setIds(ids, true);
+        assertEquals(0, adapter.mGetItemIdCalls);
+        assertSelected(icm, adapter, 105);
+        assertEquals(0, icm.getSelectedItemPosition());
+
+        ids = new ArrayList<>(ids);
+        ids.remove(0);
+        ids.add(7, 105L);
+        adapter.setIds(ids, true);
+        assertSelected(icm, adapter, 105);
+        assertEquals(7, icm.getSelectedItemPosition());
+
+        // The selected item itself goes away
+        ids = new ArrayList<>(ids);
+        ids.remove(Long.valueOf(105));
+        adapter.setIds(ids, false);
+        assertEquals(RecyclerView.NO_POSITION, icm.getSelectedItemPosition());
+        assertEquals(0, icm.mCheckedIdStates.size());
+    }
+
+    public void testDataSetChangeFindsSelectionById() {
+        IdAdapter adapter = new IdAdapter(range(100, 115));
+        ItemChoiceManager icm = new ItemChoiceManager(adapter);
+        icm.setChoiceMode(AbsListView.CHOICE_MODE_SINGLE);
+        select(icm, adapter, 5);
+
+        adapter.mIds = range(103, 115);
+        adapter.notifyDataSetChanged();
+        assertSelected(icm, adapter, 105);
+
+        // A selection past the end of the new data is dropped rather than looked up
+        select(icm, adapter, 12);
+        adapter.mIds = range(103, 106);
+        adapter.notifyDataSetChanged();
+        assertEquals(RecyclerView.NO_POSITION, icm.getSelectedItemPosition());
+    }
+
+    /*
+        An adapter over a list of stable IDs, enough for ItemChoiceManager, which never needs
+        views from it.
+     */
+    private static class IdAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+        List<Long> mIds;
+        int mGetItemIdCalls;
+
+        IdAdapter(List<Long> ids) {
+            mIds = ids;
+            setHasStableIds(true);
+        }
+
+        void setIds(final List<Long> ids, boolean detectMoves) {
+            final List<Long> oldIds = mIds;
+            mIds = ids;
+            mGetItemIdCalls = 0;
+            DiffUtil.calculateDiff(new DiffUtil.Callback() {
+                @Override
+                public int getOldListSize() {
+                    return oldIds.size();
+                }
+
+                @Override
+                public int getNewListSize() {
+                    return ids.size();
+                }
+
+                @Override
+                public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                    return oldIds.get(oldItemPosition).equals(ids.get(newItemPosition));
+                }
+
+                @Override
+                public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                    return true;
+                }
+            }, detectMoves).dispatchUpdatesTo(this);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            mGetItemIdCalls++;
+            return mIds.get(position);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mIds.size();
+        }
+
+        @Override
+        public RecyclerView.ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void onBindViewHolder(RecyclerView.ViewHolder holder, int position) {
+        }
+    }
+}
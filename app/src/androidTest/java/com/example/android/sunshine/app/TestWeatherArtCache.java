@@ -0,0 +1,80 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks that WeatherArtCache decodes the local arts to fit the requested size, hands out the
+    same bitmap again for every condition sharing an art, stays within its byte budget, and
+    compares the bytes with decoding the full size art, as the GCM alert used to.
+ */
+public class TestWeatherArtCache extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherArtCache.class.getSimpleName();
+    private static final int SIZE = 64;
+    private static final int[] WEATHER_IDS = {200, 232, 300, 500, 511, 520, 600, 701, 761, 781,
+            800, 801, 802, 803, 804};
+
+    public void testDecodesToFit() {
+        WeatherArtCache cache = new WeatherArtCache(mContext, 4 * 1024 * 1024);
+        Bitmap art = cache.getArtForResource(R.drawable.art_storm, SIZE, SIZE / 2);
+        assertNotNull(art);
+        assertTrue("Error: art decoded at " + art.getWidth() + "x" + art.getHeight(),
+                art.getWidth() <= SIZE && art.getHeight() <= SIZE / 2);
+        // Fitted, not cropped: one side fills the box
+        assertTrue(art.getWidth() == SIZE || art.getHeight() == SIZE / 2);
+
+        assertNull(cache.getArtForResource(-1, SIZE, SIZE));
+    }
+
+    public void testConditionsShareArt() {
+        WeatherArtCache cache = new WeatherArtCache(mContext, 4 * 1024 * 1024);
+        for (int weatherId : WEATHER_IDS) {
+            Bitmap art = cache.getArtForResource(
+                    Utility.getArtResourceForWeatherCondition(weatherId), SIZE, SIZE);
+            assertSame("Error: the art of " + weatherId + " was decoded again", art,
+                    cache.getArtForResource(
+                            Utility.getArtResourceForWeatherCondition(weatherId), SIZE, SIZE));
+        }
+        // Each distinct art missed once
+        assertTrue(cache.getMissCount() < WEATHER_IDS.length);
+        assertEquals(WEATHER_IDS.length * 2 - cache.getMissCount(), cache.getHitCount());
+
+        // Another size is another entry
+        Bitmap small = cache.getArtForResource(R.drawable.art_clear, SIZE / 2, SIZE / 2);
+        assertNotSame(small, cache.getArtForResource(R.drawable.art_clear, SIZE, SIZE));
+    }
+
+    public void testStaysWithinBudget() {
+        Bitmap one = WeatherArtCache.decodeResource(mContext.getResources(), R.drawable.art_clear,
+                SIZE, SIZE);
+        int budget = WeatherArtCache.getByteCount(one) * 3;
+        WeatherArtCache cache = new WeatherArtCache(mContext, budget);
+        for (int weatherId : WEATHER_IDS) {
+            cache.getArtForResource(Utility.getArtResourceForWeatherCondition(weatherId),
+                    SIZE, SIZE);
+            assertTrue("Error: " + cache, cache.getSize() <= cache.getMaxSize());
+        }
+        assertTrue(cache.getSize() > 0);
+    }
+
+    public void testBytesAgainstFullSizeDecode() {
+        WeatherArtCache cache = new WeatherArtCache(mContext, 4 * 1024 * 1024);
+        long start = System.nanoTime();
+        Bitmap full = BitmapFactory.decodeResource(mContext.getResources(), R.drawable.art_storm);
+        long fullNanos = System.nanoTime() - start;
+
+        cache.getNotificationArtForResource(R.drawable.art_storm);
+        start = System.nanoTime();
+        Bitmap cached = cache.getNotificationArtForResource(R.drawable.art_storm);
+        long cachedNanos = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format("Notification art: full decode %d bytes in %.1f us," +
+                        " cached %d bytes in %.1f us, %s",
+                WeatherArtCache.getByteCount(full), fullNanos / 1e3,
+                WeatherArtCache.getByteCount(cached), cachedNanos / 1e3, cache));
+        assertTrue(WeatherArtCache.getByteCount(cached) <= WeatherArtCache.getByteCount(full));
+        assertEquals(1, cache.getHitCount());
+    }
+}
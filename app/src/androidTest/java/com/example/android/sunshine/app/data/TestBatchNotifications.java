@@ -0,0 +1,177 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Counts how often a forecast list would reload during a sync.  The observer is registered the
+    way a CursorLoader registers it for ForecastFragment's weather/<location> query, so every
+    onChange it sees is one requery of the forecast list.
+ */
+public class TestBatchNotifications extends AndroidTestCase {
+    private static final int NUM_DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // How long to keep listening for notifications that shouldn't arrive
+    private static final long SETTLE_MILLIS = 500;
+
+    private HandlerThread mObserverThread;
+    private CountingObserver mObserver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mObserverThread = new HandlerThread("CountingObserverThread");
+        mObserverThread.start();
+        mObserver = new CountingObserver(new Handler(mObserverThread.getLooper()));
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true, mObserver);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().unregisterContentObserver(mObserver);
+        mObserverThread.quit();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertLocation() {
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        return Long.parseLong(uri.getLastPathSegment());
+    }
+
+    private static ContentValues[] createWeatherValues(long locationId, int seed) {
+        ContentValues[] values = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationId);
+            values[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, 75 + seed);
+        }
+        return values;
+    }
+
+    // What SunshineSyncAdapter writes for one location: the days, then the trim of old ones
+    private static ArrayList<ContentProviderOperation> createSyncOperations(ContentValues[] days) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues day : days) {
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(TestUtilities.TEST_DATE - 30 * DAY_IN_MILLIS)})
+                .build());
+        return operations;
+    }
+
+    private int settleAndCount(final int expectedAtLeast) throws InterruptedException {
+        if (expectedAtLeast > 0) {
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return mObserver.getCount() >= expectedAtLeast;
+                }
+            }.run();
+        }
+        Thread.sleep(SETTLE_MILLIS);
+        return mObserver.getCount();
+    }
+
+    public void testSeparateCallsNotifyEachTime() throws Throwable {
+        long locationId = insertLocation();
+
+        // The old sync path: bulkInsert, then delete old days
+        ContentValues[] days = createWeatherValues(locationId, 0);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        assertEquals(2, settleAndCount(2));
+    }
+
+    public void testBatchNotifiesOnce() throws Throwable {
+        long locationId = insertLocation();
+
+        // Pre-existing old day so the delete in the batch removes something too
+        ContentValues old = TestUtilities.createWeatherValues(locationId);
+        old.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE - 60 * DAY_IN_MILLIS);
+        mContext.getContentResolver().insert(WeatherEntry.CONTENT_URI, old);
+        settleAndCount(1);
+        mObserver.reset();
+
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncOperations(createWeatherValues(locationId, 0)));
+        assertEquals("Error: a sync batch should reload the forecast once", 1, settleAndCount(1));
+
+        // Nothing changed upstream, so nothing should reload
+        mObserver.reset();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncOperations(createWeatherValues(locationId, 0)));
+        assertEquals("Error: an unchanged forecast should not reload", 0, settleAndCount(0));
+
+        mObserver.reset();
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY,
+                createSyncOperations(createWeatherValues(locationId, 1)));
+        assertEquals(1, settleAndCount(1));
+    }
+
+    public void testBatchAcrossTablesNotifiesOnce() throws Throwable {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues day : createWeatherValues(0, 0)) {
+            day.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(day)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(1, settleAndCount(1));
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        CountingObserver(Handler handler) {
+            super(handler);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount.incrementAndGet();
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            onChange(selfChange);
+        }
+
+        int getCount() {
+            return mCount.get();
+        }
+
+        void reset() {
+            mCount.set(0);
+        }
+    }
+}
@@ -0,0 +1,232 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Builds every schema WeatherDbHelper has shipped with, from SQL frozen at the time, fills it
+    with a forecast and lets WeatherDbHelper upgrade it.  The result has to match a freshly
+    created database column for column and index for index, and still hold the forecast.
+
+    When DATABASE_VERSION goes up, add the new schema to SCHEMAS as literal SQL, not built from
+    WeatherContract, so the fixture keeps describing what really shipped.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String[] SCHEMA_V2 = {
+            "CREATE TABLE location (" +
+                    "_id INTEGER PRIMARY KEY," +
+                    "location_setting TEXT UNIQUE NOT NULL, " +
+                    "city_name TEXT NOT NULL, " +
+                    "coord_lat REAL NOT NULL, " +
+                    "coord_long REAL NOT NULL  );",
+            "CREATE TABLE weather (" +
+                    "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "location_id INTEGER NOT NULL, " +
+                    "date INTEGER NOT NULL, " +
+                    "short_desc TEXT NOT NULL, " +
+                    "weather_id INTEGER NOT NULL," +
+                    "min REAL NOT NULL, " +
+                    "max REAL NOT NULL, " +
+                    "humidity REAL NOT NULL, " +
+                    "pressure REAL NOT NULL, " +
+                    "wind REAL NOT NULL, " +
+                    "degrees REAL NOT NULL, " +
+                    " FOREIGN KEY (location_id) REFERENCES location (_id),  " +
+                    "UNIQUE (date, location_id) ON CONFLICT REPLACE);"
+    };
+
+    private static final String[] SCHEMA_V3 = {
+            SCHEMA_V2[0],
+            SCHEMA_V2[1],
+            "CREATE INDEX IF NOT EXISTS weather_location_date ON weather (location_id, date);"
+    };
+
+    // Indexed by version - WeatherDbHelper.MIN_MIGRATABLE_VERSION
+    private static final String[][] SCHEMAS = {
+            SCHEMA_V2,
+            SCHEMA_V3
+    };
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testMigrationsAreInOrder() {
+        assertEquals("Error: every version needs a frozen schema in SCHEMAS",
+                WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.MIN_MIGRATABLE_VERSION + 1,
+                SCHEMAS.length);
+        assertEquals("Error: every version after MIN_MIGRATABLE_VERSION needs one migration",
+                WeatherDbHelper.DATABASE_VERSION - WeatherDbHelper.MIN_MIGRATABLE_VERSION,
+                WeatherDbHelper.MIGRATIONS.length);
+        for (int i = 0; i < WeatherDbHelper.MIGRATIONS.length; i++) {
+            assertEquals("Error: migration " + i + " is out of order",
+                    WeatherDbHelper.MIN_MIGRATABLE_VERSION + i + 1,
+                    WeatherDbHelper.MIGRATIONS[i].toVersion);
+        }
+    }
+
+    // The fixture for the current version has to be what onCreate builds, or the other
+    // comparisons prove nothing
+    public void testCurrentSchemaMatchesOnCreate() {
+        List<String> expected = describeCreatedSchema();
+        SQLiteDatabase db = createHistoricalDatabase(WeatherDbHelper.DATABASE_VERSION);
+        assertEquals(expected, describeSchema(db));
+        db.close();
+    }
+
+    public void testMigrateFromEveryVersion() {
+        List<String> expected = describeCreatedSchema();
+        for (int version = WeatherDbHelper.MIN_MIGRATABLE_VERSION;
+             version < WeatherDbHelper.DATABASE_VERSION; version++) {
+            mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+            SQLiteDatabase db = createHistoricalDatabase(version);
+            long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue(locationRowId != -1);
+            ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+            long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null,
+                    weatherValues);
+            assertTrue(weatherRowId != -1);
+            db.close();
+
+            WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+            db = dbHelper.getWritableDatabase();
+            assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+            assertEquals("Error: migrating from version " + version + " built a different schema",
+                    expected, describeSchema(db));
+
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            assertTrue("Error: migrating from version " + version + " lost the location",
+                    cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord("Error: location changed migrating from version " +
+                    version, cursor, TestUtilities.createNorthPoleLocationValues());
+            cursor.close();
+
+            cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    null, null, null, null, null, null);
+            assertTrue("Error: migrating from version " + version + " lost the forecast",
+                    cursor.moveToFirst());
+            TestUtilities.validateCurrentRecord("Error: forecast changed migrating from version " +
+                    version, cursor, weatherValues);
+            assertEquals(weatherRowId, cursor.getLong(
+                    cursor.getColumnIndex(WeatherContract.WeatherEntry._ID)));
+            cursor.close();
+
+            // The forecast queries rely on it, so name it rather than leave it to the diff above
+            assertEquals("Error: migrating from version " + version +
+                            " didn't create the location/date index",
+                    Collections.singletonList(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX),
+                    queryStrings(db, "SELECT name FROM sqlite_master WHERE type = 'index'" +
+                            " AND name = '" + WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX + "'"));
+            dbHelper.close();
+        }
+    }
+
+    // Versions before MIN_MIGRATABLE_VERSION are rebuilt, losing the cache but not failing
+    public void testVersionBeforeMigrationsIsRecreated() {
+        List<String> expected = describeCreatedSchema();
+        SQLiteDatabase db = openDatabase();
+        db.execSQL(SCHEMA_V2[0]);
+        db.execSQL(SCHEMA_V2[1]);
+        assertTrue(db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues()) != -1);
+        db.setVersion(WeatherDbHelper.MIN_MIGRATABLE_VERSION - 1);
+        db.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        db = dbHelper.getWritableDatabase();
+        assertEquals(expected, describeSchema(db));
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                null, null, null, null, null, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+        dbHelper.close();
+    }
+
+    private SQLiteDatabase openDatabase() {
+        return SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+    }
+
+    private SQLiteDatabase createHistoricalDatabase(int version) {
+        SQLiteDatabase db = openDatabase();
+        for (String sql : SCHEMAS[version - WeatherDbHelper.MIN_MIGRATABLE_VERSION]) {
+            db.execSQL(sql);
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    private List<String> describeCreatedSchema() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        List<String> schema = describeSchema(dbHelper.getWritableDatabase());
+        dbHelper.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        return schema;
+    }
+
+    /*
+        One line per table column and per index, sorted.  Built from the pragmas rather than the
+        CREATE statements in sqlite_master, since a column added by ALTER TABLE is spelled
+        differently there than the same column in a CREATE TABLE.
+     */
+    private static List<String> describeSchema(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        for (String table : queryStrings(db, "SELECT name FROM sqlite_master WHERE type = 'table'" +
+                " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'")) {
+            Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+            while (cursor.moveToNext()) {
+                schema.add(table + " column " +
+                        cursor.getString(cursor.getColumnIndex("name")) + " " +
+                        cursor.getString(cursor.getColumnIndex("type")) +
+                        " notnull=" + cursor.getInt(cursor.getColumnIndex("notnull")) +
+                        " default=" + cursor.getString(cursor.getColumnIndex("dflt_value")) +
+                        " pk=" + cursor.getInt(cursor.getColumnIndex("pk")));
+            }
+            cursor.close();
+
+            cursor = db.rawQuery("PRAGMA index_list(" + table + ")", null);
+            while (cursor.moveToNext()) {
+                String index = cursor.getString(cursor.getColumnIndex("name"));
+                StringBuilder columns = new StringBuilder();
+                for (String column : queryStrings(db, "PRAGMA index_info(" + index + ")")) {
+                    columns.append(' ').append(column);
+                }
+                schema.add(table + " index " + index +
+                        " unique=" + cursor.getInt(cursor.getColumnIndex("unique")) + columns);
+            }
+            cursor.close();
+        }
+        Collections.sort(schema);
+        return schema;
+    }
+
+    // The "name" column of every row, in the order SQLite returns them
+    private static List<String> queryStrings(SQLiteDatabase db, String sql) {
+        List<String> names = new ArrayList<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        int nameIndex = cursor.getColumnIndexOrThrow("name");
+        while (cursor.moveToNext()) {
+            names.add(cursor.getString(nameIndex));
+        }
+        cursor.close();
+        return names;
+    }
+}
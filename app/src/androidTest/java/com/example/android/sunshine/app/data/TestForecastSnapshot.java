@@ -0,0 +1,174 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Checks that WeatherProvider answers the forecast queries from ForecastSnapshot with exactly
+    what SQLite would have returned, that every write makes it reload, and compares the latency
+    of a cache-hot query with the same query run against SQLite.
+ */
+public class TestForecastSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSnapshot.class.getSimpleName();
+    private static final int NUM_DAYS = 16;
+    private static final int BENCHMARK_QUERIES = 500;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    // What ForecastFragment and the detail widget ask for
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private WeatherDbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationId = Long.parseLong(uri.getLastPathSegment());
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int i = 0; i < NUM_DAYS; i++) {
+            days[i] = TestUtilities.createWeatherValues(locationId);
+            days[i].put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + i * DAY_IN_MILLIS);
+            days[i].put(WeatherEntry.COLUMN_MAX_TEMP, 70 + i);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+        ForecastSnapshot.resetCounters();
+        mDbHelper = new WeatherDbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private Cursor queryForecast(long startDate) {
+        return mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        startDate),
+                FORECAST_COLUMNS, null, null, SORT_ORDER);
+    }
+
+    private Cursor querySqlite(long startDate) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(
+                mDbHelper.getReadableDatabase(),
+                FORECAST_COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(startDate)},
+                null, null, SORT_ORDER);
+    }
+
+    private static void assertSameRows(Cursor expected, Cursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int i = 0; i < expected.getColumnCount(); i++) {
+                assertEquals("Error: column " + expected.getColumnName(i) + " differs",
+                        expected.getString(i), actual.getString(i));
+                assertEquals(expected.getDouble(i), actual.getDouble(i));
+            }
+        }
+        expected.close();
+        actual.close();
+    }
+
+    public void testServesSameRowsAsSqlite() {
+        long startDate = TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS;
+        // Loads the snapshot
+        assertSameRows(querySqlite(startDate), queryForecast(startDate));
+        assertEquals(1, ForecastSnapshot.getMissCount());
+
+        assertSameRows(querySqlite(startDate), queryForecast(startDate));
+        assertSameRows(querySqlite(startDate + DAY_IN_MILLIS),
+                queryForecast(startDate + DAY_IN_MILLIS));
+        assertEquals(2, ForecastSnapshot.getHitCount());
+
+        // One day, the way DetailFragment and the notification ask for it
+        Cursor day = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                        startDate + 3 * DAY_IN_MILLIS),
+                FORECAST_COLUMNS, null, null, null);
+        assertEquals(3, ForecastSnapshot.getHitCount());
+        assertTrue(day.moveToFirst());
+        assertEquals(1, day.getCount());
+        assertEquals(75.0, day.getDouble(day.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        day.close();
+
+        // Earlier than the snapshot starts, so SQLite has to answer
+        queryForecast(TestUtilities.TEST_DATE).close();
+        assertEquals(2, ForecastSnapshot.getMissCount());
+    }
+
+    public void testWritesInvalidate() {
+        queryForecast(TestUtilities.TEST_DATE).close();
+        queryForecast(TestUtilities.TEST_DATE).close();
+        assertEquals(1, ForecastSnapshot.getHitCount());
+
+        ContentValues update = new ContentValues();
+        update.put(WeatherEntry.COLUMN_MAX_TEMP, -10);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, update,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(
+                        WeatherContract.normalizeDate(TestUtilities.TEST_DATE))});
+
+        Cursor cursor = queryForecast(TestUtilities.TEST_DATE);
+        assertEquals(2, ForecastSnapshot.getMissCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals("Error: the snapshot outlived a write", -10.0,
+                cursor.getDouble(cursor.getColumnIndex(WeatherEntry.COLUMN_MAX_TEMP)));
+        cursor.close();
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        cursor = queryForecast(TestUtilities.TEST_DATE);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testBenchmark() {
+        queryForecast(TestUtilities.TEST_DATE).close();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = queryForecast(TestUtilities.TEST_DATE);
+            assertEquals(NUM_DAYS, cursor.getCount());
+            cursor.close();
+        }
+        long hot = System.nanoTime() - start;
+        assertEquals(BENCHMARK_QUERIES, ForecastSnapshot.getHitCount());
+
+        start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_QUERIES; i++) {
+            Cursor cursor = querySqlite(TestUtilities.TEST_DATE);
+            // Fills the window, which is when SQLite actually runs the query
+            assertEquals(NUM_DAYS, cursor.getCount());
+            cursor.close();
+        }
+        long sqlite = System.nanoTime() - start;
+
+        Log.i(LOG_TAG, String.format("%d-day forecast query, snapshot %.1f us vs SQLite %.1f us",
+                NUM_DAYS, hot / 1e3 / BENCHMARK_QUERIES, sqlite / 1e3 / BENCHMARK_QUERIES));
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN for the queries behind every WeatherProvider uri, with the selections
+    the app actually sends, and fails if any of them has to scan a whole table.  The plans come
+    from the device's own SQLite, since that's the planner the app runs against.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestQueryPlans extends AndroidTestCase {
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    private String explain(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        StringBuilder plan = new StringBuilder();
+        int detailIndex = cursor.getColumnIndexOrThrow("detail");
+        while (cursor.moveToNext()) {
+            String detail = cursor.getString(detailIndex);
+            assertFalse("Error: full table scan in \"" + detail + "\" for " + sql,
+                    detail.startsWith("SCAN"));
+            plan.append(detail).append('\n');
+        }
+        cursor.close();
+        Log.i(LOG_TAG, sql + "\n" + plan);
+        return plan.toString();
+    }
+
+    private String explainLocationQuery(String selection, String[] selectionArgs) {
+        String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                FORECAST_COLUMNS, selection, null, null, SORT_ORDER, null);
+        return explain(sql, selectionArgs);
+    }
+
+    // weather/*
+    public void testWeatherWithLocation() {
+        String plan = explainLocationQuery(WeatherProvider.sLocationSettingSelection,
+                new String[]{TestUtilities.TEST_LOCATION});
+        assertTrue("Error: the location's rows should be found through " +
+                        WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX,
+                plan.contains(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+    }
+
+    // weather/*?date=
+    public void testWeatherWithLocationAndStartDate() {
+        String plan = explainLocationQuery(WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+        assertTrue(plan.contains(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+    }
+
+    // weather/*/#
+    public void testWeatherWithLocationAndDate() {
+        explainLocationQuery(WeatherProvider.sLocationSettingAndDaySelection,
+                new String[]{TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    // weather, with the selections the sync and WeatherUpsert use
+    public void testWeather() {
+        explain("SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(TestUtilities.TEST_DATE)});
+        explain("SELECT " + WeatherEntry._ID + " FROM " + WeatherEntry.TABLE_NAME +
+                        " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{"1", Long.toString(TestUtilities.TEST_DATE)});
+    }
+
+    // location, the way the sync looks up a location setting
+    public void testLocation() {
+        explain("SELECT " + LocationEntry._ID + " FROM " + LocationEntry.TABLE_NAME +
+                        " WHERE " + LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{TestUtilities.TEST_LOCATION});
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks the update-then-insert path used by WeatherProvider.bulkInsert, and benchmarks it
+    against the plain insert relying on ON CONFLICT REPLACE over thousands of rows spread across
+    many locations.
+ */
+public class TestWeatherUpsert extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherUpsert.class.getSimpleName();
+    private static final int BENCHMARK_LOCATIONS = 50;
+    private static final int BENCHMARK_DAYS = 60;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    private long insertLocation(int i) {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+        return mDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
+    }
+
+    private static ContentValues createWeatherValues(long locationId, int day, int seed) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.normalizeDate(TestUtilities.TEST_DATE + day * DAY_IN_MILLIS));
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 75 + seed);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 65 - seed);
+        return values;
+    }
+
+    private long queryId(long locationId, int day) {
+        Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(locationId), Long.toString(WeatherContract.normalizeDate(
+                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS))},
+                null, null, null);
+        assertTrue("Error: no row for day " + day, cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
+    public void testUpsertResults() {
+        long locationId = insertLocation(0);
+        WeatherUpsert upsert = new WeatherUpsert(mDb);
+        try {
+            assertEquals(WeatherUpsert.RESULT_INSERTED,
+                    upsert.upsert(createWeatherValues(locationId, 0, 0)));
+            long id = queryId(locationId, 0);
+
+            assertEquals(WeatherUpsert.RESULT_UNCHANGED,
+                    upsert.upsert(createWeatherValues(locationId, 0, 0)));
+            assertEquals(WeatherUpsert.RESULT_UPDATED,
+                    upsert.upsert(createWeatherValues(locationId, 0, 1)));
+            assertEquals("Error: an update should keep the row's _ID", id, queryId(locationId, 0));
+
+            // An integer sent for a REAL column is the same value, not a change
+            ContentValues values = createWeatherValues(locationId, 0, 1);
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 2);
+            assertEquals(WeatherUpsert.RESULT_UPDATED, upsert.upsert(values));
+            values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 2.0);
+            assertEquals(WeatherUpsert.RESULT_UNCHANGED, upsert.upsert(values));
+
+            ContentValues missingColumn = createWeatherValues(locationId, 1, 0);
+            missingColumn.putNull(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC);
+            assertEquals(WeatherUpsert.RESULT_FAILED, upsert.upsert(missingColumn));
+
+            assertEquals(1, upsert.getInsertedCount());
+            assertEquals(2, upsert.getUpdatedCount());
+            assertEquals(2, upsert.getUnchangedCount());
+            assertEquals(1, upsert.getFailedCount());
+            assertEquals(3, upsert.getChangedCount());
+        } finally {
+            upsert.close();
+        }
+    }
+
+    public void testBenchmark() {
+        long[] locationIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            locationIds[i] = insertLocation(i);
+        }
+        ContentValues[] initial = createRows(locationIds, 0);
+        ContentValues[] changed = createRows(locationIds, 1);
+
+        long start = System.nanoTime();
+        writeWithReplace(initial);
+        long replaceInitial = System.nanoTime() - start;
+        start = System.nanoTime();
+        writeWithReplace(initial);
+        long replaceSame = System.nanoTime() - start;
+        start = System.nanoTime();
+        writeWithReplace(changed);
+        long replaceChanged = System.nanoTime() - start;
+
+        mDb.delete(WeatherContract.WeatherEntry.TABLE_NAME, null, null);
+        start = System.nanoTime();
+        WeatherUpsert upsert = writeWithUpsert(initial);
+        long upsertInitial = System.nanoTime() - start;
+        assertEquals(initial.length, upsert.getInsertedCount());
+        start = System.nanoTime();
+        upsert = writeWithUpsert(initial);
+        long upsertSame = System.nanoTime() - start;
+        assertEquals(initial.length, upsert.getUnchangedCount());
+        start = System.nanoTime();
+        upsert = writeWithUpsert(changed);
+        long upsertChanged = System.nanoTime() - start;
+        assertEquals(changed.length, upsert.getUpdatedCount());
+
+        Log.i(LOG_TAG, String.format("%d rows, replace vs upsert (ms): initial %.1f / %.1f, " +
+                        "unchanged %.1f / %.1f, changed %.1f / %.1f",
+                initial.length,
+                replaceInitial / 1e6, upsertInitial / 1e6,
+                replaceSame / 1e6, upsertSame / 1e6,
+                replaceChanged / 1e6, upsertChanged / 1e6));
+    }
+
+    private static ContentValues[] createRows(long[] locationIds, int seed) {
+        ContentValues[] rows = new ContentValues[locationIds.length * BENCHMARK_DAYS];
+        int i = 0;
+        for (long locationId : locationIds) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                rows[i++] = createWeatherValues(locationId, day, seed);
+            }
+        }
+        return rows;
+    }
+
+    // The bulkInsert this replaced: one SQLiteDatabase.insert per row, leaning on REPLACE.
+    private void writeWithReplace(ContentValues[] rows) {
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                assertTrue(mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, row) != -1);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private WeatherUpsert writeWithUpsert(ContentValues[] rows) {
+        WeatherUpsert upsert = new WeatherUpsert(mDb);
+        mDb.beginTransaction();
+        try {
+            for (ContentValues row : rows) {
+                upsert.upsert(row);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            mDb.endTransaction();
+        }
+        return upsert;
+    }
+}
@@ -0,0 +1,203 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Checks the pragmas WeatherDbHelper opens the database with, and measures how long the
+    forecast query takes on the UI side while a sync's bulkInsert holds the write transaction,
+    with and without write-ahead logging.
+ */
+@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+public class TestWriteAheadLogging extends AndroidTestCase {
+    public static final String LOG_TAG = TestWriteAheadLogging.class.getSimpleName();
+    private static final int BENCHMARK_LOCATIONS = 100;
+    private static final int BENCHMARK_DAYS = 60;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // Asks inside a transaction, so the answer comes from the connection the writes go through
+    // rather than one of the pooled readers
+    private static String queryPragma(SQLiteDatabase db, String pragma) {
+        db.beginTransaction();
+        try {
+            Cursor cursor = db.rawQuery("PRAGMA " + pragma, null);
+            assertTrue(cursor.moveToFirst());
+            String value = cursor.getString(0);
+            cursor.close();
+            return value;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void testPragmas() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        assertEquals("wal", queryPragma(db, "journal_mode").toLowerCase());
+        // NORMAL
+        assertEquals("1", queryPragma(db, "synchronous"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            assertEquals(Integer.toString(WeatherDbHelper.PAGE_SIZE),
+                    queryPragma(db, "page_size"));
+        }
+        dbHelper.close();
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        dbHelper = new WeatherDbHelper(mContext, false);
+        assertFalse("wal".equalsIgnoreCase(
+                queryPragma(dbHelper.getWritableDatabase(), "journal_mode")));
+        dbHelper.close();
+    }
+
+    public void testReaderLatencyDuringBulkInsert() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return;
+        }
+        ReaderTimings withoutWal = measureReaders(false);
+        ReaderTimings withWal = measureReaders(true);
+        Log.i(LOG_TAG, "Forecast query during a " + BENCHMARK_LOCATIONS * BENCHMARK_DAYS +
+                " row bulkInsert, without WAL: " + withoutWal + "; with WAL: " + withWal);
+        assertTrue("Error: readers should not wait for the sync's transaction in WAL mode",
+                withWal.readsDuringWrite > 1);
+    }
+
+    /*
+        Writes the rows the way WeatherProvider.bulkInsert does, in one transaction through
+        WeatherUpsert, while this thread keeps running ForecastFragment's query on the same
+        WeatherDbHelper until the write commits.
+     */
+    private ReaderTimings measureReaders(boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        long[] locationIds = new long[BENCHMARK_LOCATIONS];
+        for (int i = 0; i < BENCHMARK_LOCATIONS; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            if (i > 0) {
+                values.put(LocationEntry.COLUMN_LOCATION_SETTING, "location-" + i);
+            }
+            locationIds[i] = db.insert(LocationEntry.TABLE_NAME, null, values);
+        }
+        writeRows(db, createRows(locationIds, 0));
+
+        final ContentValues[] changed = createRows(locationIds, 1);
+        final CountDownLatch writing = new CountDownLatch(1);
+        final AtomicBoolean written = new AtomicBoolean();
+        Thread writer = new Thread("BulkInsertWriter") {
+            @Override
+            public void run() {
+                try {
+                    writeRows(db, changed, writing);
+                } finally {
+                    written.set(true);
+                }
+            }
+        };
+        writer.start();
+        writing.await();
+
+        SQLiteDatabase reader = dbHelper.getReadableDatabase();
+        ReaderTimings timings = new ReaderTimings();
+        do {
+            long start = System.nanoTime();
+            Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(reader,
+                    null, WeatherProvider.sLocationSettingWithStartDateSelection,
+                    new String[]{TestUtilities.TEST_LOCATION,
+                            Long.toString(TestUtilities.TEST_DATE)},
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            // The query only runs when the cursor is first filled
+            assertEquals(BENCHMARK_DAYS, cursor.getCount());
+            cursor.close();
+            timings.add(System.nanoTime() - start, !written.get());
+        } while (!written.get());
+        writer.join();
+        dbHelper.close();
+        return timings;
+    }
+
+    private static ContentValues[] createRows(long[] locationIds, int seed) {
+        ContentValues[] rows = new ContentValues[locationIds.length * BENCHMARK_DAYS];
+        int i = 0;
+        for (long locationId : locationIds) {
+            for (int day = 0; day < BENCHMARK_DAYS; day++) {
+                ContentValues values = TestUtilities.createWeatherValues(locationId);
+                values.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(
+                        TestUtilities.TEST_DATE + day * DAY_IN_MILLIS));
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + seed);
+                rows[i++] = values;
+            }
+        }
+        return rows;
+    }
+
+    private static void writeRows(SQLiteDatabase db, ContentValues[] rows) {
+        writeRows(db, rows, null);
+    }
+
+    private static void writeRows(SQLiteDatabase db, ContentValues[] rows, CountDownLatch began) {
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        db.beginTransaction();
+        try {
+            if (began != null) {
+                began.countDown();
+            }
+            for (ContentValues row : rows) {
+                upsert.upsert(row);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+    }
+
+    private static class ReaderTimings {
+        final List<Long> latencies = new ArrayList<>();
+        int readsDuringWrite;
+
+        void add(long nanos, boolean duringWrite) {
+            latencies.add(nanos);
+            if (duringWrite) {
+                readsDuringWrite++;
+            }
+        }
+
+        @Override
+        public String toString() {
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            return String.format("%d reads (%d while writing), median %.1f ms, max %.1f ms",
+                    sorted.size(), readsDuringWrite,
+                    sorted.get(sorted.size() / 2) / 1e6, sorted.get(sorted.size() - 1) / 1e6);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+
+/*
+    Real OpenWeatherMap responses saved to files, one per location, for the sync benchmark to
+    replay.  Recording needs the network and an API key in build.gradle; the fixtures end up in
+    the app's files directory under sync_fixtures, where adb can pull them from one device and
+    push them to another so runs everywhere replay the same bytes.  Bodies are stored decoded,
+    and the replaying server compresses them again the way OpenWeatherMap does.
+ */
+class ForecastFixtures {
+    private static final String LOG_TAG = ForecastFixtures.class.getSimpleName();
+    private static final String FIXTURE_DIR = "sync_fixtures";
+    private static final String PLACEHOLDER_API_KEY = "YOUR_API_KEY_HERE";
+
+    private final File mDir;
+
+    ForecastFixtures(Context context) {
+        mDir = new File(context.getFilesDir(), FIXTURE_DIR);
+    }
+
+    static boolean canRecord() {
+        return !PLACEHOLDER_API_KEY.equals(BuildConfig.OPEN_WEATHER_MAP_API_KEY);
+    }
+
+    private File getFile(String locationSetting) throws IOException {
+        return new File(mDir, URLEncoder.encode(locationSetting, "UTF-8") + ".json");
+    }
+
+    /*
+        Fetches the location's forecast from OpenWeatherMap and saves the body, replacing the
+        fixture only once the whole body has arrived.
+     */
+    void record(String locationSetting) throws IOException {
+        if (!mDir.isDirectory() && !mDir.mkdirs()) {
+            throw new IOException("Can't create " + mDir);
+        }
+        URL url = new OpenWeatherMapSource().getForecastUrl(locationSetting, null, null);
+        File file = getFile(locationSetting);
+        File partial = new File(file.getPath() + ".partial");
+        HttpURLConnection connection = ForecastTransport.open(url);
+        try {
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Recording " + locationSetting + " got " + responseCode);
+            }
+            Reader in = ForecastTransport.openReader(connection);
+            if (in == null) {
+                throw new IOException("Recording " + locationSetting + " got no body");
+            }
+            Writer out = new OutputStreamWriter(new FileOutputStream(partial), "UTF-8");
+            try {
+                char[] buffer = new char[4096];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            } finally {
+                out.close();
+                in.close();
+            }
+        } finally {
+            connection.disconnect();
+        }
+        if (!partial.renameTo(file)) {
+            throw new IOException("Can't save " + file);
+        }
+        Log.i(LOG_TAG, "Recorded " + file + ", " + file.length() + " bytes");
+    }
+
+    /*
+        Returns the recorded body for the location, or null if it was never recorded.
+     */
+    String load(String locationSetting) throws IOException {
+        File file = getFile(locationSetting);
+        if (!file.isFile()) {
+            return null;
+        }
+        StringBuilder body = new StringBuilder((int) file.length());
+        Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                body.append(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.os.Debug;
+import android.os.SystemClock;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/*
+    Replays forecast responses through a local server under a given latency and bandwidth, and
+    has SunshineSyncAdapter refresh every location one after the other the way manual syncs
+    would: fetch, parse, write and tell the widgets and Muzei.  The adapter is a test one, so the
+    runs leave the installed app's sync schedule, notification and wearable alone.
+    Each run starts from an empty database and reports its wall time, the bytes sent by the
+    server and decoded by the sync, what the sync thread allocated, the rows it wrote and the
+    time spent in each phase.
+ */
+class SyncBenchmark {
+    private static final String FORECAST_PATH = "/data/2.5/forecast/daily?";
+
+    private final Context mContext;
+    private final StubHttpServer mServer;
+    private final OpenWeatherMapSource mSource;
+    private final List<String> mLocations = new ArrayList<>();
+    private final List<URL> mUrls = new ArrayList<>();
+
+    SyncBenchmark(Context context, StubHttpServer server) throws IOException {
+        mContext = context;
+        mServer = server;
+        // The real request and decoding code, pointed at the local server
+        mSource = new OpenWeatherMapSource(server.getUrl(FORECAST_PATH).toString(),
+                FetchPolicy.getInstance());
+    }
+
+    /*
+        Has the server answer the location's request with the body.
+     */
+    void addLocation(String locationSetting, String body) throws IOException {
+        URL url = mSource.getForecastUrl(locationSetting, null, null);
+        mServer.setResponse(url.getFile(), body);
+        mLocations.add(locationSetting);
+        mUrls.add(url);
+    }
+
+    /*
+        Syncs every location once.
+
+        latencyMillis:  how long the server waits before each answer
+        bytesPerSecond: the bandwidth of the server, 0 for as fast as the loopback goes
+     */
+    @SuppressWarnings("deprecation")
+    Run run(String name, long latencyMillis, long bytesPerSecond) {
+        mServer.setLatencyMillis(latencyMillis);
+        mServer.setBytesPerSecond(bytesPerSecond);
+        clearDatabase();
+        SyncMetrics.reset();
+        ForecastTransport.resetCounters();
+        SyncTestUtilities.clearTestAdapter(mContext);
+        SunshineSyncAdapter adapter = SyncTestUtilities.createTestAdapter(mContext, mSource);
+        SyncResult syncResult = new SyncResult();
+        long bytesSent = mServer.getBytesSent();
+
+        // The sync runs on this thread, so its allocations are this thread's
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < mLocations.size(); i++) {
+            adapter.syncLocation(mUrls.get(i), mLocations.get(i), true, new SyncCancellation(),
+                    syncResult);
+        }
+        long wallMillis = SystemClock.elapsedRealtime() - start;
+        Debug.stopAllocCounting();
+
+        Run run = new Run(name, mLocations.size());
+        run.wallMillis = wallMillis;
+        run.allocations = Debug.getThreadAllocCount();
+        run.allocatedBytes = Debug.getThreadAllocSize();
+        run.bytesSent = mServer.getBytesSent() - bytesSent;
+        run.bytesDecoded = ForecastTransport.getDecompressedBytes();
+        run.rowsWritten = countRows();
+        run.failures = syncResult.stats.numIoExceptions;
+        StringWriter phases = new StringWriter();
+        SyncMetrics.dump(new PrintWriter(phases));
+        run.phases = phases.toString();
+        return run;
+    }
+
+    void clearDatabase() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private int countRows() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[]{WeatherContract.WeatherEntry._ID},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return 0;
+        }
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    static String formatHeader() {
+        return String.format(Locale.US, "%-10s %5s %8s %9s %9s %9s %11s %6s %5s",
+                "run", "locs", "wall ms", "sent", "decoded", "allocs", "alloc bytes", "rows",
+                "fail");
+    }
+
+    static class Run {
+        final String name;
+        final int locations;
+        long wallMillis;
+        // Headers and bodies as the server wrote them, compressed
+        long bytesSent;
+        long bytesDecoded;
+        int allocations;
+        int allocatedBytes;
+        int rowsWritten;
+        long failures;
+        String phases;
+
+        Run(String name, int locations) {
+            this.name = name;
+            this.locations = locations;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-10s %5d %8d %9d %9d %9d %11d %6d %5d",
+                    name, locations, wallMillis, bytesSent, bytesDecoded, allocations,
+                    allocatedBytes, rowsWritten, failures);
+        }
+    }
+}
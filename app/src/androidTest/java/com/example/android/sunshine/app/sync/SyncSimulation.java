@@ -0,0 +1,160 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/*
+    Runs a week of periodic syncs on a simulated clock against a modelled OpenWeatherMap, so
+    scheduling policies can be compared deterministically and in milliseconds.
+
+    Upstream publishes a new today at every midnight.  On top of that, normal days get a new
+    forecast every 6 hours, half of which change today, and volatile days a change to today every
+    hour.  Drifting days revise today by a fraction of a degree every hour, which the sync
+    reports as an ordinary change.  Quiet days get nothing else.  There is one outage during
+    which every request fails.  A sync downloads the full response when something was published
+    since the last one it stored, and gets a 304 otherwise.  Each run reports the syncs made, the
+    bytes received and how long noticeable changes to today took to reach the device.
+ */
+class SyncSimulation {
+    static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    static final long WEEK_IN_MILLIS = 7 * 24 * HOUR_IN_MILLIS;
+    // A compressed 14 day response, and the headers of a 304 or an error
+    static final int FULL_RESPONSE_BYTES = 2600;
+    static final int NOT_MODIFIED_BYTES = 350;
+    static final int FAILED_BYTES = 250;
+    // Nothing but the new day is published
+    static final int DAY_QUIET = 0;
+    // A new forecast every 6 hours, half of them changing today
+    static final int DAY_NORMAL = 1;
+    // Today changes every hour
+    static final int DAY_VOLATILE = 2;
+    // Today is revised a little every hour
+    static final int DAY_DRIFTING = 3;
+
+    // What a publication changes
+    private static final int CHANGE_LATER = 0;
+    private static final int CHANGE_TODAY_SLIGHTLY = 1;
+    private static final int CHANGE_TODAY = 2;
+
+    private final List<Long> mPublishTimes = new ArrayList<>();
+    private final List<Integer> mPublishChanges = new ArrayList<>();
+    private final long mOutageStart;
+    private final long mOutageEnd;
+
+    /**
+     * @param days what each of the 7 days is like, one of the DAY_ constants
+     */
+    SyncSimulation(long seed, int... days) {
+        Random random = new Random(seed);
+        for (long hour = 0; hour < WEEK_IN_MILLIS / HOUR_IN_MILLIS; hour++) {
+            int day = days[(int) (hour / 24)];
+            if (hour % 24 == 0) {
+                // A new today
+                publish(hour, CHANGE_TODAY);
+            } else if (day == DAY_VOLATILE) {
+                publish(hour, CHANGE_TODAY);
+            } else if (day == DAY_DRIFTING) {
+                publish(hour, CHANGE_TODAY_SLIGHTLY);
+            } else if (day == DAY_NORMAL && hour % 6 == 0) {
+                publish(hour, random.nextBoolean() ? CHANGE_TODAY : CHANGE_LATER);
+            }
+        }
+        // Six hours on the fifth day
+        mOutageStart = (4 * 24 + 9) * HOUR_IN_MILLIS;
+        mOutageEnd = mOutageStart + 6 * HOUR_IN_MILLIS;
+    }
+
+    private void publish(long hour, int change) {
+        mPublishTimes.add(hour * HOUR_IN_MILLIS);
+        mPublishChanges.add(change);
+    }
+
+    /**
+     * @param adaptive true to let SyncScheduler pick the interval, false to keep the default
+     */
+    Result run(boolean adaptive) {
+        Result result = new Result(adaptive ? "adaptive" : "fixed");
+        int interval = SunshineSyncAdapter.SYNC_INTERVAL;
+        int lastOutcome = -1;
+        int streak = 0;
+        // Publications up to here are stored on the device
+        int stored = 0;
+        long now = 0;
+        while (now < WEEK_IN_MILLIS) {
+            int outcome;
+            result.syncs++;
+            if (now >= mOutageStart && now < mOutageEnd) {
+                outcome = SyncScheduler.OUTCOME_FAILED;
+                result.bytes += FAILED_BYTES;
+            } else {
+                int published = stored;
+                while (published < mPublishTimes.size() && mPublishTimes.get(published) <= now) {
+                    published++;
+                }
+                if (published == stored) {
+                    outcome = SyncScheduler.OUTCOME_UNCHANGED;
+                    result.bytes += NOT_MODIFIED_BYTES;
+                } else {
+                    outcome = SyncScheduler.OUTCOME_CHANGED;
+                    result.bytes += FULL_RESPONSE_BYTES;
+                    for (int i = stored; i < published; i++) {
+                        if (mPublishChanges.get(i) == CHANGE_TODAY) {
+                            outcome = SyncScheduler.OUTCOME_TODAY_CHANGED;
+                            result.addLag(now - mPublishTimes.get(i));
+                        }
+                    }
+                    stored = published;
+                }
+            }
+            if (adaptive) {
+                streak = SyncScheduler.getNextStreak(lastOutcome, streak, outcome);
+                lastOutcome = outcome;
+                interval = SyncScheduler.getNextInterval(interval, outcome, streak);
+            }
+            result.maxInterval = Math.max(result.maxInterval, interval);
+            // The framework runs a periodic sync within its flex time, take the middle
+            now += (interval - SyncScheduler.getFlexTime(interval) / 2) * 1000L;
+        }
+        // Changes the week ended before fetching waited until then
+        for (int i = stored; i < mPublishTimes.size(); i++) {
+            if (mPublishChanges.get(i) == CHANGE_TODAY) {
+                result.addLag(WEEK_IN_MILLIS - mPublishTimes.get(i));
+            }
+        }
+        return result;
+    }
+
+    static class Result {
+        final String name;
+        int syncs;
+        long bytes;
+        int todayChanges;
+        long totalLagMillis;
+        long maxLagMillis;
+        int maxInterval;
+
+        Result(String name) {
+            this.name = name;
+        }
+
+        void addLag(long lagMillis) {
+            todayChanges++;
+            totalLagMillis += lagMillis;
+            maxLagMillis = Math.max(maxLagMillis, lagMillis);
+        }
+
+        long getMeanLagMillis() {
+            return todayChanges == 0 ? 0 : totalLagMillis / todayChanges;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %d syncs, %d bytes, today's changes seen after "
+                            + "%.1f min on average and %.1f min at most, interval up to %ds",
+                    name, syncs, bytes, getMeanLagMillis() / 60000.0, maxLagMillis / 60000.0,
+                    maxInterval);
+        }
+    }
+}
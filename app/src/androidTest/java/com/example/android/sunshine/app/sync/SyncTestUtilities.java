@@ -0,0 +1,98 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.Locale;
+
+/*
+    Fixtures for the sync tests.  The responses mirror what OpenWeatherMap's daily forecast API
+    returns, including the fields Sunshine ignores, so that parse and transfer costs are realistic.
+ */
+public class SyncTestUtilities {
+    static final String TEST_CITY = "Mountain View";
+    static final double TEST_LATITUDE = 37.3861;
+    static final double TEST_LONGITUDE = -122.0839;
+
+    private static final int[] TEST_WEATHER_IDS = {800, 801, 500, 211, 602, 741, 804};
+    private static final String[] TEST_DESCRIPTIONS =
+            {"Clear", "Clouds", "Rain", "Thunderstorm", "Snow", "Fog", "Clouds"};
+    private static final String TEST_SCHEDULER_PREFS = "test_adapter_scheduler";
+    private static final String TEST_COALESCER_PREFS = "test_adapter_requests";
+    private static final String TEST_ANNOUNCED_TODAY_PREFS = "test_adapter_announced_today";
+
+    private SyncTestUtilities() {
+    }
+
+    static String createForecastJson(int numDays) {
+        return createForecastJson(numDays, 0);
+    }
+
+    /*
+        Builds a daily forecast response for numDays days.  Different seeds produce different
+        temperatures, so a test can simulate the upstream forecast changing between syncs.
+     */
+    static String createForecastJson(int numDays, int seed) {
+        StringBuilder json = new StringBuilder(600 * numDays);
+        json.append("{\"city\":{\"id\":5375480,\"name\":\"").append(TEST_CITY)
+                .append("\",\"coord\":{\"lon\":").append(TEST_LONGITUDE)
+                .append(",\"lat\":").append(TEST_LATITUDE)
+                .append("},\"country\":\"US\",\"population\":0},")
+                .append("\"cod\":\"200\",\"message\":0.0121,\"cnt\":").append(numDays)
+                .append(",\"list\":[");
+        for (int i = 0; i < numDays; i++) {
+            int condition = (i + seed) % TEST_WEATHER_IDS.length;
+            double high = 20.5 + i + seed;
+            double low = 10.25 + i - seed;
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.US,
+                    "{\"dt\":%d,\"temp\":{\"day\":%.2f,\"min\":%.2f,\"max\":%.2f,\"night\":%.2f," +
+                            "\"eve\":%.2f,\"morn\":%.2f},\"pressure\":%.2f,\"humidity\":%d," +
+                            "\"weather\":[{\"id\":%d,\"main\":\"%s\",\"description\":\"%s\"," +
+                            "\"icon\":\"01d\"}],\"speed\":%.2f,\"deg\":%d,\"clouds\":%d}",
+                    1419033600L + i * 86400L, (high + low) / 2, low, high, low + 1, high - 1,
+                    low + 2, 1013.25 - i, 40 + i, TEST_WEATHER_IDS[condition],
+                    TEST_DESCRIPTIONS[condition], TEST_DESCRIPTIONS[condition].toLowerCase(Locale.US),
+                    3.5 + i * 0.1, (i * 37) % 360, i * 5));
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    /*
+        A sync adapter that keeps its scheduling, the requests it coalesces and the day it
+        announced in preferences of the tests' own, and leaves the installed app's periodic
+        sync, notification and wearable alone.  Tests that use it call clearTestAdapter in
+        tearDown.
+     */
+    static SunshineSyncAdapter createTestAdapter(Context context, ForecastSource source) {
+        return new SunshineSyncAdapter(context, source,
+                new SyncScheduler(getPrefs(context, TEST_SCHEDULER_PREFS)),
+                new SyncRequestCoalescer(getPrefs(context, TEST_COALESCER_PREFS)),
+                getTestAnnouncedToday(context));
+    }
+
+    /*
+        The day announced by the adapters of createTestAdapter.
+     */
+    static AnnouncedToday getTestAnnouncedToday(Context context) {
+        return new AnnouncedToday(getPrefs(context, TEST_ANNOUNCED_TODAY_PREFS));
+    }
+
+    static void clearTestAdapter(Context context) {
+        for (String name : new String[]{TEST_SCHEDULER_PREFS, TEST_COALESCER_PREFS,
+                TEST_ANNOUNCED_TODAY_PREFS}) {
+            getPrefs(context, name).edit().clear().commit();
+        }
+    }
+
+    private static SharedPreferences getPrefs(Context context, String name) {
+        return context.getSharedPreferences(name, Context.MODE_PRIVATE);
+    }
+
+    static String createErrorJson(int code) {
+        return "{\"cod\":\"" + code + "\",\"message\":\"city not found\"}";
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/*
+    Fetches from a local stand-in server that answers with 5xx errors, stalls or resets the
+    connection, and checks that FetchPolicy retries those, stops after a bounded number of
+    attempts, fails fast while an endpoint's circuit breaker is open, and stops waiting between
+    attempts as soon as the sync is canceled.  Short delays and timeouts keep the whole run
+    within a few seconds.
+ */
+public class TestFetchPolicy extends AndroidTestCase {
+    private static final long BACKOFF_MILLIS = 20;
+    private static final long OPEN_MILLIS = 500;
+    private static final int READ_TIMEOUT_MILLIS = 300;
+
+    private StubHttpServer mServer;
+    private URL mUrl;
+    private FetchPolicy mPolicy;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(14), null, 0, -1);
+        mUrl = mServer.getUrl("/daily");
+        mPolicy = new FetchPolicy(BACKOFF_MILLIS, OPEN_MILLIS, READ_TIMEOUT_MILLIS,
+                new Random(42));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private int connect() throws IOException {
+        HttpURLConnection connection = mPolicy.connect(mUrl, null, null, new SyncCancellation());
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public void testBackoff() {
+        Random random = new Random(42);
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long backoff = BACKOFF_MILLIS << (attempt - 1);
+            long delay = FetchPolicy.getBackoffMillis(attempt, BACKOFF_MILLIS, random);
+            assertTrue("Error: attempt " + attempt + " waited " + delay + "ms",
+                    delay >= backoff / 2 && delay <= backoff);
+        }
+        assertTrue("Error: the backoff should be capped", FetchPolicy.getBackoffMillis(
+                40, FetchPolicy.BASE_BACKOFF_MILLIS, random) <= FetchPolicy.MAX_BACKOFF_MILLIS);
+
+        assertTrue(FetchPolicy.isRetryable(new SocketTimeoutException()));
+        assertFalse("Error: an offline device shouldn't retry",
+                FetchPolicy.isRetryable(new UnknownHostException()));
+    }
+
+    public void testRetriesServerErrors() throws IOException {
+        mServer.injectFault(503, FetchPolicy.MAX_ATTEMPTS - 1);
+        assertEquals(HttpURLConnection.HTTP_OK, connect());
+        assertEquals(FetchPolicy.MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    public void testRetriesTimeoutsAndResets() throws IOException {
+        mServer.injectFault(StubHttpServer.FAULT_STALL, 1);
+        assertEquals(HttpURLConnection.HTTP_OK, connect());
+        assertEquals(2, mServer.getRequestCount());
+
+        mServer.injectFault(StubHttpServer.FAULT_RESET, 1);
+        assertEquals(HttpURLConnection.HTTP_OK, connect());
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testClientErrorsAreNotRetried() throws IOException {
+        mServer.injectFault(HttpURLConnection.HTTP_NOT_FOUND, 1);
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, connect());
+        assertEquals("Error: a 404 should be handed back at once", 1, mServer.getRequestCount());
+    }
+
+    public void testAttemptsAreBounded() {
+        mServer.injectFault(500, 100);
+        try {
+            connect();
+            fail("Error: a server that keeps failing should fail the fetch");
+        } catch (IOException e) {
+            assertTrue(e instanceof FetchPolicy.ServerErrorException);
+            assertEquals(500, ((FetchPolicy.ServerErrorException) e).responseCode);
+        }
+        assertEquals(FetchPolicy.MAX_ATTEMPTS, mServer.getRequestCount());
+    }
+
+    public void testCancelDuringBackoff() throws Throwable {
+        // Backs off for 10 to 20 seconds after the first failure
+        final FetchPolicy policy = new FetchPolicy(20 * 1000, OPEN_MILLIS, READ_TIMEOUT_MILLIS,
+                new Random(42));
+        mServer.injectFault(503, 100);
+        final SyncCancellation cancellation = new SyncCancellation();
+        final Throwable[] thrown = new Throwable[1];
+        Thread fetchThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    policy.connect(mUrl, null, null, cancellation).disconnect();
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+
+        fetchThread.start();
+        PollingCheck.check("Error: the fetch never reached the server", 3000,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return mServer.getRequestCount() > 0;
+                    }
+                });
+        long start = System.currentTimeMillis();
+        cancellation.cancel();
+        fetchThread.join(3000);
+        assertFalse("Error: the canceled fetch kept backing off", fetchThread.isAlive());
+        assertTrue(System.currentTimeMillis() - start < 3000);
+        assertTrue("Error: the canceled fetch should have said so, got " + thrown[0],
+                thrown[0] instanceof SyncCancellation.CanceledException);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testCircuitBreaker() throws Exception {
+        mServer.injectFault(502, 100);
+        try {
+            connect();
+            fail();
+        } catch (FetchPolicy.ServerErrorException e) {
+            // The breaker isn't open yet
+        }
+        try {
+            connect();
+            fail();
+        } catch (FetchPolicy.CircuitOpenException e) {
+            // It opened before the last attempt
+            assertTrue(e.getCause() instanceof FetchPolicy.ServerErrorException);
+        }
+        assertEquals(FetchPolicy.FAILURES_TO_OPEN, mServer.getRequestCount());
+
+        try {
+            connect();
+            fail();
+        } catch (FetchPolicy.CircuitOpenException e) {
+            assertTrue(e.retryAfterMillis > 0 && e.retryAfterMillis <= OPEN_MILLIS);
+        }
+        assertEquals("Error: an open breaker shouldn't reach the server",
+                FetchPolicy.FAILURES_TO_OPEN, mServer.getRequestCount());
+
+        // Once the period is over, an answer closes it again
+        mServer.injectFault(0, 0);
+        Thread.sleep(OPEN_MILLIS);
+        assertEquals(HttpURLConnection.HTTP_OK, connect());
+        assertEquals(HttpURLConnection.HTTP_OK, connect());
+    }
+
+    public void testCircuitBreakerStates() {
+        FetchPolicy.CircuitBreaker breaker = new FetchPolicy.CircuitBreaker(2, 1000);
+        breaker.onFailure(0);
+        assertTrue(breaker.allowRequest(0));
+        breaker.onFailure(10);
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest(500));
+        assertEquals(510, breaker.getRetryAfterMillis(500));
+
+        assertTrue("Error: the breaker should let one request through",
+                breaker.allowRequest(1010));
+        assertFalse("Error: only one request at a time should go through",
+                breaker.allowRequest(1011));
+        breaker.onFailure(1500);
+        assertFalse(breaker.allowRequest(2000));
+        assertTrue(breaker.allowRequest(2500));
+        breaker.onAbandoned();
+        assertTrue("Error: a request that told nothing shouldn't hold the breaker",
+                breaker.allowRequest(2501));
+        breaker.onSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest(2502));
+    }
+
+    public void testSyncResultStats() {
+        long now = 1400000000000L;
+        SyncResult syncResult = new SyncResult();
+        FetchPolicy.recordFailure(syncResult, new IOException(), now);
+        assertEquals(1, syncResult.stats.numIoExceptions);
+        assertEquals(0, syncResult.delayUntil);
+
+        FetchPolicy.recordFailure(syncResult, new FetchPolicy.CircuitOpenException(
+                "api.openweathermap.org", 60 * 1000, null), now);
+        assertEquals(2, syncResult.stats.numIoExceptions);
+        assertEquals("Error: syncs should wait until the breaker lets a request through",
+                now / 1000 + 60, syncResult.delayUntil);
+    }
+}
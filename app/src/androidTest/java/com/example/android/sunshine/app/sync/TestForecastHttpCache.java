@@ -0,0 +1,250 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+
+/*
+    Runs repeated syncs against a local stand-in for OpenWeatherMap and counts what each one costs
+    in bytes on the wire and rows written.  The fetch below follows the same steps as
+    SunshineSyncAdapter.onPerformSync: apply the stored validators, stop at a 304, otherwise parse,
+    write, and only then remember the new validators.  Also checks that a sync which keeps the
+    stored forecast, fresh or not modified, still drops yesterday once the day has rolled over.
+ */
+public class TestForecastHttpCache extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastHttpCache.class.getSimpleName();
+    private static final String TEST_LOCATION = "94043";
+    private static final int NUM_DAYS = 14;
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private StubHttpServer mServer;
+    private ForecastHttpCache mHttpCache;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mHttpCache = new ForecastHttpCache(mContext);
+        mHttpCache.clear(TEST_LOCATION);
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mHttpCache.clear(TEST_LOCATION);
+        SyncTestUtilities.clearTestAdapter(mContext);
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private long insertTestLocation() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, SyncTestUtilities.TEST_CITY);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, SyncTestUtilities.TEST_LATITUDE);
+        values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, SyncTestUtilities.TEST_LONGITUDE);
+        Uri uri = mContext.getContentResolver()
+                .insert(WeatherContract.LocationEntry.CONTENT_URI, values);
+        return ContentUris.parseId(uri);
+    }
+
+    /*
+        One conditional fetch.  Returns the number of weather rows written, 0 on a 304.
+     */
+    private int sync(URL url, long locationId) throws Exception {
+        HttpURLConnection connection = ForecastTransport.open(url);
+        Reader reader = null;
+        try {
+            mHttpCache.applyValidators(connection, TEST_LOCATION);
+            connection.connect();
+            // Captured up front, the way the sync does before it closes the connection
+            String etag = connection.getHeaderField(ForecastHttpCache.HEADER_ETAG);
+            long lastModified = connection.getLastModified();
+            String cacheControl = connection.getHeaderField(ForecastHttpCache.HEADER_CACHE_CONTROL);
+            if (connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mHttpCache.storeValidators(TEST_LOCATION, url.toString(), etag, lastModified,
+                        cacheControl, System.currentTimeMillis());
+                return 0;
+            }
+            reader = ForecastTransport.openReader(connection);
+            ForecastParser.Forecast forecast = ForecastParser.parse(reader);
+            List<ContentValues> rows = forecast.weatherValues;
+            for (ContentValues row : rows) {
+                row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            }
+            int inserted = mContext.getContentResolver().bulkInsert(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    rows.toArray(new ContentValues[rows.size()]));
+            mHttpCache.storeValidators(TEST_LOCATION, url.toString(), etag, lastModified,
+                    cacheControl, System.currentTimeMillis());
+            return inserted;
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            connection.disconnect();
+        }
+    }
+
+    public void testRevalidationSkipsUnchangedForecast() throws Throwable {
+        long locationId = insertTestLocation();
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=" + TEST_LOCATION + "&cnt=" + NUM_DAYS);
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 0),
+                "\"v1\"", System.currentTimeMillis(), -1);
+
+        long before = mServer.getBytesSent();
+        assertEquals("Error: the first sync should write every day", NUM_DAYS, sync(url, locationId));
+        long fullBytes = mServer.getBytesSent() - before;
+
+        for (int i = 0; i < 2; i++) {
+            before = mServer.getBytesSent();
+            assertEquals("Error: an unchanged forecast should write nothing", 0, sync(url, locationId));
+            long revalidateBytes = mServer.getBytesSent() - before;
+            assertTrue("Error: revalidating should transfer much less than a full download",
+                    revalidateBytes * 2 < fullBytes);
+            Log.i(LOG_TAG, "Full download " + fullBytes + " B, revalidation " + revalidateBytes + " B");
+        }
+        assertEquals(2, mServer.getNotModifiedCount());
+
+        // The forecast changes upstream, so the old ETag no longer matches
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 1),
+                "\"v2\"", System.currentTimeMillis(), -1);
+        assertEquals("Error: a changed forecast should be written again",
+                NUM_DAYS, sync(url, locationId));
+        assertEquals(2, mServer.getNotModifiedCount());
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testLastModifiedRevalidation() throws Throwable {
+        long locationId = insertTestLocation();
+        URL url = mServer.getUrl("/data/2.5/forecast/daily?q=" + TEST_LOCATION);
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 0),
+                null, System.currentTimeMillis() - 60 * 1000, -1);
+
+        assertEquals(NUM_DAYS, sync(url, locationId));
+        assertEquals(0, sync(url, locationId));
+        assertEquals(1, mServer.getNotModifiedCount());
+    }
+
+    public void testValidatorsAreTiedToUrl() throws Throwable {
+        long locationId = insertTestLocation();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 0),
+                "\"v1\"", 0, -1);
+
+        assertEquals(NUM_DAYS, sync(mServer.getUrl("/daily?units=metric"), locationId));
+        // Same ETag, but a different query must not be answered from the old validators
+        assertEquals(NUM_DAYS, sync(mServer.getUrl("/daily?units=imperial"), locationId));
+        assertEquals(0, mServer.getNotModifiedCount());
+    }
+
+    public void testMaxAgeFreshness() throws Throwable {
+        long locationId = insertTestLocation();
+        URL url = mServer.getUrl("/daily");
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 0),
+                "\"v1\"", 0, 600);
+
+        long now = System.currentTimeMillis();
+        assertFalse(mHttpCache.isFresh(TEST_LOCATION, url.toString(), now));
+        sync(url, locationId);
+        assertTrue(mHttpCache.isFresh(TEST_LOCATION, url.toString(), now));
+        assertFalse("Error: the response should go stale once max-age has passed",
+                mHttpCache.isFresh(TEST_LOCATION, url.toString(), now + 601 * 1000));
+        assertFalse("Error: freshness is only valid for the url it was stored for",
+                mHttpCache.isFresh(TEST_LOCATION, url.toString() + "?cnt=7", now));
+
+        mHttpCache.clear(TEST_LOCATION);
+        assertFalse(mHttpCache.isFresh(TEST_LOCATION, url.toString(), now));
+    }
+
+    /*
+        Stores a forecast synced yesterday: its first day is yesterday's, and was announced.
+        Returns the date of that day.
+     */
+    private long storeYesterdaysForecast() throws Exception {
+        long locationId = insertTestLocation();
+        List<ContentValues> rows = ForecastParser.parse(
+                SyncTestUtilities.createForecastJson(NUM_DAYS, 0)).weatherValues;
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < rows.size(); i++) {
+            rows.get(i).put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(now + (i - 1) * DAY_IN_MILLIS));
+            rows.get(i).put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                rows.toArray(new ContentValues[rows.size()]));
+        SyncTestUtilities.getTestAnnouncedToday(mContext).put(TEST_LOCATION, rows.get(0));
+        return rows.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+    }
+
+    private void assertRolledOver(long yesterday) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(TEST_LOCATION),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                new String[]{Long.toString(yesterday)},
+                null);
+        assertNotNull(cursor);
+        assertEquals("Error: yesterday should have been trimmed", 0, cursor.getCount());
+        cursor.close();
+        long announced = SyncTestUtilities.getTestAnnouncedToday(mContext).get(TEST_LOCATION)
+                .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        assertEquals("Error: the new today should have been announced",
+                WeatherContract.normalizeDate(System.currentTimeMillis()), announced);
+    }
+
+    public void testFreshForecastRollsOver() throws Throwable {
+        long yesterday = storeYesterdaysForecast();
+        LocalForecastSource source = new LocalForecastSource(0);
+        URL url = source.getForecastUrl(TEST_LOCATION, null, null);
+        mHttpCache.storeValidators(TEST_LOCATION, url.toString(), "\"v1\"", 0, "max-age=3600",
+                System.currentTimeMillis());
+
+        // A periodic sync finds the forecast fresh and doesn't fetch it
+        SyncTestUtilities.createTestAdapter(mContext, source)
+                .syncLocation(url, TEST_LOCATION, false, new SyncCancellation(), new SyncResult());
+        assertRolledOver(yesterday);
+    }
+
+    public void testNotModifiedForecastRollsOver() throws Throwable {
+        long yesterday = storeYesterdaysForecast();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS, 0), "\"v1\"", 0, -1);
+        OpenWeatherMapSource source = new OpenWeatherMapSource(
+                mServer.getUrl("/daily?").toString(), FetchPolicy.getInstance());
+        URL url = source.getForecastUrl(TEST_LOCATION, null, null);
+        mHttpCache.storeValidators(TEST_LOCATION, url.toString(), "\"v1\"", 0, null,
+                System.currentTimeMillis());
+
+        SyncTestUtilities.createTestAdapter(mContext, source)
+                .syncLocation(url, TEST_LOCATION, true, new SyncCancellation(), new SyncResult());
+        assertEquals(1, mServer.getNotModifiedCount());
+        assertRolledOver(yesterday);
+    }
+
+    public void testParseMaxAge() {
+        assertEquals(-1, ForecastHttpCache.parseMaxAge(null));
+        assertEquals(-1, ForecastHttpCache.parseMaxAge("public"));
+        assertEquals(600, ForecastHttpCache.parseMaxAge("public, max-age=600"));
+        assertEquals(600, ForecastHttpCache.parseMaxAge("Max-Age=600"));
+        assertEquals(0, ForecastHttpCache.parseMaxAge("max-age=600, no-cache"));
+        assertEquals(0, ForecastHttpCache.parseMaxAge("no-store"));
+        assertEquals(0, ForecastHttpCache.parseMaxAge("max-age=soon"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import org.json.JSONException;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.Map;
+
+/*
+    Checks that the streaming parser decodes exactly what the org.json path does, and benchmarks
+    the two.  The benchmark runs on the device because android.util.JsonReader and org.json are
+    only stubs in the plain JVM android.jar.
+ */
+public class TestForecastParser extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastParser.class.getSimpleName();
+    private static final int BENCHMARK_WARMUP = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+
+    private static Reader readerFor(byte[] payload) throws IOException {
+        return new InputStreamReader(new ByteArrayInputStream(payload), "UTF-8");
+    }
+
+    // Mirrors the original sync path: read the whole body into a String, then build the tree.
+    private static ForecastParser.Forecast parseBuffered(byte[] payload)
+            throws IOException, JSONException {
+        Reader reader = readerFor(payload);
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+        return ForecastParser.parse(buffer.toString());
+    }
+
+    public void testStreamingMatchesTree() throws Throwable {
+        for (int numDays : new int[]{1, 14, 16}) {
+            byte[] payload = SyncTestUtilities.createForecastJson(numDays).getBytes("UTF-8");
+            ForecastParser.Forecast streamed = ForecastParser.parse(readerFor(payload));
+            ForecastParser.Forecast tree = parseBuffered(payload);
+
+            assertEquals(HttpURLConnection.HTTP_OK, streamed.messageCode);
+            assertEquals(SyncTestUtilities.TEST_CITY, streamed.cityName);
+            assertEquals(tree.cityName, streamed.cityName);
+            assertEquals(tree.cityLatitude, streamed.cityLatitude);
+            assertEquals(tree.cityLongitude, streamed.cityLongitude);
+            assertEquals(numDays, streamed.weatherValues.size());
+            assertEquals(tree.weatherValues.size(), streamed.weatherValues.size());
+            for (int i = 0; i < numDays; i++) {
+                ContentValues expected = tree.weatherValues.get(i);
+                ContentValues actual = streamed.weatherValues.get(i);
+                assertEquals("Error: day " + i + " has different columns",
+                        expected.size(), actual.size());
+                for (Map.Entry<String, Object> entry : expected.valueSet()) {
+                    String column = entry.getKey();
+                    assertEquals("Error: day " + i + " differs in " + column,
+                            expected.getAsString(column), actual.getAsString(column));
+                }
+            }
+        }
+    }
+
+    public void testErrorCode() throws Throwable {
+        byte[] payload = SyncTestUtilities.createErrorJson(HttpURLConnection.HTTP_NOT_FOUND)
+                .getBytes("UTF-8");
+        ForecastParser.Forecast forecast = ForecastParser.parse(readerFor(payload));
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, forecast.messageCode);
+        assertTrue(forecast.weatherValues.isEmpty());
+    }
+
+    public void testMalformedResponse() throws Throwable {
+        String[] malformed = {
+                "{\"cod\":\"200\",\"list\":[]}",
+                "{\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}},\"list\":[{\"temp\":{}}]}",
+                "{\"list\":\"not an array\"}",
+                "[]"
+        };
+        for (String json : malformed) {
+            try {
+                ForecastParser.parse(readerFor(json.getBytes("UTF-8")));
+                fail("Error: expected a JSONException for " + json);
+            } catch (JSONException expected) {
+                // expected
+            }
+        }
+    }
+
+    public void testBenchmark14Days() throws Throwable {
+        benchmark(14);
+    }
+
+    public void testBenchmark16Days() throws Throwable {
+        benchmark(16);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void benchmark(int numDays) throws Throwable {
+        byte[] payload = SyncTestUtilities.createForecastJson(numDays).getBytes("UTF-8");
+        for (int i = 0; i < BENCHMARK_WARMUP; i++) {
+            ForecastParser.parse(readerFor(payload));
+            parseBuffered(payload);
+        }
+
+        Debug.startAllocCounting();
+        try {
+            Debug.resetThreadAllocSize();
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                parseBuffered(payload);
+            }
+            long treeNanos = System.nanoTime() - start;
+            long treeBytes = Debug.getThreadAllocSize();
+
+            Debug.resetThreadAllocSize();
+            start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+                ForecastParser.parse(readerFor(payload));
+            }
+            long streamNanos = System.nanoTime() - start;
+            long streamBytes = Debug.getThreadAllocSize();
+
+            Log.i(LOG_TAG, String.format(
+                    "%d days, %d byte payload: tree %.1f us / %d B allocated per parse, " +
+                            "streaming %.1f us / %d B allocated per parse",
+                    numDays, payload.length,
+                    treeNanos / 1000.0 / BENCHMARK_ITERATIONS, treeBytes / BENCHMARK_ITERATIONS,
+                    streamNanos / 1000.0 / BENCHMARK_ITERATIONS, streamBytes / BENCHMARK_ITERATIONS));
+        } finally {
+            Debug.stopAllocCounting();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks the urls the forecast sources name and that the local stand-in makes up the same
+    forecast every time, then syncs thousands of locations through it to load the sync, the
+    provider and the fan-out end to end without the network, logging the throughput and the
+    time each phase took.
+ */
+public class TestForecastSource extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSource.class.getSimpleName();
+    private static final String LOCATION = "test-source-0";
+    private static final int LOAD_LOCATIONS = 2000;
+    private static final long SEED = 7;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        clearAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        clearAll();
+        super.tearDown();
+    }
+
+    private void clearAll() {
+        new ForecastHttpCache(mContext).clear(LOCATION);
+        SyncTestUtilities.clearTestAdapter(mContext);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        SyncMetrics.reset();
+    }
+
+    private int countRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testOpenWeatherMapUrl() throws Exception {
+        ForecastSource source = new OpenWeatherMapSource();
+        String url = source.getForecastUrl("94043", null, null).toString();
+        assertTrue(url.startsWith("http://api.openweathermap.org/data/2.5/forecast/daily?q=94043"));
+        assertTrue(url.contains("cnt=14"));
+
+        url = source.getForecastUrl("94043", "37.4", "-122.1").toString();
+        assertTrue("Error: a known lat/lon should be asked for instead of the location string",
+                url.contains("lat=37.4&lon=-122.1") && !url.contains("q=94043"));
+    }
+
+    public void testLocalForecastIsDeterministic() throws Exception {
+        LocalForecastSource source = new LocalForecastSource(SEED);
+        ForecastParser.Forecast forecast = source.fetch(source.getForecastUrl(LOCATION, null, null),
+                LOCATION, null, new SyncCancellation()).forecast;
+        assertEquals(LocalForecastSource.DEFAULT_NUM_DAYS, forecast.weatherValues.size());
+
+        List<ContentValues> again = new LocalForecastSource(SEED).createForecast(LOCATION)
+                .weatherValues;
+        assertEquals("Error: the same seed should make up the same forecast",
+                forecast.weatherValues, again);
+        assertFalse("Error: another seed should look like a new forecast",
+                forecast.weatherValues.equals(
+                        new LocalForecastSource(SEED + 1).createForecast(LOCATION).weatherValues));
+        assertFalse(forecast.weatherValues.equals(
+                source.createForecast(LOCATION + "-other").weatherValues));
+
+        assertFalse("Error: the url should change with the lat/lon",
+                source.getForecastUrl(LOCATION, null, null).equals(
+                        source.getForecastUrl(LOCATION, "1.5", "2.5")));
+    }
+
+    public void testCanceledFetch() throws Exception {
+        LocalForecastSource source = new LocalForecastSource(SEED);
+        SyncCancellation cancellation = new SyncCancellation();
+        cancellation.cancel();
+        try {
+            source.fetch(source.getForecastUrl(LOCATION, null, null), LOCATION, null,
+                    cancellation);
+            fail("Error: a canceled sync shouldn't get a forecast");
+        } catch (SyncCancellation.CanceledException e) {
+            // expected
+        }
+    }
+
+    public void testAdapterSyncsFromLocalSource() throws Throwable {
+        LocalForecastSource source = new LocalForecastSource(SEED);
+        URL url = source.getForecastUrl(LOCATION, null, null);
+        SyncResult syncResult = new SyncResult();
+        SyncTestUtilities.createTestAdapter(mContext, source)
+                .syncLocation(url, LOCATION, true, new SyncCancellation(), syncResult);
+
+        assertEquals(LocalForecastSource.DEFAULT_NUM_DAYS, countRows(LOCATION));
+        assertFalse(syncResult.hasError());
+        assertEquals("Error: the local source shouldn't touch the network",
+                0, SyncMetrics.getHistogram(SyncMetrics.PHASE_DOWNLOAD).count);
+        assertEquals(1, SyncMetrics.getHistogram(SyncMetrics.PHASE_WRITE).count);
+    }
+
+    public void testLoadManyLocations() throws Throwable {
+        LocalForecastSource source = new LocalForecastSource(SEED);
+        List<MultiLocationSync.Request> requests = new ArrayList<>(LOAD_LOCATIONS);
+        for (int i = 0; i < LOAD_LOCATIONS; i++) {
+            String locationSetting = "test-load-" + i;
+            requests.add(new MultiLocationSync.Request(locationSetting,
+                    source.getForecastUrl(locationSetting, null, null)));
+        }
+
+        MultiLocationSync.Result result =
+                new MultiLocationSync(mContext, source).sync(requests, new SyncCancellation());
+        assertEquals(LOAD_LOCATIONS * LocalForecastSource.DEFAULT_NUM_DAYS, result.rowsWritten);
+        assertEquals(LocalForecastSource.DEFAULT_NUM_DAYS, countRows("test-load-0"));
+        assertEquals(LocalForecastSource.DEFAULT_NUM_DAYS,
+                countRows("test-load-" + (LOAD_LOCATIONS - 1)));
+
+        // Again with a new forecast everywhere, now that every location is known
+        MultiLocationSync.Result update = new MultiLocationSync(mContext,
+                new LocalForecastSource(SEED + 1)).sync(requests, new SyncCancellation());
+        assertEquals(result.rowsWritten, update.rowsWritten);
+        assertEquals(LocalForecastSource.DEFAULT_NUM_DAYS, countRows("test-load-0"));
+
+        StringWriter dump = new StringWriter();
+        SyncMetrics.dump(new PrintWriter(dump));
+        Log.i(LOG_TAG, String.format("%d locations: first sync %d ms, %.1f locations/s, "
+                        + "update %d ms, %.1f locations/s%n%s", LOAD_LOCATIONS,
+                result.elapsedMillis, result.getLocationsPerSecond(),
+                update.elapsedMillis, update.getLocationsPerSecond(), dump));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/*
+    Fetches the same forecast uncompressed, gzipped and deflated from a local stand-in server and
+    checks that every encoding decodes to the same rows while the compressed ones cost fewer bytes.
+ */
+public class TestForecastTransport extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastTransport.class.getSimpleName();
+    private static final int NUM_DAYS = 14;
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS), null, 0, -1);
+        ForecastTransport.resetCounters();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        super.tearDown();
+    }
+
+    private ForecastParser.Forecast fetch(URL url) throws Exception {
+        HttpURLConnection connection = ForecastTransport.open(url);
+        Reader reader = null;
+        try {
+            connection.connect();
+            assertEquals(HttpURLConnection.HTTP_OK, connection.getResponseCode());
+            reader = ForecastTransport.openReader(connection);
+            return ForecastParser.parse(reader);
+        } finally {
+            if (reader != null) {
+                reader.close();
+            }
+            connection.disconnect();
+        }
+    }
+
+    public void testRequestConfiguration() throws Throwable {
+        HttpURLConnection connection = ForecastTransport.open(mServer.getUrl("/daily"));
+        try {
+            assertEquals("GET", connection.getRequestMethod());
+            assertEquals(ForecastTransport.CONNECT_TIMEOUT_MILLIS, connection.getConnectTimeout());
+            assertEquals(ForecastTransport.READ_TIMEOUT_MILLIS, connection.getReadTimeout());
+            connection.connect();
+            connection.getResponseCode();
+            String acceptEncoding = mServer.getLastAcceptEncoding();
+            assertNotNull("Error: the request should negotiate compression", acceptEncoding);
+            assertTrue(acceptEncoding.contains(ForecastTransport.ENCODING_GZIP));
+            assertTrue(acceptEncoding.contains(ForecastTransport.ENCODING_DEFLATE));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    public void testEncodingsDecodeAlike() throws Throwable {
+        URL url = mServer.getUrl("/daily");
+
+        mServer.setContentEncoding(null);
+        long before = mServer.getBytesSent();
+        ForecastParser.Forecast identity = fetch(url);
+        long identityBytes = mServer.getBytesSent() - before;
+        long identityReceived = ForecastTransport.getCompressedBytes();
+        assertEquals("Error: an uncompressed body should be counted the same on both sides",
+                identityReceived, ForecastTransport.getDecompressedBytes());
+
+        for (String encoding : new String[]{"gzip", "deflate"}) {
+            ForecastTransport.resetCounters();
+            mServer.setContentEncoding(encoding);
+            before = mServer.getBytesSent();
+            ForecastParser.Forecast decoded = fetch(url);
+            long encodedBytes = mServer.getBytesSent() - before;
+
+            assertEquals(identity.weatherValues.size(), decoded.weatherValues.size());
+            for (int i = 0; i < identity.weatherValues.size(); i++) {
+                assertEquals("Error: " + encoding + " decoded day " + i + " differently",
+                        identity.weatherValues.get(i), decoded.weatherValues.get(i));
+            }
+            assertEquals("Error: " + encoding + " should decode to the same body",
+                    identityReceived, ForecastTransport.getDecompressedBytes());
+            assertTrue("Error: " + encoding + " should transfer fewer body bytes",
+                    ForecastTransport.getCompressedBytes() < ForecastTransport.getDecompressedBytes());
+            assertTrue(encodedBytes < identityBytes);
+            Log.i(LOG_TAG, String.format("%s: %d B on the wire vs %d B uncompressed (%d B body)",
+                    encoding, encodedBytes, identityBytes, identityReceived));
+        }
+    }
+
+    public void testUtf8Body() throws Throwable {
+        // A city name outside Latin-1 only survives if the body is decoded as UTF-8
+        String city = "\u6771\u4eac";
+        mServer.setResponse(SyncTestUtilities.createForecastJson(1)
+                .replace(SyncTestUtilities.TEST_CITY, city), null, 0, -1);
+        for (String encoding : new String[]{null, "gzip"}) {
+            mServer.setContentEncoding(encoding);
+            assertEquals(city, fetch(mServer.getUrl("/daily")).cityName);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Drives the multi-location sync against a local stand-in for OpenWeatherMap with injected
+    latency, checks that every location is written and that the per-host limit holds, and logs
+    throughput in locations per second.
+ */
+public class TestMultiLocationSync extends AndroidTestCase {
+    public static final String LOG_TAG = TestMultiLocationSync.class.getSimpleName();
+    private static final int NUM_DAYS = 14;
+    private static final int NUM_LOCATIONS = 12;
+    private static final long LATENCY_MILLIS = 150;
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS), null, 0, -1);
+        clearAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        clearAll();
+        super.tearDown();
+    }
+
+    private void clearAll() {
+        ForecastHttpCache httpCache = new ForecastHttpCache(mContext);
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            httpCache.clear(locationSetting(i));
+        }
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String locationSetting(int i) {
+        return "test-city-" + i;
+    }
+
+    private List<MultiLocationSync.Request> createRequests() throws Exception {
+        List<MultiLocationSync.Request> requests = new ArrayList<>();
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            requests.add(new MultiLocationSync.Request(locationSetting(i),
+                    mServer.getUrl("/data/2.5/forecast/daily?q=" + locationSetting(i))));
+        }
+        return requests;
+    }
+
+    private int countRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    public void testAllLocationsWritten() throws Throwable {
+        MultiLocationSync.Result result = new MultiLocationSync(mContext)
+                .sync(createRequests(), new SyncCancellation());
+
+        assertEquals(NUM_LOCATIONS, result.getLocationCount());
+        assertEquals(NUM_LOCATIONS * NUM_DAYS, result.rowsWritten);
+        for (int i = 0; i < NUM_LOCATIONS; i++) {
+            MultiLocationSync.LocationResult locationResult = result.get(locationSetting(i));
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, locationResult.status);
+            assertEquals("Error: missing days for " + locationSetting(i),
+                    NUM_DAYS, countRows(locationSetting(i)));
+        }
+
+        // The second pass finds every location already in the table
+        result = new MultiLocationSync(mContext).sync(createRequests(), new SyncCancellation());
+        assertEquals(NUM_LOCATIONS * NUM_DAYS, result.rowsWritten);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: locations should not be duplicated", NUM_LOCATIONS, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testPerHostLimit() throws Throwable {
+        mServer.setLatencyMillis(LATENCY_MILLIS);
+        new MultiLocationSync(mContext, 4, 2).sync(createRequests(), new SyncCancellation());
+        assertEquals(NUM_LOCATIONS, mServer.getRequestCount());
+        assertTrue("Error: more requests in flight than the per-host limit allows",
+                mServer.getMaxConcurrentRequests() <= 2);
+    }
+
+    public void testThroughput() throws Throwable {
+        mServer.setLatencyMillis(LATENCY_MILLIS);
+
+        MultiLocationSync.Result sequential = new MultiLocationSync(mContext, 1, 1)
+                .sync(createRequests(), new SyncCancellation());
+        clearAll();
+        MultiLocationSync.Result parallel = new MultiLocationSync(mContext,
+                MultiLocationSync.DEFAULT_MAX_THREADS, MultiLocationSync.DEFAULT_MAX_THREADS)
+                .sync(createRequests(), new SyncCancellation());
+
+        Log.i(LOG_TAG, String.format("%d locations at %d ms latency: sequential %.2f locations/s " +
+                        "(%d ms), parallel %.2f locations/s (%d ms)",
+                NUM_LOCATIONS, LATENCY_MILLIS,
+                sequential.getLocationsPerSecond(), sequential.elapsedMillis,
+                parallel.getLocationsPerSecond(), parallel.elapsedMillis));
+        assertTrue("Error: fetching in parallel should beat fetching one at a time",
+                parallel.getLocationsPerSecond() > sequential.getLocationsPerSecond());
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Benchmarks the sync end to end by replaying forecast responses under a few network profiles,
+    and logs a table of the runs.  The responses are the fixtures recorded by
+    testRecordFixtures, which only does anything once build.gradle has an API key; locations
+    without a recording fall back to generated responses, and the log says which were used.
+    Comparing runs is only meaningful on the same device with the same fixtures.
+ */
+public class TestSyncBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncBenchmark.class.getSimpleName();
+    private static final String[] LOCATIONS =
+            {"94043", "London,UK", "Tokyo,JP", "Sydney,AU", "Sao Paulo,BR", "Nairobi,KE"};
+
+    // name, latency in ms and bandwidth in bytes per second, 0 for the loopback's
+    private static final String[] PROFILE_NAMES = {"loopback", "wifi", "3g", "edge"};
+    private static final long[][] PROFILES = {{0, 0}, {20, 2000 * 1000}, {150, 100 * 1000},
+            {400, 20 * 1000}};
+
+    private StubHttpServer mServer;
+    private SyncBenchmark mBenchmark;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mBenchmark = new SyncBenchmark(mContext, mServer);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mBenchmark.clearDatabase();
+        SyncTestUtilities.clearTestAdapter(mContext);
+        ForecastHttpCache httpCache = new ForecastHttpCache(mContext);
+        for (String locationSetting : LOCATIONS) {
+            httpCache.clear(locationSetting);
+        }
+        super.tearDown();
+    }
+
+    public void testRecordFixtures() throws Exception {
+        if (!ForecastFixtures.canRecord()) {
+            Log.i(LOG_TAG, "No OpenWeatherMap API key, not recording fixtures");
+            return;
+        }
+        ForecastFixtures fixtures = new ForecastFixtures(mContext);
+        for (String locationSetting : LOCATIONS) {
+            fixtures.record(locationSetting);
+            assertNotNull(fixtures.load(locationSetting));
+        }
+    }
+
+    public void testReplay() throws Throwable {
+        ForecastFixtures fixtures = new ForecastFixtures(mContext);
+        int expectedRows = 0;
+        List<String> generated = new ArrayList<>();
+        for (int i = 0; i < LOCATIONS.length; i++) {
+            String body = fixtures.load(LOCATIONS[i]);
+            if (body == null) {
+                body = SyncTestUtilities.createForecastJson(14, i);
+                generated.add(LOCATIONS[i]);
+            }
+            expectedRows += ForecastParser.parse(body).weatherValues.size();
+            mBenchmark.addLocation(LOCATIONS[i], body);
+        }
+
+        StringBuilder report = new StringBuilder(generated.isEmpty()
+                ? "Replaying recorded fixtures\n"
+                : "Replaying generated responses for " + generated + "\n");
+        report.append(SyncBenchmark.formatHeader()).append('\n');
+        List<SyncBenchmark.Run> runs = new ArrayList<>();
+        for (int i = 0; i < PROFILES.length; i++) {
+            long latencyMillis = PROFILES[i][0];
+            SyncBenchmark.Run run = mBenchmark.run(PROFILE_NAMES[i], latencyMillis, PROFILES[i][1]);
+            runs.add(run);
+            report.append(run).append('\n');
+
+            assertEquals("Error: " + run.name + " should have synced every location",
+                    0, run.failures);
+            assertEquals("Error: " + run.name + " should have written every day",
+                    expectedRows, run.rowsWritten);
+            assertTrue(run.bytesSent > 0 && run.bytesDecoded > 0);
+            assertTrue("Error: " + run.name + " finished sooner than its latency allows",
+                    run.wallMillis >= latencyMillis * LOCATIONS.length);
+        }
+        Log.i(LOG_TAG, report.toString());
+        for (SyncBenchmark.Run run : runs) {
+            Log.i(LOG_TAG, run.name + " " + run.phases);
+        }
+
+        assertEquals("Error: every run should send the same bytes",
+                runs.get(0).bytesSent, runs.get(runs.size() - 1).bytesSent);
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/*
+    Cancels syncs against a local stand-in server that takes its time to answer, the way a newer
+    sync supersedes one still downloading, and checks that the canceled sync stops well before
+    the server would have answered, writes nothing and isn't counted as a failure.
+ */
+public class TestSyncCancellation extends AndroidTestCase {
+    private static final int NUM_DAYS = 14;
+    private static final String LOCATION = "test-cancel-0";
+    private static final String OTHER_LOCATION = "test-cancel-1";
+    // Much longer than any sync should take to notice it was canceled
+    private static final long LATENCY_MILLIS = 10 * 1000;
+    private static final long CANCEL_TIMEOUT_MILLIS = 3 * 1000;
+
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubHttpServer();
+        mServer.setResponse(SyncTestUtilities.createForecastJson(NUM_DAYS), null, 0, -1);
+        clearAll();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        clearAll();
+        super.tearDown();
+    }
+
+    private void clearAll() {
+        ForecastHttpCache httpCache = new ForecastHttpCache(mContext);
+        httpCache.clear(LOCATION);
+        httpCache.clear(OTHER_LOCATION);
+        SyncTestUtilities.clearTestAdapter(mContext);
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private URL getUrl(String locationSetting) throws Exception {
+        return mServer.getUrl("/data/2.5/forecast/daily?q=" + locationSetting);
+    }
+
+    private int countRows(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        assertNotNull(cursor);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    // Waits until the sync's request is with the server, then cancels it
+    private void cancelOnceRequested(SyncCancellation cancellation) throws Exception {
+        PollingCheck.check("Error: the sync never reached the server", CANCEL_TIMEOUT_MILLIS,
+                new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return mServer.getRequestCount() > 0;
+                    }
+                });
+        cancellation.cancel();
+    }
+
+    public void testSupersededSyncWritesNothing() throws Throwable {
+        mServer.setLatencyMillis(LATENCY_MILLIS);
+        final SunshineSyncAdapter adapter =
+                SyncTestUtilities.createTestAdapter(mContext, new OpenWeatherMapSource());
+        final SyncCancellation cancellation = new SyncCancellation();
+        final SyncResult syncResult = new SyncResult();
+        final URL url = getUrl(LOCATION);
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                adapter.syncLocation(url, LOCATION, true, cancellation, syncResult);
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        syncThread.start();
+        cancelOnceRequested(cancellation);
+        syncThread.join(CANCEL_TIMEOUT_MILLIS);
+        assertFalse("Error: the canceled sync kept waiting for the server",
+                syncThread.isAlive());
+        assertTrue(System.currentTimeMillis() - start < LATENCY_MILLIS);
+
+        assertEquals("Error: the superseded sync wrote its forecast", 0, countRows(LOCATION));
+        assertEquals("Error: a canceled sync isn't a failure to retry",
+                0, syncResult.stats.numIoExceptions);
+        assertEquals(1, mServer.getRequestCount());
+    }
+
+    public void testCanceledSyncDoesNotFetch() throws Throwable {
+        SyncCancellation cancellation = new SyncCancellation();
+        cancellation.cancel();
+        SyncResult syncResult = new SyncResult();
+        SyncTestUtilities.createTestAdapter(mContext, new OpenWeatherMapSource())
+                .syncLocation(getUrl(LOCATION), LOCATION, true, cancellation, syncResult);
+
+        assertEquals(0, mServer.getRequestCount());
+        assertEquals(0, countRows(LOCATION));
+        assertEquals(0, syncResult.stats.numIoExceptions);
+    }
+
+    public void testSupersededMultiLocationSyncWritesNothing() throws Throwable {
+        mServer.setLatencyMillis(LATENCY_MILLIS);
+        final List<MultiLocationSync.Request> requests = new ArrayList<>();
+        requests.add(new MultiLocationSync.Request(LOCATION, getUrl(LOCATION)));
+        requests.add(new MultiLocationSync.Request(OTHER_LOCATION, getUrl(OTHER_LOCATION)));
+        final SyncCancellation cancellation = new SyncCancellation();
+        final Throwable[] thrown = new Throwable[1];
+        Thread syncThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    new MultiLocationSync(mContext).sync(requests, cancellation);
+                } catch (Throwable t) {
+                    thrown[0] = t;
+                }
+            }
+        });
+
+        syncThread.start();
+        cancelOnceRequested(cancellation);
+        syncThread.join(CANCEL_TIMEOUT_MILLIS);
+        assertFalse("Error: the canceled sync kept waiting for the server",
+                syncThread.isAlive());
+        assertTrue("Error: the canceled sync should have said so",
+                thrown[0] instanceof SyncCancellation.CanceledException);
+        assertEquals(0, countRows(LOCATION));
+        assertEquals(0, countRows(OTHER_LOCATION));
+    }
+}
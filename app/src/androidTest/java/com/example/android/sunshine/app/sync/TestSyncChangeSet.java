@@ -0,0 +1,222 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
+import java.util.Map;
+
+/*
+    Checks the change-set a sync computes from the stored forecast and the new one: nothing for
+    the same forecast, and the added, changed and removed days, today and its condition
+    otherwise, including the day rolling over at midnight.  Also round trips it through
+    ACTION_DATA_UPDATED extras, and the announced today through its preferences.
+ */
+public class TestSyncChangeSet extends AndroidTestCase {
+    private static final String TEST_LOCATION = "change-set-city";
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int NUM_DAYS = 14;
+    private static final String TEST_PREFS_NAME = "test_announced_today";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE).edit().clear()
+                .commit();
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private List<ContentValues> parse(int numDays, int seed) throws Exception {
+        return ForecastParser.parse(SyncTestUtilities.createForecastJson(numDays, seed))
+                .weatherValues;
+    }
+
+    private void store(List<ContentValues> days) {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, TEST_LOCATION);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                SyncTestUtilities.TEST_CITY);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                SyncTestUtilities.TEST_LATITUDE);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                SyncTestUtilities.TEST_LONGITUDE);
+        Uri uri = mContext.getContentResolver().insert(
+                WeatherContract.LocationEntry.CONTENT_URI, locationValues);
+        long locationId = Long.parseLong(uri.getLastPathSegment());
+
+        ContentValues[] values = new ContentValues[days.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues(days.get(i));
+            values[i].put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, values);
+    }
+
+    private static long removeBefore(List<ContentValues> days) {
+        return days.get(0).getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) - DAY_IN_MILLIS;
+    }
+
+    public void testSameForecastHasNoChanges() throws Exception {
+        store(parse(NUM_DAYS, 0));
+        Map<Long, ContentValues> storedRows =
+                SyncChangeSet.readStoredRows(mContext.getContentResolver(), TEST_LOCATION);
+        assertEquals(NUM_DAYS, storedRows.size());
+
+        List<ContentValues> days = parse(NUM_DAYS, 0);
+        SyncChangeSet changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertFalse("Error: the same forecast should change nothing, got " + changes,
+                changes.hasChanges());
+        assertFalse(changes.todayChanged);
+        assertFalse(changes.artChanged);
+    }
+
+    public void testNewForecastChanges() throws Exception {
+        store(parse(NUM_DAYS, 0));
+        Map<Long, ContentValues> storedRows =
+                SyncChangeSet.readStoredRows(mContext.getContentResolver(), TEST_LOCATION);
+
+        // Other temperatures and conditions every day
+        List<ContentValues> days = parse(NUM_DAYS, 1);
+        SyncChangeSet changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertEquals(0, changes.rowsAdded);
+        assertEquals(NUM_DAYS, changes.rowsChanged);
+        assertEquals(0, changes.rowsRemoved);
+        assertTrue(changes.todayChanged);
+        assertTrue(changes.todayChangedNoticeably);
+        assertTrue(changes.artChanged);
+
+        // Only a new last day
+        days = parse(NUM_DAYS + 1, 0);
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertEquals(1, changes.rowsAdded);
+        assertEquals(0, changes.rowsChanged);
+        assertFalse("Error: today didn't change", changes.todayChanged);
+        assertFalse(changes.todayChangedNoticeably);
+        assertFalse(changes.artChanged);
+
+        // Only today warmer, with the same condition
+        days = parse(NUM_DAYS, 0);
+        days.get(0).put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 42.0);
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertEquals(1, changes.rowsChanged);
+        assertTrue(changes.todayChanged);
+        assertTrue(changes.todayChangedNoticeably);
+        assertFalse("Error: the condition didn't change", changes.artChanged);
+
+        // Only today a little warmer
+        days = parse(NUM_DAYS, 0);
+        double maxTemp = days.get(0).getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        days.get(0).put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, maxTemp + 0.4);
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertTrue(changes.todayChanged);
+        assertFalse("Error: a fraction of a degree isn't a noticeable change",
+                changes.todayChangedNoticeably);
+        days.get(0).put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                maxTemp - SyncChangeSet.NOTICEABLE_TEMP_CHANGE);
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertTrue(changes.todayChangedNoticeably);
+
+        // Two days later, the two oldest days are trimmed
+        days = parse(NUM_DAYS, 0);
+        long removeBefore = removeBefore(days) + 2 * DAY_IN_MILLIS;
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore);
+        assertEquals(2, changes.rowsRemoved);
+        assertTrue(changes.hasChanges());
+    }
+
+    public void testDayRollsOver() throws Exception {
+        List<ContentValues> stored = parse(NUM_DAYS, 0);
+        store(stored);
+        Map<Long, ContentValues> storedRows =
+                SyncChangeSet.readStoredRows(mContext.getContentResolver(), TEST_LOCATION);
+        AnnouncedToday announcedToday = new AnnouncedToday(
+                mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE));
+        announcedToday.put(TEST_LOCATION, stored.get(0));
+
+        // After midnight: yesterday's second day is today, with the same values, and a new
+        // last day
+        List<ContentValues> days = parse(NUM_DAYS + 1, 0);
+        days.remove(0);
+        SyncChangeSet changes = SyncChangeSet.compute(storedRows, days, removeBefore(days),
+                announcedToday.get(TEST_LOCATION));
+        assertEquals(1, changes.rowsAdded);
+        assertEquals("Error: no stored day was revised", 0, changes.rowsChanged);
+        assertEquals(1, changes.rowsRemoved);
+        assertTrue("Error: a new today should be announced even if its row didn't change",
+                changes.todayChanged);
+        assertTrue(changes.todayChangedNoticeably);
+
+        // Once it has been announced, the same forecast changes nothing about today
+        announcedToday.put(TEST_LOCATION, days.get(0));
+        changes = SyncChangeSet.compute(storedRows, days, removeBefore(days),
+                announcedToday.get(TEST_LOCATION));
+        assertFalse(changes.todayChanged);
+        assertFalse(changes.artChanged);
+        assertFalse(changes.todayChangedNoticeably);
+    }
+
+    public void testAnnouncedToday() throws Exception {
+        AnnouncedToday announcedToday = new AnnouncedToday(
+                mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE));
+        assertNull(announcedToday.get(TEST_LOCATION));
+
+        ContentValues today = parse(NUM_DAYS, 0).get(0);
+        announcedToday.put(TEST_LOCATION, today);
+        ContentValues announced = announcedToday.get(TEST_LOCATION);
+        for (String column : SyncChangeSet.COLUMNS) {
+            Object value = today.get(column);
+            if (value instanceof Number) {
+                assertEquals("Error: wrong " + column, ((Number) value).doubleValue(),
+                        announced.getAsDouble(column), 0);
+            } else {
+                assertEquals("Error: wrong " + column, value, announced.get(column));
+            }
+        }
+        assertNull("Error: only the last location announced is kept",
+                announcedToday.get(TEST_LOCATION + "-other"));
+    }
+
+    public void testNewLocationAddsEverything() throws Exception {
+        Map<Long, ContentValues> storedRows =
+                SyncChangeSet.readStoredRows(mContext.getContentResolver(), TEST_LOCATION);
+        assertTrue(storedRows.isEmpty());
+
+        List<ContentValues> days = parse(NUM_DAYS, 0);
+        SyncChangeSet changes = SyncChangeSet.compute(storedRows, days, removeBefore(days));
+        assertEquals(NUM_DAYS, changes.rowsAdded);
+        assertTrue(changes.todayChanged);
+        assertTrue(changes.artChanged);
+    }
+
+    public void testIntentExtras() {
+        SyncChangeSet changes = new SyncChangeSet(1, 2, 3, false, true);
+        SyncChangeSet received = SyncChangeSet.fromIntent(changes.putExtras(
+                new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)));
+        assertEquals(1, received.rowsAdded);
+        assertEquals(2, received.rowsChanged);
+        assertEquals(3, received.rowsRemoved);
+        assertFalse(received.todayChanged);
+        assertTrue(received.artChanged);
+
+        SyncChangeSet unknown = SyncChangeSet.fromIntent(
+                new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        assertTrue("Error: an intent without a change-set should change everything",
+                unknown.todayChanged && unknown.artChanged);
+    }
+}
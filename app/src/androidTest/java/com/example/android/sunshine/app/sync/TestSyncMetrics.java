@@ -0,0 +1,139 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks the histograms SyncMetrics keeps, that waiting in reads is told apart from decoding,
+    and that a multi-location sync against a local stand-in server records each of its phases.
+ */
+public class TestSyncMetrics extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncMetrics.class.getSimpleName();
+    private static final long MILLIS = 1000 * 1000;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        SyncMetrics.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SyncMetrics.reset();
+        super.tearDown();
+    }
+
+    public void testHistogram() {
+        for (long millis : new long[]{3, 7, 40, 150}) {
+            SyncMetrics.record(SyncMetrics.PHASE_PARSE, millis * MILLIS);
+        }
+        SyncMetrics.Histogram histogram = SyncMetrics.getHistogram(SyncMetrics.PHASE_PARSE);
+        assertEquals(4, histogram.count);
+        assertEquals(50.0, histogram.getMeanMillis(), 0.001);
+        assertEquals("Error: the median should be the bound of its bucket",
+                10, histogram.getPercentileMillis(0.5));
+        assertEquals("Error: a percentile shouldn't exceed the slowest time",
+                150, histogram.getPercentileMillis(0.9));
+        assertEquals(150 * MILLIS, histogram.maxNanos);
+
+        SyncMetrics.record(SyncMetrics.PHASE_PARSE, 60 * 1000 * MILLIS);
+        assertEquals("Error: times beyond the last bound should land in the last bucket", 1,
+                SyncMetrics.getHistogram(SyncMetrics.PHASE_PARSE)
+                        .buckets[SyncMetrics.BUCKET_BOUNDS_MILLIS.length]);
+
+        assertEquals(0, SyncMetrics.getHistogram(SyncMetrics.PHASE_MUZEI).count);
+    }
+
+    public void testExcludedTime() throws InterruptedException {
+        long start = SyncMetrics.beginPhase(SyncMetrics.PHASE_PARSE);
+        Thread.sleep(30);
+        SyncMetrics.endPhase(SyncMetrics.PHASE_PARSE, start, 20 * MILLIS);
+        long nanos = SyncMetrics.getHistogram(SyncMetrics.PHASE_PARSE).totalNanos;
+        assertTrue("Error: the excluded time should be taken off, got " + nanos,
+                nanos >= 10 * MILLIS && nanos < 30 * MILLIS);
+    }
+
+    public void testTimedReader() throws IOException {
+        String body = SyncTestUtilities.createForecastJson(2);
+        // Each read waits, like reads of a body still on its way
+        Reader slowReader = new StringReader(body) {
+            @Override
+            public int read(char[] buffer, int offset, int count) throws IOException {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return super.read(buffer, offset, Math.min(count, 256));
+            }
+        };
+        SyncMetrics.TimedReader reader = new SyncMetrics.TimedReader(slowReader);
+        StringBuilder read = new StringBuilder();
+        char[] buffer = new char[1024];
+        int reads = 0;
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) != -1) {
+            read.append(buffer, 0, count);
+            reads++;
+        }
+        reader.close();
+        assertEquals(body, read.toString());
+        assertTrue("Error: every read should count as waiting",
+                reader.getReadNanos() >= reads * 5 * MILLIS);
+    }
+
+    public void testDump() {
+        SyncMetrics.record(SyncMetrics.PHASE_CONNECT, 120 * MILLIS);
+        SyncMetrics.record(SyncMetrics.PHASE_DELETE, 2 * MILLIS);
+        StringWriter dump = new StringWriter();
+        SyncMetrics.dump(new PrintWriter(dump));
+        String[] lines = dump.toString().split("\n");
+        assertEquals("Error: the dump should have a header and a line per phase", 4, lines.length);
+        assertTrue(lines[2].trim().startsWith(SyncMetrics.PHASE_CONNECT));
+        assertTrue(lines[3].trim().startsWith(SyncMetrics.PHASE_DELETE));
+    }
+
+    public void testSyncRecordsPhases() throws Throwable {
+        StubHttpServer server = new StubHttpServer();
+        try {
+            server.setResponse(SyncTestUtilities.createForecastJson(14), null, 0, -1);
+            List<MultiLocationSync.Request> requests = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                String locationSetting = "test-metrics-" + i;
+                new ForecastHttpCache(mContext).clear(locationSetting);
+                requests.add(new MultiLocationSync.Request(locationSetting,
+                        server.getUrl("/data/2.5/forecast/daily?q=" + locationSetting)));
+            }
+            new MultiLocationSync(mContext).sync(requests, new SyncCancellation());
+
+            for (String phase : new String[]{SyncMetrics.PHASE_CONNECT,
+                    SyncMetrics.PHASE_DOWNLOAD, SyncMetrics.PHASE_PARSE}) {
+                assertEquals("Error: " + phase + " should be recorded for every location",
+                        requests.size(), SyncMetrics.getHistogram(phase).count);
+            }
+            assertEquals(1, SyncMetrics.getHistogram(SyncMetrics.PHASE_WRITE).count);
+            assertEquals(1, SyncMetrics.getHistogram(SyncMetrics.PHASE_DELETE).count);
+
+            StringWriter dump = new StringWriter();
+            SyncMetrics.dump(new PrintWriter(dump));
+            Log.i(LOG_TAG, dump.toString());
+        } finally {
+            server.shutdown();
+            mContext.getContentResolver().delete(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+            mContext.getContentResolver().delete(
+                    WeatherContract.LocationEntry.CONTENT_URI, null, null);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.List;
+
+/*
+    Drives SyncRequestCoalescer with made-up times: requests close together become one sync
+    carrying all their reasons, requests for a location that was just synced are dropped, and
+    every sync that starts is recorded with why it ran.
+ */
+public class TestSyncRequestCoalescer extends AndroidTestCase {
+    private static final String TEST_PREFS_NAME = "test_sync_requests";
+    private static final String LOCATION = "94043";
+    private static final String OTHER_LOCATION = "10001";
+    private static final long START = 1000000;
+
+    private SharedPreferences mPrefs;
+    private SyncRequestCoalescer mCoalescer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mCoalescer = new SyncRequestCoalescer(mPrefs);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testRequestsWithinWindowAreMerged() {
+        assertTrue(mCoalescer.onSyncRequested(
+                SyncRequestCoalescer.REASON_LOCATION_CHANGED, LOCATION, START));
+        // Typing a location then picking it on the map, and a new account, all at once
+        assertFalse("Error: a request right after another should be merged",
+                mCoalescer.onSyncRequested(
+                        SyncRequestCoalescer.REASON_LOCATION_CHANGED, LOCATION, START + 500));
+        assertFalse(mCoalescer.onSyncRequested(SyncRequestCoalescer.REASON_ACCOUNT_CREATED,
+                OTHER_LOCATION, START + SyncRequestCoalescer.COALESCE_WINDOW - 1));
+        assertEquals(2, mCoalescer.getMergedCount());
+
+        assertEquals(SyncRequestCoalescer.REASON_LOCATION_CHANGED + ","
+                        + SyncRequestCoalescer.REASON_ACCOUNT_CREATED,
+                mCoalescer.onSyncStarted(true, START + 2000));
+
+        // The pending sync started, so the next request needs a sync of its own
+        assertTrue(mCoalescer.onSyncRequested(
+                SyncRequestCoalescer.REASON_LOCATION_CHANGED, OTHER_LOCATION, START + 3000));
+    }
+
+    public void testPendingSyncExpires() {
+        assertTrue(mCoalescer.onSyncRequested(
+                SyncRequestCoalescer.REASON_LOCATION_CHANGED, LOCATION, START));
+        assertTrue("Error: a sync that never started should be asked for again",
+                mCoalescer.onSyncRequested(SyncRequestCoalescer.REASON_LOCATION_CHANGED,
+                        LOCATION, START + SyncRequestCoalescer.COALESCE_WINDOW));
+        assertTrue("Error: a clock set back should be outside the window",
+                mCoalescer.onSyncRequested(
+                        SyncRequestCoalescer.REASON_LOCATION_CHANGED, LOCATION, START - 1));
+    }
+
+    public void testRecentlySyncedLocationIsDropped() {
+        mCoalescer.onSyncStarted(false, START);
+        mCoalescer.onSyncFinished(LOCATION, START + 1000);
+
+        assertFalse("Error: a location synced a moment ago should be dropped",
+                mCoalescer.onSyncRequested(
+                        SyncRequestCoalescer.REASON_LOCATION_CHANGED, LOCATION, START + 2000));
+        assertEquals(1, mCoalescer.getDroppedCount());
+        assertTrue("Error: another location should still sync", mCoalescer.onSyncRequested(
+                SyncRequestCoalescer.REASON_LOCATION_CHANGED, OTHER_LOCATION, START + 2000));
+
+        mCoalescer.onSyncStarted(true, START + 3000);
+        assertTrue(mCoalescer.onSyncRequested(SyncRequestCoalescer.REASON_LOCATION_CHANGED,
+                LOCATION, START + 1000 + SyncRequestCoalescer.RECENT_SYNC_WINDOW));
+    }
+
+    public void testHistory() {
+        assertEquals(SyncRequestCoalescer.REASON_PERIODIC, mCoalescer.onSyncStarted(false, 1));
+        assertEquals(SyncRequestCoalescer.REASON_MANUAL, mCoalescer.onSyncStarted(true, 2));
+        mCoalescer.onSyncRequested(SyncRequestCoalescer.REASON_ACCOUNT_CREATED, LOCATION, 3);
+        mCoalescer.onSyncStarted(true, 4);
+
+        List<String> history = new SyncRequestCoalescer(mPrefs).getHistory();
+        assertEquals(3, history.size());
+        assertEquals("4 " + SyncRequestCoalescer.REASON_ACCOUNT_CREATED, history.get(0));
+        assertEquals("1 " + SyncRequestCoalescer.REASON_PERIODIC, history.get(2));
+
+        for (int i = 0; i < SyncRequestCoalescer.HISTORY_SIZE; i++) {
+            mCoalescer.onSyncStarted(false, 10 + i);
+        }
+        assertEquals(SyncRequestCoalescer.HISTORY_SIZE, mCoalescer.getHistory().size());
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+/*
+    Checks how SyncScheduler adapts the periodic sync interval, then compares it with the fixed
+    interval over simulated weeks of calm and stormy weather.
+ */
+public class TestSyncScheduler extends AndroidTestCase {
+    public static final String LOG_TAG = TestSyncScheduler.class.getSimpleName();
+    private static final String TEST_PREFS_NAME = "test_sync_scheduler";
+    private static final int BASE = SunshineSyncAdapter.SYNC_INTERVAL;
+
+    private static final int[] CALM_WEEK = {
+            SyncSimulation.DAY_QUIET, SyncSimulation.DAY_QUIET, SyncSimulation.DAY_NORMAL,
+            SyncSimulation.DAY_NORMAL, SyncSimulation.DAY_QUIET, SyncSimulation.DAY_QUIET,
+            SyncSimulation.DAY_NORMAL};
+    private static final int[] STORMY_WEEK = {
+            SyncSimulation.DAY_NORMAL, SyncSimulation.DAY_VOLATILE, SyncSimulation.DAY_VOLATILE,
+            SyncSimulation.DAY_NORMAL, SyncSimulation.DAY_NORMAL, SyncSimulation.DAY_VOLATILE,
+            SyncSimulation.DAY_NORMAL};
+    private static final int[] DRIFTING_WEEK = {
+            SyncSimulation.DAY_DRIFTING, SyncSimulation.DAY_DRIFTING, SyncSimulation.DAY_NORMAL,
+            SyncSimulation.DAY_DRIFTING, SyncSimulation.DAY_DRIFTING, SyncSimulation.DAY_DRIFTING,
+            SyncSimulation.DAY_QUIET};
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testNextInterval() {
+        assertEquals("Error: a single change to today shouldn't tighten the interval", BASE,
+                SyncScheduler.getNextInterval(BASE, SyncScheduler.OUTCOME_TODAY_CHANGED, 1));
+        assertEquals(BASE, SyncScheduler.getNextInterval(
+                SyncScheduler.MAX_INTERVAL, SyncScheduler.OUTCOME_TODAY_CHANGED, 1));
+        assertEquals(BASE * 2 / 3,
+                SyncScheduler.getNextInterval(BASE, SyncScheduler.OUTCOME_TODAY_CHANGED, 2));
+        assertEquals("Error: a volatile forecast shouldn't sync more than hourly",
+                SyncScheduler.MIN_INTERVAL, SyncScheduler.getNextInterval(
+                        SyncScheduler.MIN_INTERVAL, SyncScheduler.OUTCOME_TODAY_CHANGED, 5));
+        assertEquals(BASE * 2 / 3, SyncScheduler.getNextInterval(
+                SyncScheduler.MAX_INTERVAL, SyncScheduler.OUTCOME_TODAY_CHANGED, 2));
+
+        assertEquals(SyncScheduler.MIN_INTERVAL, SyncScheduler.getNextInterval(
+                SyncScheduler.MIN_INTERVAL, SyncScheduler.OUTCOME_CHANGED, 1));
+        assertEquals(BASE,
+                SyncScheduler.getNextInterval(BASE * 2, SyncScheduler.OUTCOME_CHANGED, 1));
+
+        assertEquals(BASE * 3 / 2,
+                SyncScheduler.getNextInterval(BASE, SyncScheduler.OUTCOME_UNCHANGED, 1));
+        assertEquals(SyncScheduler.MAX_INTERVAL, SyncScheduler.getNextInterval(
+                SyncScheduler.MAX_INTERVAL, SyncScheduler.OUTCOME_UNCHANGED, 1));
+
+        assertEquals("Error: being offline says nothing about the server", BASE,
+                SyncScheduler.getNextInterval(BASE, SyncScheduler.OUTCOME_OFFLINE, 5));
+    }
+
+    public void testRunOfFailures() {
+        SyncScheduler scheduler = new SyncScheduler(mPrefs);
+        assertFalse("Error: a single failure should keep the interval",
+                scheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED));
+        assertEquals(BASE, scheduler.getSyncInterval());
+
+        // Each further failure in a row backs off by half, up to the cap
+        int expected = BASE;
+        for (int failure = 2; failure <= 5; failure++) {
+            scheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+            expected = Math.min(SyncScheduler.MAX_INTERVAL, expected * 3 / 2);
+            assertEquals("Error: wrong interval after " + failure + " failures",
+                    expected, scheduler.getSyncInterval());
+        }
+        assertEquals(SyncScheduler.MAX_INTERVAL, scheduler.getSyncInterval());
+
+        // A sync that worked ends the run
+        scheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED);
+        assertEquals(BASE, scheduler.getSyncInterval());
+        assertFalse(scheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED));
+        assertEquals(BASE, scheduler.getSyncInterval());
+    }
+
+    public void testOfflineIsNotAFailure() {
+        SyncScheduler scheduler = new SyncScheduler(mPrefs);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(scheduler.onSyncFinished(SyncScheduler.OUTCOME_OFFLINE));
+        }
+        assertEquals("Error: a phone that was offline should keep checking as often", BASE,
+                scheduler.getSyncInterval());
+
+        // Nor does it break up a run of failures
+        scheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+        scheduler.onSyncFinished(SyncScheduler.OUTCOME_OFFLINE);
+        assertTrue(scheduler.onSyncFinished(SyncScheduler.OUTCOME_FAILED));
+        assertEquals(BASE * 3 / 2, scheduler.getSyncInterval());
+    }
+
+    public void testTodayChangesInARow() {
+        SyncScheduler scheduler = new SyncScheduler(mPrefs);
+        assertFalse(scheduler.onSyncFinished(SyncScheduler.OUTCOME_TODAY_CHANGED));
+        assertEquals(BASE, scheduler.getSyncInterval());
+        assertTrue(scheduler.onSyncFinished(SyncScheduler.OUTCOME_TODAY_CHANGED));
+        assertEquals(BASE * 2 / 3, scheduler.getSyncInterval());
+
+        // Any other outcome in between starts counting again
+        scheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED);
+        assertFalse(scheduler.onSyncFinished(SyncScheduler.OUTCOME_TODAY_CHANGED));
+        assertEquals(BASE * 2 / 3, scheduler.getSyncInterval());
+    }
+
+    public void testIntervalIsKept() {
+        SyncScheduler scheduler = new SyncScheduler(mPrefs);
+        assertEquals(BASE, scheduler.getSyncInterval());
+        assertTrue(scheduler.onSyncFinished(SyncScheduler.OUTCOME_UNCHANGED));
+        assertEquals(BASE * 3 / 2, scheduler.getSyncInterval());
+        assertEquals(BASE * 3 / 2, new SyncScheduler(mPrefs).getSyncInterval());
+
+        assertTrue(scheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED));
+        assertFalse("Error: an unchanged interval shouldn't need rescheduling",
+                scheduler.onSyncFinished(SyncScheduler.OUTCOME_CHANGED));
+    }
+
+    public void testSimulatedWeeks() {
+        SyncSimulation calm = new SyncSimulation(42, CALM_WEEK);
+        SyncSimulation.Result calmFixed = calm.run(false);
+        SyncSimulation.Result calmAdaptive = calm.run(true);
+        Log.i(LOG_TAG, "Calm week " + calmFixed);
+        Log.i(LOG_TAG, "Calm week " + calmAdaptive);
+        assertTrue("Error: a calm week should need fewer syncs",
+                calmAdaptive.syncs < calmFixed.syncs);
+        assertTrue("Error: a calm week should need fewer bytes",
+                calmAdaptive.bytes < calmFixed.bytes);
+
+        SyncSimulation stormy = new SyncSimulation(42, STORMY_WEEK);
+        SyncSimulation.Result stormyFixed = stormy.run(false);
+        SyncSimulation.Result stormyAdaptive = stormy.run(true);
+        Log.i(LOG_TAG, "Stormy week " + stormyFixed);
+        Log.i(LOG_TAG, "Stormy week " + stormyAdaptive);
+        assertTrue("Error: a stormy week should show today's changes sooner",
+                stormyAdaptive.getMeanLagMillis() < stormyFixed.getMeanLagMillis());
+        assertTrue(stormyAdaptive.maxInterval <= SyncScheduler.MAX_INTERVAL);
+
+        // Today revised a little on nearly every fetch
+        SyncSimulation drifting = new SyncSimulation(42, DRIFTING_WEEK);
+        SyncSimulation.Result driftingFixed = drifting.run(false);
+        SyncSimulation.Result driftingAdaptive = drifting.run(true);
+        Log.i(LOG_TAG, "Drifting week " + driftingFixed);
+        Log.i(LOG_TAG, "Drifting week " + driftingAdaptive);
+        assertTrue("Error: small revisions of today shouldn't make it sync more often",
+                driftingAdaptive.syncs <= driftingFixed.syncs);
+
+        // The same week gives the same numbers
+        assertEquals(stormyAdaptive.toString(),
+                new SyncSimulation(42, STORMY_WEEK).run(true).toString());
+    }
+}
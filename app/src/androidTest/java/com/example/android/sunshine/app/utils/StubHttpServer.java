@@ -0,0 +1,404 @@
+package com.example.android.sunshine.app.utils;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A tiny HTTP/1.1 server on the loopback interface that stands in for OpenWeatherMap in tests.
+ * <p>
+ * It serves one body for every request, or a body of its own for each request target so recorded
+ * responses can be replayed, honors If-None-Match and If-Modified-Since with a 304, compresses
+ * the body with gzip or deflate when the client asks for it, and counts requests and the bytes it
+ * writes so tests can reason about transfer costs.  A fixed latency can be injected before every
+ * response and the bandwidth capped to approximate a slow mobile network, and the next requests
+ * can be made to fail with an error status, no answer at all or a reset connection.
+ */
+public class StubHttpServer {
+    /**
+     * Reads the request and never answers it, until the client gives up.
+     */
+    public static final int FAULT_STALL = -1;
+    /**
+     * Reads the request and resets the connection.
+     */
+    public static final int FAULT_RESET = -2;
+
+    private static final String LOG_TAG = StubHttpServer.class.getSimpleName();
+    private static final String HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss 'GMT'";
+
+    private final ServerSocket mServerSocket;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mNotModifiedCount = new AtomicInteger();
+    private final AtomicLong mBytesSent = new AtomicLong();
+    private volatile boolean mRunning = true;
+    private volatile byte[] mBody = new byte[0];
+    private final Map<String, byte[]> mBodies = new ConcurrentHashMap<>();
+    private volatile String mETag;
+    private volatile long mLastModified;
+    private volatile long mMaxAgeSeconds = -1;
+    private volatile String mContentEncoding = "gzip";
+    private volatile String mLastAcceptEncoding;
+    private volatile long mLatencyMillis;
+    private volatile long mBytesPerSecond;
+    private final AtomicInteger mInFlight = new AtomicInteger();
+    private final AtomicInteger mMaxInFlight = new AtomicInteger();
+    private int mFault;
+    private int mFaultsLeft;
+
+    public StubHttpServer() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        Thread acceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptLoop();
+            }
+        }, LOG_TAG);
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+    }
+
+    private static String formatHttpDate(long millis) {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        return format.format(new Date(millis));
+    }
+
+    private static long parseHttpDate(String date) {
+        SimpleDateFormat format = new SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return format.parse(date).getTime();
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+
+    public URL getUrl(String path) throws MalformedURLException {
+        return new URL("http", "127.0.0.1", mServerSocket.getLocalPort(), path);
+    }
+
+    /**
+     * Sets what every following request is answered with.
+     *
+     * @param body          the response body, sent as UTF-8
+     * @param etag          the ETag header to send, or null for none
+     * @param lastModified  the Last-Modified time in millis, or 0 for none
+     * @param maxAgeSeconds the Cache-Control max-age to send, or -1 for none
+     */
+    public void setResponse(String body, String etag, long lastModified, long maxAgeSeconds)
+            throws IOException {
+        mBody = body.getBytes("UTF-8");
+        mETag = etag;
+        // HTTP dates only carry whole seconds
+        mLastModified = lastModified / 1000 * 1000;
+        mMaxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * Answers requests for the target with its own body instead of the one set by
+     * {@link #setResponse(String, String, long, long)}, whose headers it shares.
+     *
+     * @param target the path and query of the request, as {@link URL#getFile()} returns them
+     */
+    public void setResponse(String target, String body) throws IOException {
+        mBodies.put(target, body.getBytes("UTF-8"));
+    }
+
+    /**
+     * Sets the encoding bodies are compressed with, "gzip" or "deflate", when the client accepts
+     * it.  Pass null to always send bodies uncompressed.
+     */
+    public void setContentEncoding(String encoding) {
+        mContentEncoding = encoding;
+    }
+
+    /**
+     * @return the Accept-Encoding header of the most recent request, or null if it had none.
+     */
+    public String getLastAcceptEncoding() {
+        return mLastAcceptEncoding;
+    }
+
+    /**
+     * Delays every response by the given time, measured from when the request was read.
+     */
+    public void setLatencyMillis(long latencyMillis) {
+        mLatencyMillis = latencyMillis;
+    }
+
+    /**
+     * Caps how fast responses are written, headers included.
+     *
+     * @param bytesPerSecond the bandwidth, or 0 to write as fast as the socket takes them
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        mBytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Makes the next requests fail instead of being answered.
+     *
+     * @param fault an HTTP status such as 503 to answer with, {@link #FAULT_STALL} or
+     *              {@link #FAULT_RESET}
+     * @param count how many requests to fail, 0 to answer every request again
+     */
+    public synchronized void injectFault(int fault, int count) {
+        mFault = fault;
+        mFaultsLeft = count;
+    }
+
+    private synchronized int takeFault() {
+        if (mFaultsLeft == 0) {
+            return 0;
+        }
+        mFaultsLeft--;
+        return mFault;
+    }
+
+    /**
+     * @return the highest number of requests that were being answered at the same time.
+     */
+    public int getMaxConcurrentRequests() {
+        return mMaxInFlight.get();
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public int getNotModifiedCount() {
+        return mNotModifiedCount.get();
+    }
+
+    public long getBytesSent() {
+        return mBytesSent.get();
+    }
+
+    public void shutdown() {
+        mRunning = false;
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error closing server socket", e);
+        }
+    }
+
+    private void acceptLoop() {
+        while (mRunning) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                if (mRunning) {
+                    Log.e(LOG_TAG, "Error accepting connection", e);
+                }
+                return;
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handle(socket);
+                    } catch (IOException e) {
+                        Log.d(LOG_TAG, "Connection ended: " + e.getMessage());
+                    } finally {
+                        try {
+                            socket.close();
+                        } catch (IOException e) {
+                            // Nothing left to do with it
+                        }
+                    }
+                }
+            }).start();
+        }
+    }
+
+    private String chooseEncoding(String acceptEncoding) {
+        String encoding = mContentEncoding;
+        if (encoding == null || acceptEncoding == null
+                || !acceptEncoding.toLowerCase(Locale.US).contains(encoding)) {
+            return null;
+        }
+        return encoding;
+    }
+
+    private static byte[] encode(byte[] body, String encoding) throws IOException {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        DeflaterOutputStream out = encoding.equals("gzip")
+                ? new GZIPOutputStream(encoded) : new DeflaterOutputStream(encoded);
+        out.write(body);
+        out.close();
+        return encoded.toByteArray();
+    }
+
+    private void handle(Socket socket) throws IOException {
+        BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+        String requestLine = in.readLine();
+        if (requestLine == null) {
+            return;
+        }
+        // GET <target> HTTP/1.1
+        String[] requestParts = requestLine.split(" ");
+        String target = requestParts.length > 1 ? requestParts[1] : "/";
+        String ifNoneMatch = null;
+        long ifModifiedSince = -1;
+        String acceptEncoding = null;
+        String line;
+        while ((line = in.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("If-None-Match")) {
+                ifNoneMatch = value;
+            } else if (name.equalsIgnoreCase("If-Modified-Since")) {
+                ifModifiedSince = parseHttpDate(value);
+            } else if (name.equalsIgnoreCase("Accept-Encoding")) {
+                acceptEncoding = value;
+            }
+        }
+        mLastAcceptEncoding = acceptEncoding;
+        mRequestCount.incrementAndGet();
+        int inFlight = mInFlight.incrementAndGet();
+        try {
+            int max;
+            while (inFlight > (max = mMaxInFlight.get())
+                    && !mMaxInFlight.compareAndSet(max, inFlight)) {
+                // Lost the race to another request, try again
+            }
+            if (mLatencyMillis > 0) {
+                try {
+                    Thread.sleep(mLatencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            int fault = takeFault();
+            if (fault != 0) {
+                fail(socket, fault);
+            } else {
+                respond(socket, target, acceptEncoding, ifNoneMatch, ifModifiedSince);
+            }
+        } finally {
+            mInFlight.decrementAndGet();
+        }
+    }
+
+    private void fail(Socket socket, int fault) throws IOException {
+        if (fault == FAULT_STALL) {
+            // Blocks until the client times out and closes its end
+            while (socket.getInputStream().read() != -1) {
+                // Discard anything else it sends
+            }
+        } else if (fault == FAULT_RESET) {
+            // Closing with a zero linger time sends a RST instead of a FIN
+            socket.setSoLinger(true, 0);
+            socket.close();
+        } else {
+            OutputStream out = socket.getOutputStream();
+            byte[] headerBytes = ("HTTP/1.1 " + fault + " Error\r\n"
+                    + "Content-Length: 0\r\n"
+                    + "Connection: close\r\n\r\n").getBytes("ISO-8859-1");
+            out.write(headerBytes);
+            mBytesSent.addAndGet(headerBytes.length);
+            out.flush();
+        }
+    }
+
+    private void respond(Socket socket, String target, String acceptEncoding,
+                         String ifNoneMatch, long ifModifiedSince) throws IOException {
+        byte[] body = mBodies.get(target);
+        if (body == null) {
+            body = mBody;
+        }
+        String etag = mETag;
+        long lastModified = mLastModified;
+        boolean notModified = etag != null && etag.equals(ifNoneMatch)
+                || etag == null && lastModified > 0 && ifModifiedSince >= lastModified;
+
+        StringBuilder headers = new StringBuilder();
+        headers.append(notModified ? "HTTP/1.1 304 Not Modified\r\n" : "HTTP/1.1 200 OK\r\n");
+        if (etag != null) {
+            headers.append("ETag: ").append(etag).append("\r\n");
+        }
+        if (lastModified > 0) {
+            headers.append("Last-Modified: ").append(formatHttpDate(lastModified)).append("\r\n");
+        }
+        if (mMaxAgeSeconds >= 0) {
+            headers.append("Cache-Control: max-age=").append(mMaxAgeSeconds).append("\r\n");
+        }
+        if (!notModified) {
+            String contentEncoding = chooseEncoding(acceptEncoding);
+            if (contentEncoding != null) {
+                body = encode(body, contentEncoding);
+                headers.append("Content-Encoding: ").append(contentEncoding).append("\r\n");
+            }
+            headers.append("Content-Type: application/json; charset=utf-8\r\n");
+            headers.append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        headers.append("Connection: close\r\n\r\n");
+
+        OutputStream out = socket.getOutputStream();
+        write(out, headers.toString().getBytes("ISO-8859-1"));
+        if (notModified) {
+            mNotModifiedCount.incrementAndGet();
+        } else {
+            write(out, body);
+        }
+        out.flush();
+    }
+
+    // Writes in slices of a hundredth of a second's worth, pacing them to the bandwidth cap
+    private void write(OutputStream out, byte[] bytes) throws IOException {
+        long bytesPerSecond = mBytesPerSecond;
+        if (bytesPerSecond <= 0) {
+            out.write(bytes);
+            mBytesSent.addAndGet(bytes.length);
+            return;
+        }
+        int slice = (int) Math.max(1, Math.min(bytes.length, bytesPerSecond / 100));
+        long start = System.nanoTime();
+        for (int offset = 0; offset < bytes.length; offset += slice) {
+            int count = Math.min(slice, bytes.length - offset);
+            out.write(bytes, offset, count);
+            out.flush();
+            mBytesSent.addAndGet(count);
+            long waitNanos = start + (offset + count) * 1000000000L / bytesPerSecond
+                    - System.nanoTime();
+            if (waitNanos > 0) {
+                try {
+                    Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+}
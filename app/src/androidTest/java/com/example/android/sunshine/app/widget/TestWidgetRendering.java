@@ -0,0 +1,205 @@
+package com.example.android.sunshine.app.widget;
+
+import android.content.ContentValues;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.widget.RemoteViews;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Checks how the Today widgets are grouped by layout, that the detail widget's factory
+    prepares every row in onDataSetChanged so getViewAt only builds views, and that widgets are
+    only sent what changed since their last update.
+ */
+public class TestWidgetRendering extends AndroidTestCase {
+    public static final String LOG_TAG = TestWidgetRendering.class.getSimpleName();
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+    private static final int NUM_DAYS = 14;
+
+    private SharedPreferences mPrefs;
+    private String mArtPackKey;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mArtPackKey = mContext.getString(R.string.pref_art_pack_key);
+        mSavedArtPack = mPrefs.getString(mArtPackKey, null);
+        deleteAllRecords();
+        WidgetFingerprints.TODAY.clear();
+        WidgetFingerprints.DETAIL.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        WidgetFingerprints.TODAY.clear();
+        WidgetFingerprints.DETAIL.clear();
+        if (mSavedArtPack == null) {
+            mPrefs.edit().remove(mArtPackKey).commit();
+        } else {
+            mPrefs.edit().putString(mArtPackKey, mSavedArtPack).commit();
+        }
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private void insertForecast() {
+        ContentValues locationValues = new ContentValues();
+        locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING,
+                Utility.getPreferredLocation(mContext));
+        locationValues.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        locationValues.put(LocationEntry.COLUMN_COORD_LAT, 37.39);
+        locationValues.put(LocationEntry.COLUMN_COORD_LONG, -122.08);
+        Uri uri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        long locationId = Long.parseLong(uri.getLastPathSegment());
+
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] days = new ContentValues[NUM_DAYS];
+        for (int day = 0; day < NUM_DAYS; day++) {
+            days[day] = new ContentValues();
+            days[day].put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+            days[day].put(WeatherEntry.COLUMN_DATE, today + day * DAY_IN_MILLIS);
+            days[day].put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            days[day].put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            days[day].put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            days[day].put(WeatherEntry.COLUMN_MAX_TEMP, 20 + day);
+            days[day].put(WeatherEntry.COLUMN_MIN_TEMP, 10 - day);
+            days[day].put(WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+            days[day].put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            days[day].put(WeatherEntry.COLUMN_WEATHER_ID, day % 2 == 0 ? 800 : 500);
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, days);
+    }
+
+    public void testTodayLayoutGrouping() {
+        assertEquals(R.layout.widget_today_small,
+                TodayWidgetIntentService.getLayoutForWidth(99, 100, 200));
+        assertEquals(R.layout.widget_today,
+                TodayWidgetIntentService.getLayoutForWidth(100, 100, 200));
+        assertEquals(R.layout.widget_today_large,
+                TodayWidgetIntentService.getLayoutForWidth(200, 100, 200));
+
+        int[] appWidgetIds = {11, 12, 13, 14, 15};
+        int[] layoutIds = {R.layout.widget_today, R.layout.widget_today_large,
+                R.layout.widget_today, R.layout.widget_today, R.layout.widget_today_large};
+        assertTrue(Arrays.equals(new int[]{11, 13, 14}, TodayWidgetIntentService
+                .selectWidgetIds(appWidgetIds, layoutIds, R.layout.widget_today)));
+        assertTrue(Arrays.equals(new int[]{12, 15}, TodayWidgetIntentService
+                .selectWidgetIds(appWidgetIds, layoutIds, R.layout.widget_today_large)));
+        assertEquals(0, TodayWidgetIntentService
+                .selectWidgetIds(appWidgetIds, layoutIds, R.layout.widget_today_small).length);
+    }
+
+    public void testDetailRowsPreparedUpFront() {
+        // The local icons, so nothing is fetched
+        mPrefs.edit().putString(mArtPackKey,
+                mContext.getString(R.string.pref_art_pack_sunshine)).commit();
+        insertForecast();
+
+        DetailWidgetRemoteViewsService.DetailWidgetFactory factory =
+                new DetailWidgetRemoteViewsService.DetailWidgetFactory(mContext);
+        factory.onCreate();
+        assertEquals(0, factory.getCount());
+
+        long updates = WidgetUpdateStats.getUpdateCount(DetailWidgetRemoteViewsService.STATS_NAME);
+        factory.onDataSetChanged();
+        assertEquals(updates + 1,
+                WidgetUpdateStats.getUpdateCount(DetailWidgetRemoteViewsService.STATS_NAME));
+        assertEquals(NUM_DAYS, factory.getCount());
+
+        long start = System.nanoTime();
+        for (int position = 0; position < NUM_DAYS; position++) {
+            RemoteViews views = factory.getViewAt(position);
+            assertNotNull("Error: no views for row " + position, views);
+            assertTrue(factory.getItemId(position) > 0);
+        }
+        long nanos = System.nanoTime() - start;
+        Log.i(LOG_TAG, String.format("getViewAt %.1f us per row", nanos / 1e3 / NUM_DAYS));
+        assertNull(factory.getViewAt(NUM_DAYS));
+
+        // Rows from the database as it was, until the next onDataSetChanged
+        deleteAllRecords();
+        assertEquals(NUM_DAYS, factory.getCount());
+        factory.onDataSetChanged();
+        assertEquals(0, factory.getCount());
+        factory.onDestroy();
+    }
+
+    public void testTodayUpdateKinds() {
+        TodayWidgetIntentService.Rendered rendered = new TodayWidgetIntentService.Rendered(
+                R.layout.widget_today, R.drawable.art_clear, "Clear", "20°", "10°");
+        TodayWidgetIntentService.Rendered same = new TodayWidgetIntentService.Rendered(
+                R.layout.widget_today, R.drawable.art_clear, "Clear", "20°", "10°");
+        TodayWidgetIntentService.Rendered warmer = new TodayWidgetIntentService.Rendered(
+                R.layout.widget_today, R.drawable.art_clear, "Clear", "21°", "10°");
+        TodayWidgetIntentService.Rendered larger = new TodayWidgetIntentService.Rendered(
+                R.layout.widget_today_large, R.drawable.art_clear, "Clear", "20°", "10°");
+
+        assertEquals(WidgetUpdateStats.FULL,
+                TodayWidgetIntentService.getUpdateKind(null, rendered, true));
+        assertEquals(WidgetUpdateStats.SKIPPED,
+                TodayWidgetIntentService.getUpdateKind(same, rendered, true));
+        assertEquals(WidgetUpdateStats.PARTIAL,
+                TodayWidgetIntentService.getUpdateKind(warmer, rendered, true));
+        assertEquals("Error: a partial update needs the same layout", WidgetUpdateStats.FULL,
+                TodayWidgetIntentService.getUpdateKind(larger, rendered, true));
+        assertEquals(WidgetUpdateStats.FULL,
+                TodayWidgetIntentService.getUpdateKind(warmer, rendered, false));
+    }
+
+    public void testFingerprintUpdate() {
+        int[] appWidgetIds = {21, 22, 23};
+        assertTrue("Error: unknown widgets should all change", Arrays.equals(appWidgetIds,
+                WidgetFingerprints.DETAIL.update(appWidgetIds, "a")));
+        assertEquals(0, WidgetFingerprints.DETAIL.update(appWidgetIds, "a").length);
+
+        WidgetFingerprints.DETAIL.remove(new int[]{22});
+        assertTrue(Arrays.equals(new int[]{22},
+                WidgetFingerprints.DETAIL.update(appWidgetIds, "a")));
+        assertTrue(Arrays.equals(appWidgetIds,
+                WidgetFingerprints.DETAIL.update(appWidgetIds, "b")));
+        assertEquals("b", WidgetFingerprints.DETAIL.get(23));
+    }
+
+    public void testDetailFingerprint() {
+        String artPack = mContext.getString(R.string.pref_art_pack_sunshine);
+        insertForecast();
+        List<DetailWidgetRemoteViewsService.Row> rows =
+                DetailWidgetRemoteViewsService.loadRows(mContext);
+        assertNotNull(rows);
+        assertEquals(NUM_DAYS, rows.size());
+        String fingerprint = DetailWidgetRemoteViewsService.getFingerprint(rows, artPack);
+        assertEquals("Error: the same data should have the same fingerprint", fingerprint,
+                DetailWidgetRemoteViewsService.getFingerprint(
+                        DetailWidgetRemoteViewsService.loadRows(mContext), artPack));
+        assertFalse("Error: another art pack should change the fingerprint", fingerprint.equals(
+                DetailWidgetRemoteViewsService.getFingerprint(rows, artPack + "x")));
+
+        // A warmer last day
+        ContentValues values = new ContentValues();
+        values.put(WeatherEntry.COLUMN_MAX_TEMP, 40);
+        mContext.getContentResolver().update(WeatherEntry.CONTENT_URI, values,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(
+                        rows.get(NUM_DAYS - 1).date)});
+        assertFalse("Error: a new high should change the fingerprint", fingerprint.equals(
+                DetailWidgetRemoteViewsService.getFingerprint(
+                        DetailWidgetRemoteViewsService.loadRows(mContext), artPack)));
+    }
+}
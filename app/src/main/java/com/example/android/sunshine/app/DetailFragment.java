@@ -206,7 +206,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
 
             // Read date from cursor and update views for day of week and date
             long date = data.getLong(COL_WEATHER_DATE);
-            String dateText = Utility.getFullFriendlyDayString(getActivity(), date);
+            ForecastFormatter formatter = ForecastFormatter.getInstance(getActivity());
+            String dateText = formatter.getFullFriendlyDayString(date);
             mDateView.setText(dateText);
 
             // Get description from weather condition ID
@@ -221,18 +222,14 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mIconView.setContentDescription(getString(R.string.a11y_forecast_icon, description));
 
             // Read high temperature from cursor and update view
-            boolean isMetric = Utility.isMetric(getActivity());
-
             double high = data.getDouble(COL_WEATHER_MAX_TEMP);
-            String highString = Utility.formatTemperature(getActivity(), high);
-            mHighTempView.setText(highString);
-            mHighTempView.setContentDescription(getString(R.string.a11y_high_temp, highString));
+            mHighTempView.setText(formatter.formatTemperature(high));
+            mHighTempView.setContentDescription(formatter.getHighTemperatureDescription(high));
 
             // Read low temperature from cursor and update view
             double low = data.getDouble(COL_WEATHER_MIN_TEMP);
-            String lowString = Utility.formatTemperature(getActivity(), low);
-            mLowTempView.setText(lowString);
-            mLowTempView.setContentDescription(getString(R.string.a11y_low_temp, lowString));
+            mLowTempView.setText(formatter.formatTemperature(low));
+            mLowTempView.setContentDescription(formatter.getLowTemperatureDescription(low));
 
             // Read humidity from cursor and update view
             float humidity = data.getFloat(COL_WEATHER_HUMIDITY);
@@ -16,9 +16,9 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -27,11 +27,12 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from a list of {@link ForecastRow}s to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -43,12 +44,15 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     final private ItemChoiceManager mICM;
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
-    private Cursor mCursor;
+    private List<ForecastRow> mRows;
 
     public ForecastAdapter(Context context, ForecastAdapterOnClickHandler dh, View emptyView, int choiceMode) {
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Lets ItemChoiceManager follow the selected day through reloads by its id.  It has to be
+        // set before ItemChoiceManager starts observing.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -85,26 +89,26 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+        // Everything was read and formatted by ForecastLoader, off the main thread
+        ForecastRow row = mRows.get(position);
         int defaultImage;
-        boolean useLongToday;
+        String dateText;
 
         switch (getItemViewType(position)) {
             case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
+                defaultImage = row.artResourceId;
+                dateText = row.todayDateText;
                 break;
             default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
+                defaultImage = row.iconResourceId;
+                dateText = row.dateText;
         }
 
-        if (Utility.usingLocalGraphics(mContext)) {
+        if (row.artUrl == null) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.artUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -114,34 +118,20 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(dateText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.description);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.descriptionContentDescription);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.highText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.highContentDescription);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.lowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.lowContentDescription);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -167,20 +157,47 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        return mRows.get(position).stableId;
+    }
+
     @Override
     public int getItemCount() {
-        if (null == mCursor) return 0;
-        return mCursor.getCount();
+        if (null == mRows) return 0;
+        return mRows.size();
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    /*
+        Shows a new load.  Only the days that were added, removed or changed are rebound, so a
+        sync that leaves most of the forecast alone doesn't redraw the whole list.
+     */
+    public void swapRows(List<ForecastRow> newRows) {
+        List<ForecastRow> oldRows = mRows;
+        mRows = newRows;
+        if (oldRows == null || newRows == null) {
+            notifyDataSetChanged();
+        } else {
+            DiffUtil.calculateDiff(new ForecastRow.DiffCallback(oldRows, newRows), false)
+                    .dispatchUpdatesTo(this);
+            if (mUseTodayLayout && !oldRows.isEmpty() && !newRows.isEmpty()
+                    && !oldRows.get(0).isSameDay(newRows.get(0))) {
+                // Another day moved to the top, it needs the today layout, and the old first
+                // day, wherever it went, the normal one
+                notifyItemChanged(0);
+                for (int i = 1; i < newRows.size(); i++) {
+                    if (newRows.get(i).isSameDay(oldRows.get(0))) {
+                        notifyItemChanged(i);
+                        break;
+                    }
+                }
+            }
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    public List<ForecastRow> getRows() {
+        return mRows;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -217,9 +234,11 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            if (adapterPosition == RecyclerView.NO_POSITION) {
+                // Removed by a reload since it was laid out
+                return;
+            }
+            mClickHandler.onClick(mRows.get(adapterPosition).date, this);
             mICM.onClick(this);
         }
     }
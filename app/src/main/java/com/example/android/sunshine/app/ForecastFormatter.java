@@ -0,0 +1,242 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.text.format.Time;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Caching versions of the {@link Utility} helpers that format every forecast row, for the
+ * forecast list and the widgets.
+ * <p>
+ * Utility.formatTemperature reads the units preference and runs String.format on each call,
+ * and the day helpers build new Time and SimpleDateFormat objects.  Here the units setting is
+ * read once and refreshed by a preference listener, and each label is formatted once and then
+ * handed out again: temperatures per rounded degree, days per day from today.  The day labels
+ * are dropped when the day (or the time zone offset) changes, everything when the default
+ * locale does.  A bind that hits the caches allocates nothing.
+ * <p>
+ * Every string is still built by the same Utility helper or format resource, so the output is
+ * always identical to Utility's.
+ */
+public class ForecastFormatter implements SharedPreferences.OnSharedPreferenceChangeListener {
+    // Largest rounded temperature, in either unit, whose strings are kept
+    static final int TEMPERATURE_CACHE_LIMIT = 150;
+    // Days from today whose labels are kept
+    static final int DAY_CACHE_DAYS = 32;
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+    private static final long DAY_IN_MILLIS = HOUR_IN_MILLIS * 24;
+
+    private static final int TEMPERATURE = 0;
+    private static final int HIGH_TEMPERATURE_DESCRIPTION = 1;
+    private static final int LOW_TEMPERATURE_DESCRIPTION = 2;
+    private static final int DAY_FRIENDLY = 0;
+    private static final int DAY_FRIENDLY_LONG_TODAY = 1;
+    private static final int DAY_FULL_FRIENDLY = 2;
+
+    private static ForecastFormatter sInstance;
+
+    private final Context mContext;
+    private final String mUnitsKey;
+    // [kind][rounded degrees * 2 + (negative ? 1 : 0)]
+    private final String[][] mTemperatures = new String[3][(TEMPERATURE_CACHE_LIMIT + 1) * 2];
+    // [kind][days from today]
+    private final String[][] mDays = new String[3][DAY_CACHE_DAYS];
+    private Locale mLocale;
+    private String mTemperatureFormat;
+    private boolean mMetricKnown;
+    private boolean mMetric;
+    private int mCurrentJulianDay;
+    private long mGmtOff;
+    // The day labels are valid for now in [mDayCheckedMillis, mDayExpiresMillis)
+    private long mDayCheckedMillis;
+    private long mDayExpiresMillis;
+
+    ForecastFormatter(Context context) {
+        mContext = context;
+        mUnitsKey = context.getString(R.string.pref_units_key);
+        // The preferences only hold on to listeners weakly, this instance keeps itself alive
+        PreferenceManager.getDefaultSharedPreferences(context)
+                .registerOnSharedPreferenceChangeListener(this);
+    }
+
+    public static synchronized ForecastFormatter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastFormatter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public synchronized void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+        if (mUnitsKey.equals(key)) {
+            mMetricKnown = false;
+            clear(mTemperatures);
+        }
+    }
+
+    private static void clear(String[][] caches) {
+        for (String[] cache : caches) {
+            Arrays.fill(cache, null);
+        }
+    }
+
+    private void checkLocale() {
+        // Locale.getDefault() hands out the same instance until the default changes
+        Locale locale = Locale.getDefault();
+        if (locale != mLocale) {
+            mLocale = locale;
+            mTemperatureFormat = mContext.getString(R.string.format_temperature);
+            clear(mTemperatures);
+            clear(mDays);
+        }
+    }
+
+    /**
+     * Same as {@link Utility#isMetric(Context)}, without reading the preferences each time.
+     */
+    public synchronized boolean isMetric() {
+        if (!mMetricKnown) {
+            mMetric = Utility.isMetric(mContext);
+            mMetricKnown = true;
+        }
+        return mMetric;
+    }
+
+    /**
+     * Reads the units setting again now.  The preference listener only runs on the main thread
+     * some time after a change, so a background reload started by that same change calls this
+     * first.
+     */
+    public synchronized void reloadSettings() {
+        boolean wasMetric = isMetric();
+        mMetricKnown = false;
+        if (isMetric() != wasMetric) {
+            clear(mTemperatures);
+        }
+    }
+
+    /**
+     * Same as {@link Utility#formatTemperature(Context, double)}.
+     */
+    public synchronized String formatTemperature(double temperature) {
+        return getTemperature(TEMPERATURE, temperature);
+    }
+
+    /**
+     * The content description for a high temperature, R.string.a11y_high_temp.
+     */
+    public synchronized String getHighTemperatureDescription(double temperature) {
+        return getTemperature(HIGH_TEMPERATURE_DESCRIPTION, temperature);
+    }
+
+    /**
+     * The content description for a low temperature, R.string.a11y_low_temp.
+     */
+    public synchronized String getLowTemperatureDescription(double temperature) {
+        return getTemperature(LOW_TEMPERATURE_DESCRIPTION, temperature);
+    }
+
+    private String getTemperature(int kind, double temperature) {
+        checkLocale();
+        double displayed = isMetric() ? temperature : (temperature * 1.8) + 32;
+        double magnitude = Math.abs(displayed);
+        if (!(magnitude < TEMPERATURE_CACHE_LIMIT)) {
+            // Also NaN
+            return formatTemperature(kind, displayed);
+        }
+        // The format has no decimals and rounds half up, away from zero, keeping the sign of
+        // values that round to zero ("-0").  Subtracting the integer part is exact, so this
+        // picks the same rounded value as the decimal expansion the formatter rounds.
+        long rounded = (long) magnitude;
+        if (magnitude - rounded >= 0.5) {
+            rounded++;
+        }
+        boolean negative = displayed < 0 || (displayed == 0 && 1 / displayed < 0);
+        int index = (int) rounded * 2 + (negative ? 1 : 0);
+        String[] cache = mTemperatures[kind];
+        if (cache[index] == null) {
+            // Every value that rounds here formats the same, so the first one can stand in
+            cache[index] = formatTemperature(kind, displayed);
+        }
+        return cache[index];
+    }
+
+    private String formatTemperature(int kind, double displayed) {
+        String text = String.format(mTemperatureFormat, displayed);
+        switch (kind) {
+            case HIGH_TEMPERATURE_DESCRIPTION:
+                return mContext.getString(R.string.a11y_high_temp, text);
+            case LOW_TEMPERATURE_DESCRIPTION:
+                return mContext.getString(R.string.a11y_low_temp, text);
+            default:
+                return text;
+        }
+    }
+
+    /**
+     * Same as {@link Utility#getFriendlyDayString(Context, long, boolean)}.
+     */
+    public synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        return getDay(displayLongToday ? DAY_FRIENDLY_LONG_TODAY : DAY_FRIENDLY, dateInMillis);
+    }
+
+    /**
+     * Same as {@link Utility#getFullFriendlyDayString(Context, long)}.
+     */
+    public synchronized String getFullFriendlyDayString(long dateInMillis) {
+        return getDay(DAY_FULL_FRIENDLY, dateInMillis);
+    }
+
+    private String getDay(int kind, long dateInMillis) {
+        checkLocale();
+        checkDay();
+        long day = Time.getJulianDay(dateInMillis, mGmtOff) - mCurrentJulianDay;
+        if (day < 0 || day >= DAY_CACHE_DAYS) {
+            return formatDay(kind, dateInMillis);
+        }
+        String[] cache = mDays[kind];
+        if (cache[(int) day] == null) {
+            cache[(int) day] = formatDay(kind, dateInMillis);
+        }
+        return cache[(int) day];
+    }
+
+    private String formatDay(int kind, long dateInMillis) {
+        switch (kind) {
+            case DAY_FRIENDLY_LONG_TODAY:
+                return Utility.getFriendlyDayString(mContext, dateInMillis, true);
+            case DAY_FULL_FRIENDLY:
+                return Utility.getFullFriendlyDayString(mContext, dateInMillis);
+            default:
+                return Utility.getFriendlyDayString(mContext, dateInMillis, false);
+        }
+    }
+
+    /*
+        Keeps mCurrentJulianDay and mGmtOff current.  They're looked up again at midnight, and at
+        least hourly so a daylight saving change is noticed too; the day labels are only dropped
+        when either actually changed.
+     */
+    private void checkDay() {
+        long now = System.currentTimeMillis();
+        if (now >= mDayCheckedMillis && now < mDayExpiresMillis) {
+            return;
+        }
+        Time time = new Time();
+        time.set(now);
+        int currentJulianDay = Time.getJulianDay(now, time.gmtoff);
+        if (currentJulianDay != mCurrentJulianDay || time.gmtoff != mGmtOff) {
+            mCurrentJulianDay = currentJulianDay;
+            mGmtOff = time.gmtoff;
+            clear(mDays);
+        }
+        long nextMidnight = (currentJulianDay + 1 - Time.EPOCH_JULIAN_DAY) * DAY_IN_MILLIS
+                - time.gmtoff * 1000;
+        mDayCheckedMillis = now;
+        mDayExpiresMillis = Math.min(nextMidnight, now + HOUR_IN_MILLIS);
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast list as {@link ForecastRow}s.  It watches the uri and reloads on changes
+ * like a CursorLoader, but reads and formats the whole cursor on the loader's thread and
+ * closes it, so the list never touches the cursor while scrolling.
+ */
+public class ForecastLoader extends AsyncTaskLoader<List<ForecastRow>> {
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+    private List<ForecastRow> mRows;
+    private boolean mObserving;
+
+    public ForecastLoader(Context context, Uri uri) {
+        super(context);
+        mUri = uri;
+    }
+
+    /**
+     * Turns a cursor over {@link ForecastFragment}'s FORECAST_COLUMNS into rows.
+     */
+    static List<ForecastRow> buildRows(Context context, Cursor cursor) {
+        ForecastFormatter formatter = ForecastFormatter.getInstance(context);
+        // Settings changes reach here through a content change, maybe before the listeners
+        formatter.reloadSettings();
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+
+        List<ForecastRow> rows = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+            long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+            double high = cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
+            double low = cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
+            String description = Utility.getStringForWeatherCondition(context, weatherId);
+            rows.add(new ForecastRow(
+                    cursor.getLong(ForecastFragment.COL_WEATHER_ID),
+                    cursor.getLong(ForecastFragment.COL_LOCATION_ID),
+                    date,
+                    weatherId,
+                    cursor.getString(ForecastFragment.COL_LOCATION_SETTING),
+                    cursor.getString(ForecastFragment.COL_COORD_LAT),
+                    cursor.getString(ForecastFragment.COL_COORD_LONG),
+                    formatter.getFriendlyDayString(date, false),
+                    formatter.getFriendlyDayString(date, true),
+                    Utility.getIconResourceForWeatherCondition(weatherId),
+                    Utility.getArtResourceForWeatherCondition(weatherId),
+                    localGraphics ? null : Utility.getArtUrlForWeatherCondition(context, weatherId),
+                    description,
+                    context.getString(R.string.a11y_forecast, description),
+                    formatter.formatTemperature(high),
+                    formatter.getHighTemperatureDescription(high),
+                    formatter.formatTemperature(low),
+                    formatter.getLowTemperatureDescription(low)));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    @Override
+    public List<ForecastRow> loadInBackground() {
+        Cursor cursor = getContext().getContentResolver().query(mUri,
+                ForecastFragment.FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            return buildRows(getContext(), cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(List<ForecastRow> rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // The cursor is closed after loading, so the loader watches the uri itself
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            mObserving = true;
+        }
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mRows = null;
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.sunshine.app;
+
+import android.support.v7.util.DiffUtil;
+
+import java.util.List;
+
+/**
+ * One day of the forecast list, with every string {@link ForecastAdapter} shows already
+ * formatted.  Built by {@link ForecastLoader} off the main thread, so binding a row only copies
+ * fields into views.
+ */
+public final class ForecastRow {
+    private static final long HOUR_IN_MILLIS = 1000 * 60 * 60;
+
+    final long id;
+    final long locationId;
+    final long date;
+    // Names the same day of the same location across loads, see getStableId
+    final long stableId;
+    final int weatherId;
+    final String locationSetting;
+    final String coordLat;
+    final String coordLong;
+    // The list shows today larger, with the art and a longer date
+    final String dateText;
+    final String todayDateText;
+    final int iconResourceId;
+    final int artResourceId;
+    // null when the local graphics are used
+    final String artUrl;
+    final String description;
+    final String descriptionContentDescription;
+    final String highText;
+    final String highContentDescription;
+    final String lowText;
+    final String lowContentDescription;
+
+    ForecastRow(long id, long locationId, long date, int weatherId, String locationSetting, String coordLat,
+                String coordLong, String dateText, String todayDateText, int iconResourceId,
+                int artResourceId, String artUrl, String description,
+                String descriptionContentDescription, String highText,
+                String highContentDescription, String lowText, String lowContentDescription) {
+        this.id = id;
+        this.locationId = locationId;
+        this.date = date;
+        this.stableId = getStableId(locationId, date);
+        this.weatherId = weatherId;
+        this.locationSetting = locationSetting;
+        this.coordLat = coordLat;
+        this.coordLong = coordLong;
+        this.dateText = dateText;
+        this.todayDateText = todayDateText;
+        this.iconResourceId = iconResourceId;
+        this.artResourceId = artResourceId;
+        this.artUrl = artUrl;
+        this.description = description;
+        this.descriptionContentDescription = descriptionContentDescription;
+        this.highText = highText;
+        this.highContentDescription = highContentDescription;
+        this.lowText = lowText;
+        this.lowContentDescription = lowContentDescription;
+    }
+
+    /**
+     * The adapter id of a day, from the weather table's (location, date) key.  The row's _ID only
+     * survives writes that go through WeatherUpsert, a plain insert of the same day replaces the
+     * row.  Dates are normalized to midnight, so counting them in hours keeps every day distinct
+     * in the low 32 bits.
+     *
+     * @param locationId the location table row id of the forecast
+     * @param date       the normalized date of the day
+     */
+    static long getStableId(long locationId, long date) {
+        return (locationId << 32) | (date / HOUR_IN_MILLIS);
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * @return whether both rows are the same day of the same location, whatever its forecast.
+     */
+    boolean isSameDay(ForecastRow other) {
+        return stableId == other.stableId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow other = (ForecastRow) o;
+        return id == other.id
+                && locationId == other.locationId
+                && date == other.date
+                && weatherId == other.weatherId
+                && iconResourceId == other.iconResourceId
+                && artResourceId == other.artResourceId
+                && equal(locationSetting, other.locationSetting)
+                && equal(coordLat, other.coordLat)
+                && equal(coordLong, other.coordLong)
+                && equal(dateText, other.dateText)
+                && equal(todayDateText, other.todayDateText)
+                && equal(artUrl, other.artUrl)
+                && equal(description, other.description)
+                && equal(descriptionContentDescription, other.descriptionContentDescription)
+                && equal(highText, other.highText)
+                && equal(highContentDescription, other.highContentDescription)
+                && equal(lowText, other.lowText)
+                && equal(lowContentDescription, other.lowContentDescription);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (date ^ (date >>> 32));
+        result = 31 * result + weatherId;
+        result = 31 * result + (highText != null ? highText.hashCode() : 0);
+        result = 31 * result + (lowText != null ? lowText.hashCode() : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return locationSetting + " " + date + ": " + description + " " + highText + "/" + lowText;
+    }
+
+    /**
+     * Compares two lists of rows for {@link DiffUtil}: a day is the same item across loads, and
+     * only needs rebinding when something it shows changed.
+     */
+    static class DiffCallback extends DiffUtil.Callback {
+        private final List<ForecastRow> mOldRows;
+        private final List<ForecastRow> mNewRows;
+
+        DiffCallback(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOldRows = oldRows;
+            mNewRows = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldRows.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewRows.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).isSameDay(mNewRows.get(newItemPosition));
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldRows.get(oldItemPosition).equals(mNewRows.get(newItemPosition));
+        }
+    }
+}
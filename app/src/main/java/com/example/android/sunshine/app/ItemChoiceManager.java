@@ -26,8 +26,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  It observes the
+ * adapter: item range notifications move the checked positions along with their items, and a
+ * whole data set change is reconciled through the adapter's stable IDs.
  */
 public class ItemChoiceManager {
     /**
@@ -57,6 +58,25 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        // A changed item keeps its position and ID, so onItemRangeChanged has nothing to do
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            offsetCheckedPositions(positionStart, Integer.MAX_VALUE, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            uncheckPositions(positionStart, positionStart + itemCount);
+            offsetCheckedPositions(positionStart + itemCount, Integer.MAX_VALUE, -itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            // RecyclerView only moves one item at a time
+            moveCheckedPosition(fromPosition, toPosition);
+        }
     };
 
     private ItemChoiceManager() {
@@ -64,6 +84,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        adapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     public void onClick(RecyclerView.ViewHolder vh) {
@@ -101,6 +122,11 @@ public class ItemChoiceManager {
             case AbsListView.CHOICE_MODE_MULTIPLE: {
                 boolean checked = mCheckStates.get(position, false);
                 mCheckStates.put(position, !checked);
+                if (checked) {
+                    mCheckedIdStates.delete(mAdapter.getItemId(position));
+                } else {
+                    mCheckedIdStates.put(mAdapter.getItemId(position), position);
+                }
                 // We directly call onBindViewHolder here because notifying that an item has
                 // changed on an item that has the focus causes it to lose focus, which makes
                 // keyboard navigation a bit annoying
@@ -154,7 +180,8 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < oldItemCount
+                    ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
@@ -180,6 +207,79 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Adds offset to every checked position in [start, end).  Like the other item range updates
+     * it only visits the checked positions, so following a partial update costs nothing for the
+     * items that aren't selected.
+     */
+    private void offsetCheckedPositions(int start, int end, int offset) {
+        SparseBooleanArray checkStates = new SparseBooleanArray(mCheckStates.size());
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = mCheckStates.keyAt(i);
+            if (position >= start && position < end) {
+                position += offset;
+            }
+            checkStates.put(position, mCheckStates.valueAt(i));
+        }
+        mCheckStates = checkStates;
+        for (int i = 0; i < mCheckedIdStates.size(); i++) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position >= start && position < end) {
+                mCheckedIdStates.setValueAt(i, position + offset);
+            }
+        }
+    }
+
+    /**
+     * Forgets the checked positions in [start, end), their items are gone.
+     */
+    private void uncheckPositions(int start, int end) {
+        // Backwards, so deleting doesn't shift the entries still to be visited
+        for (int i = mCheckStates.size() - 1; i >= 0; i--) {
+            int position = mCheckStates.keyAt(i);
+            if (position >= start && position < end) {
+                mCheckStates.delete(position);
+            }
+        }
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position >= start && position < end) {
+                mCheckedIdStates.removeAt(i);
+            }
+        }
+    }
+
+    private void moveCheckedPosition(int fromPosition, int toPosition) {
+        int stateIndex = mCheckStates.indexOfKey(fromPosition);
+        boolean hasState = stateIndex >= 0;
+        boolean state = hasState && mCheckStates.valueAt(stateIndex);
+        if (hasState) {
+            mCheckStates.delete(fromPosition);
+        }
+        // indexOfValue compares the boxed positions by identity
+        int idIndex = -1;
+        for (int i = 0; i < mCheckedIdStates.size(); i++) {
+            if (mCheckedIdStates.valueAt(i) == fromPosition) {
+                idIndex = i;
+                break;
+            }
+        }
+
+        // The items in between shift by one towards where the moved one came from
+        if (fromPosition < toPosition) {
+            offsetCheckedPositions(fromPosition + 1, toPosition + 1, -1);
+        } else {
+            offsetCheckedPositions(toPosition, fromPosition, 1);
+        }
+
+        if (hasState) {
+            mCheckStates.put(toPosition, state);
+        }
+        if (idIndex >= 0) {
+            mCheckedIdStates.setValueAt(idIndex, toPosition);
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
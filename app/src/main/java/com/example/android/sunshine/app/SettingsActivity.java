@@ -31,6 +31,7 @@ import android.widget.ImageView;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncRequestCoalescer;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
@@ -167,7 +168,8 @@ public class SettingsActivity extends PreferenceActivity
             }
 
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SunshineSyncAdapter.syncImmediately(this,
+                    SyncRequestCoalescer.REASON_LOCATION_CHANGED);
         } else if (key.equals(getString(R.string.pref_units_key))) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
@@ -178,6 +180,10 @@ public class SettingsActivity extends PreferenceActivity
         } else if (key.equals(getString(R.string.pref_art_pack_key))) {
             // art pack have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        } else if (key.equals(getString(R.string.pref_sync_all_locations_key))
+                && sharedPreferences.getBoolean(key, false)) {
+            // bring the saved locations up to date now rather than at the next periodic sync
+            SunshineSyncAdapter.syncAllLocations(this);
         }
     }
 
@@ -235,7 +241,8 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                SunshineSyncAdapter.syncImmediately(this,
+                        SyncRequestCoalescer.REASON_LOCATION_CHANGED);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
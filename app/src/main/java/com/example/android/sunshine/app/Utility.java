@@ -23,6 +23,7 @@ import android.preference.PreferenceManager;
 import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.common.WeatherConditions;
 
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -36,6 +37,84 @@ public class Utility {
     // We'll default our latlong to 0. Yay, "Earth!"
     public static float DEFAULT_LATLONG = 0F;
 
+    // Indexed by WeatherConditions.getCondition()
+    private static final int[] ICONS = new int[WeatherConditions.CONDITION_COUNT];
+    private static final int[] ARTS = new int[WeatherConditions.CONDITION_COUNT];
+    // Filled into the art pack's url format
+    private static final String[] ART_NAMES = new String[WeatherConditions.CONDITION_COUNT];
+    // For Muzei
+    private static final String[] IMAGE_URLS = new String[WeatherConditions.CONDITION_COUNT];
+    // Indexed by the condition id itself, 0 where there is no string
+    private static final int[] CONDITION_STRINGS = new int[WeatherConditions.ID_LIMIT];
+
+    static {
+        putCondition(WeatherConditions.CONDITION_NONE, -1, -1, null, null);
+        putCondition(WeatherConditions.CONDITION_STORM, R.drawable.ic_storm, R.drawable.art_storm,
+                "storm", "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg");
+        putCondition(WeatherConditions.CONDITION_LIGHT_RAIN, R.drawable.ic_light_rain, R.drawable.art_light_rain,
+                "light_rain", "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg");
+        putCondition(WeatherConditions.CONDITION_RAIN, R.drawable.ic_rain, R.drawable.art_rain,
+                "rain", "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg");
+        putCondition(WeatherConditions.CONDITION_SNOW, R.drawable.ic_snow, R.drawable.art_snow,
+                "snow", "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG");
+        putCondition(WeatherConditions.CONDITION_FOG, R.drawable.ic_fog, R.drawable.art_fog,
+                "fog", "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg");
+        putCondition(WeatherConditions.CONDITION_TORNADO, R.drawable.ic_storm, R.drawable.art_storm,
+                "storm", "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg");
+        putCondition(WeatherConditions.CONDITION_CLEAR, R.drawable.ic_clear, R.drawable.art_clear,
+                "clear", "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg");
+        putCondition(WeatherConditions.CONDITION_LIGHT_CLOUDS, R.drawable.ic_light_clouds, R.drawable.art_light_clouds,
+                "light_clouds", "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg");
+        putCondition(WeatherConditions.CONDITION_CLOUDS, R.drawable.ic_cloudy, R.drawable.art_clouds,
+                "clouds", "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg");
+
+        for (int id = 200; id <= 232; id++) {
+            CONDITION_STRINGS[id] = R.string.condition_2xx;
+        }
+        for (int id = 300; id <= 321; id++) {
+            CONDITION_STRINGS[id] = R.string.condition_3xx;
+        }
+        int[][] strings = {
+                {500, R.string.condition_500}, {501, R.string.condition_501},
+                {502, R.string.condition_502}, {503, R.string.condition_503},
+                {504, R.string.condition_504}, {511, R.string.condition_511},
+                {520, R.string.condition_520}, {531, R.string.condition_531},
+                {600, R.string.condition_600}, {601, R.string.condition_601},
+                {602, R.string.condition_602}, {611, R.string.condition_611},
+                {612, R.string.condition_612}, {615, R.string.condition_615},
+                {616, R.string.condition_616}, {620, R.string.condition_620},
+                {621, R.string.condition_621}, {622, R.string.condition_622},
+                {701, R.string.condition_701}, {711, R.string.condition_711},
+                {721, R.string.condition_721}, {731, R.string.condition_731},
+                {741, R.string.condition_741}, {751, R.string.condition_751},
+                {761, R.string.condition_761}, {762, R.string.condition_762},
+                {771, R.string.condition_771}, {781, R.string.condition_781},
+                {800, R.string.condition_800}, {801, R.string.condition_801},
+                {802, R.string.condition_802}, {803, R.string.condition_803},
+                {804, R.string.condition_804}, {900, R.string.condition_900},
+                {901, R.string.condition_901}, {902, R.string.condition_902},
+                {903, R.string.condition_903}, {904, R.string.condition_904},
+                {905, R.string.condition_905}, {906, R.string.condition_906},
+                {951, R.string.condition_951}, {952, R.string.condition_952},
+                {953, R.string.condition_953}, {954, R.string.condition_954},
+                {955, R.string.condition_955}, {956, R.string.condition_956},
+                {957, R.string.condition_957}, {958, R.string.condition_958},
+                {959, R.string.condition_959}, {960, R.string.condition_960},
+                {961, R.string.condition_961}, {962, R.string.condition_962}
+        };
+        for (int[] string : strings) {
+            CONDITION_STRINGS[string[0]] = string[1];
+        }
+    }
+
+    private static void putCondition(int condition, int icon, int art, String artName,
+                                     String imageUrl) {
+        ICONS[condition] = icon;
+        ARTS[condition] = art;
+        ART_NAMES[condition] = artName;
+        IMAGE_URLS[condition] = imageUrl;
+    }
+
     public static boolean isLocationLatLonAvailable(Context context) {
         SharedPreferences prefs
                 = PreferenceManager.getDefaultSharedPreferences(context);
@@ -232,32 +311,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.ic_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.ic_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.ic_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.ic_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.ic_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.ic_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.ic_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.ic_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.ic_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.ic_cloudy;
-        }
-        return -1;
+        return ICONS[WeatherConditions.getCondition(weatherId)];
     }
 
     /**
@@ -282,36 +336,14 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
+        String artName = ART_NAMES[WeatherConditions.getCondition(weatherId)];
+        if (artName == null) {
+            return null;
+        }
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
         String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
                 context.getString(R.string.pref_art_pack_sunshine));
-
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return String.format(Locale.US, formatArtUrl, "light_rain");
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId == 511) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return String.format(Locale.US, formatArtUrl, "rain");
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return String.format(Locale.US, formatArtUrl, "snow");
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return String.format(Locale.US, formatArtUrl, "fog");
-        } else if (weatherId == 761 || weatherId == 781) {
-            return String.format(Locale.US, formatArtUrl, "storm");
-        } else if (weatherId == 800) {
-            return String.format(Locale.US, formatArtUrl, "clear");
-        } else if (weatherId == 801) {
-            return String.format(Locale.US, formatArtUrl, "light_clouds");
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return String.format(Locale.US, formatArtUrl, "clouds");
-        }
-        return null;
+        return String.format(Locale.US, formatArtUrl, artName);
     }
 
     /**
@@ -322,32 +354,7 @@ public class Utility {
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
     public static int getArtResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.art_storm;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.art_light_rain;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.art_rain;
-        } else if (weatherId == 511) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.art_rain;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.art_snow;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.art_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.art_storm;
-        } else if (weatherId == 800) {
-            return R.drawable.art_clear;
-        } else if (weatherId == 801) {
-            return R.drawable.art_light_clouds;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.art_clouds;
-        }
-        return -1;
+        return ARTS[WeatherConditions.getCondition(weatherId)];
     }
 
     /**
@@ -359,172 +366,10 @@ public class Utility {
      * @return string for the weather condition. null if no relation is found.
      */
     public static String getStringForWeatherCondition(Context context, int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        int stringId;
-        if (weatherId >= 200 && weatherId <= 232) {
-            stringId = R.string.condition_2xx;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            stringId = R.string.condition_3xx;
-        } else switch (weatherId) {
-            case 500:
-                stringId = R.string.condition_500;
-                break;
-            case 501:
-                stringId = R.string.condition_501;
-                break;
-            case 502:
-                stringId = R.string.condition_502;
-                break;
-            case 503:
-                stringId = R.string.condition_503;
-                break;
-            case 504:
-                stringId = R.string.condition_504;
-                break;
-            case 511:
-                stringId = R.string.condition_511;
-                break;
-            case 520:
-                stringId = R.string.condition_520;
-                break;
-            case 531:
-                stringId = R.string.condition_531;
-                break;
-            case 600:
-                stringId = R.string.condition_600;
-                break;
-            case 601:
-                stringId = R.string.condition_601;
-                break;
-            case 602:
-                stringId = R.string.condition_602;
-                break;
-            case 611:
-                stringId = R.string.condition_611;
-                break;
-            case 612:
-                stringId = R.string.condition_612;
-                break;
-            case 615:
-                stringId = R.string.condition_615;
-                break;
-            case 616:
-                stringId = R.string.condition_616;
-                break;
-            case 620:
-                stringId = R.string.condition_620;
-                break;
-            case 621:
-                stringId = R.string.condition_621;
-                break;
-            case 622:
-                stringId = R.string.condition_622;
-                break;
-            case 701:
-                stringId = R.string.condition_701;
-                break;
-            case 711:
-                stringId = R.string.condition_711;
-                break;
-            case 721:
-                stringId = R.string.condition_721;
-                break;
-            case 731:
-                stringId = R.string.condition_731;
-                break;
-            case 741:
-                stringId = R.string.condition_741;
-                break;
-            case 751:
-                stringId = R.string.condition_751;
-                break;
-            case 761:
-                stringId = R.string.condition_761;
-                break;
-            case 762:
-                stringId = R.string.condition_762;
-                break;
-            case 771:
-                stringId = R.string.condition_771;
-                break;
-            case 781:
-                stringId = R.string.condition_781;
-                break;
-            case 800:
-                stringId = R.string.condition_800;
-                break;
-            case 801:
-                stringId = R.string.condition_801;
-                break;
-            case 802:
-                stringId = R.string.condition_802;
-                break;
-            case 803:
-                stringId = R.string.condition_803;
-                break;
-            case 804:
-                stringId = R.string.condition_804;
-                break;
-            case 900:
-                stringId = R.string.condition_900;
-                break;
-            case 901:
-                stringId = R.string.condition_901;
-                break;
-            case 902:
-                stringId = R.string.condition_902;
-                break;
-            case 903:
-                stringId = R.string.condition_903;
-                break;
-            case 904:
-                stringId = R.string.condition_904;
-                break;
-            case 905:
-                stringId = R.string.condition_905;
-                break;
-            case 906:
-                stringId = R.string.condition_906;
-                break;
-            case 951:
-                stringId = R.string.condition_951;
-                break;
-            case 952:
-                stringId = R.string.condition_952;
-                break;
-            case 953:
-                stringId = R.string.condition_953;
-                break;
-            case 954:
-                stringId = R.string.condition_954;
-                break;
-            case 955:
-                stringId = R.string.condition_955;
-                break;
-            case 956:
-                stringId = R.string.condition_956;
-                break;
-            case 957:
-                stringId = R.string.condition_957;
-                break;
-            case 958:
-                stringId = R.string.condition_958;
-                break;
-            case 959:
-                stringId = R.string.condition_959;
-                break;
-            case 960:
-                stringId = R.string.condition_960;
-                break;
-            case 961:
-                stringId = R.string.condition_961;
-                break;
-            case 962:
-                stringId = R.string.condition_962;
-                break;
-            default:
-                return context.getString(R.string.condition_unknown, weatherId);
+        int stringId = weatherId >= 0 && weatherId < WeatherConditions.ID_LIMIT
+                ? CONDITION_STRINGS[weatherId] : 0;
+        if (stringId == 0) {
+            return context.getString(R.string.condition_unknown, weatherId);
         }
         return context.getString(stringId);
     }
@@ -537,32 +382,7 @@ public class Utility {
      * @return A string URL to an appropriate image or null if no mapping is found
      */
     public static String getImageUrlForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg";
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg";
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId == 511) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg";
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG";
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg";
-        } else if (weatherId == 761 || weatherId == 781) {
-            return "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
-        } else if (weatherId == 800) {
-            return "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg";
-        } else if (weatherId == 801) {
-            return "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg";
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg";
-        }
-        return null;
+        return IMAGE_URLS[WeatherConditions.getCondition(weatherId)];
     }
 
     /**
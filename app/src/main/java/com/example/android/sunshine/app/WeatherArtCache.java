@@ -0,0 +1,224 @@
+package com.example.android.sunshine.app;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Weather art bitmaps for the places that need a Bitmap rather than an ImageView: the forecast
+ * notification, the GCM alert and the detail widget.
+ * <p>
+ * There are only about a dozen arts, but each caller used to load its art again every time, the
+ * widget even at its original size.  Here every art is decoded once at the size it's drawn at and
+ * kept in one process-wide LRU cache, bounded by bytes.  Local arts are subsampled while decoding
+ * and then scaled to fit, like Glide's fitCenter does for the remote ones.
+ * <p>
+ * Loading can block on the network, so the getters must not be called on the main thread.  The
+ * bitmaps are shared: callers must neither modify nor recycle them.
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final LruCache<String, Bitmap> mCache;
+
+    WeatherArtCache(Context context, int maxBytes) {
+        mContext = context;
+        mCache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return getByteCount(value);
+            }
+        };
+    }
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            // A small share of the heap, the arts are drawn small
+            int maxBytes = (int) Math.min(Runtime.getRuntime().maxMemory() / 32, MAX_CACHE_BYTES);
+            sInstance = new WeatherArtCache(context.getApplicationContext(), maxBytes);
+        }
+        return sInstance;
+    }
+
+    static int getByteCount(Bitmap bitmap) {
+        // getByteCount() is API 12
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * The art for a weather condition from the selected art pack, falling back to the local art
+     * if the remote one can't be loaded.
+     *
+     * @return the art, or null if the condition has none
+     */
+    public Bitmap getArt(int weatherId, int width, int height) {
+        if (!Utility.usingLocalGraphics(mContext)) {
+            Bitmap art = getRemoteArt(weatherId, width, height);
+            if (art != null) {
+                return art;
+            }
+        }
+        return getArtForResource(Utility.getArtResourceForWeatherCondition(weatherId),
+                width, height);
+    }
+
+    /**
+     * The art for a weather condition from the selected remote art pack.
+     *
+     * @return the art, or null if it couldn't be loaded
+     */
+    public Bitmap getRemoteArt(int weatherId, int width, int height) {
+        String artUrl = Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        if (artUrl == null) {
+            return null;
+        }
+        // The url names the art, so the conditions sharing an art share the entry
+        String key = artUrl + '@' + width + 'x' + height;
+        Bitmap art = mCache.get(key);
+        if (art == null) {
+            try {
+                art = Glide.with(mContext)
+                        .load(artUrl)
+                        .asBitmap()
+                        .fitCenter()
+                        .into(width, height).get();
+            } catch (InterruptedException | ExecutionException e) {
+                // Not cached, so the next caller tries again
+                Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+                return null;
+            }
+            mCache.put(key, art);
+        }
+        return art;
+    }
+
+    /**
+     * A local art or icon resource, decoded to fit in width x height.
+     *
+     * @return the art, or null if artResourceId is -1
+     */
+    public Bitmap getArtForResource(int artResourceId, int width, int height) {
+        if (artResourceId == -1) {
+            return null;
+        }
+        String key = Integer.toString(artResourceId) + '@' + width + 'x' + height;
+        Bitmap art = mCache.get(key);
+        if (art == null) {
+            art = decodeResource(mContext.getResources(), artResourceId, width, height);
+            if (art != null) {
+                mCache.put(key, art);
+            }
+        }
+        return art;
+    }
+
+    /**
+     * The art for a weather condition at the size of a notification's large icon.
+     */
+    public Bitmap getNotificationArt(int weatherId) {
+        Resources resources = mContext.getResources();
+        return getArt(weatherId, getLargeIconWidth(resources), getLargeIconHeight(resources));
+    }
+
+    /**
+     * A local art resource at the size of a notification's large icon.
+     */
+    public Bitmap getNotificationArtForResource(int artResourceId) {
+        Resources resources = mContext.getResources();
+        return getArtForResource(artResourceId, getLargeIconWidth(resources),
+                getLargeIconHeight(resources));
+    }
+
+    // On Honeycomb and higher devices, we can retrieve the size of the large icon
+    // Prior to that, we use a fixed size
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconWidth(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    @SuppressLint("InlinedApi")
+    private static int getLargeIconHeight(Resources resources) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+    }
+
+    static Bitmap decodeResource(Resources resources, int resourceId, int width, int height) {
+        // Without density scaling, so the bounds are the pixels actually decoded
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inScaled = false;
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resourceId, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+        // The largest power of two that still leaves the image at least as big as needed
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeResource(resources, resourceId, options);
+        if (decoded == null) {
+            return null;
+        }
+        float scale = Math.min((float) width / decoded.getWidth(),
+                (float) height / decoded.getHeight());
+        if (scale >= 1) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded,
+                Math.max(1, Math.round(decoded.getWidth() * scale)),
+                Math.max(1, Math.round(decoded.getHeight() * scale)), true);
+        if (scaled != decoded) {
+            decoded.recycle();
+        }
+        return scaled;
+    }
+
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /**
+     * @return the bytes held by the cached bitmaps
+     */
+    public int getSize() {
+        return mCache.size();
+    }
+
+    public int getMaxSize() {
+        return mCache.maxSize();
+    }
+
+    public void evictAll() {
+        mCache.evictAll();
+    }
+
+    @Override
+    public String toString() {
+        return "WeatherArtCache[" + mCache.size() + "/" + mCache.maxSize() + " bytes, hits="
+                + mCache.hitCount() + ", misses=" + mCache.missCount() + "]";
+    }
+}
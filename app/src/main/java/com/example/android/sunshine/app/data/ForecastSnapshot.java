@@ -0,0 +1,300 @@
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * An immutable, in-memory copy of one location's forecast from a start date on, one primitive
+ * array per column of the weather/location join.
+ * <p>
+ * After a sync the forecast list, the detail pane, both widgets, Muzei and the notification all
+ * ask WeatherProvider for the same "today onward" rows of the preferred location.  The first of
+ * those queries loads a snapshot and publishes it process-wide, the others are answered from it
+ * without touching SQLite.
+ * <p>
+ * Every committed provider write {@link #invalidate() invalidates} the snapshots by bumping a
+ * generation counter.  A snapshot remembers the generation it was read at and is only served
+ * while that is still the current one, so one loaded while a write was committing is never
+ * served, however the publish and the invalidation interleave.
+ */
+final class ForecastSnapshot {
+    // The join's columns, in the order they're loaded
+    private static final String[] COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_LOC_KEY,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+    private static final int COL_WEATHER_ID = 0;
+    private static final int COL_LOC_KEY = 1;
+    private static final int COL_DATE = 2;
+    private static final int COL_SHORT_DESC = 3;
+    private static final int COL_WEATHER_CONDITION_ID = 4;
+    private static final int COL_MIN_TEMP = 5;
+    private static final int COL_MAX_TEMP = 6;
+    private static final int COL_HUMIDITY = 7;
+    private static final int COL_PRESSURE = 8;
+    private static final int COL_WIND_SPEED = 9;
+    private static final int COL_DEGREES = 10;
+    private static final int COL_LOCATION_SETTING = 11;
+    private static final int COL_CITY_NAME = 12;
+    private static final int COL_COORD_LAT = 13;
+    private static final int COL_COORD_LONG = 14;
+    private static final String SORT_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private static final AtomicLong sGeneration = new AtomicLong();
+    private static final AtomicReference<ForecastSnapshot> sCurrent = new AtomicReference<>();
+    private static final AtomicLong sHitCount = new AtomicLong();
+    private static final AtomicLong sMissCount = new AtomicLong();
+
+    final long generation;
+    final String locationSetting;
+    final long startDate;
+    private final long[] mIds;
+    private final long[] mDates;
+    private final String[] mShortDescs;
+    private final int[] mWeatherIds;
+    private final double[] mMinTemps;
+    private final double[] mMaxTemps;
+    private final double[] mHumidities;
+    private final double[] mPressures;
+    private final double[] mWindSpeeds;
+    private final double[] mDegrees;
+    private final long mLocationId;
+    private final String mCityName;
+    private final double mCoordLat;
+    private final double mCoordLong;
+
+    private ForecastSnapshot(long generation, String locationSetting, long startDate,
+                             Cursor cursor) {
+        this.generation = generation;
+        this.locationSetting = locationSetting;
+        this.startDate = startDate;
+        int count = cursor.getCount();
+        mIds = new long[count];
+        mDates = new long[count];
+        mShortDescs = new String[count];
+        mWeatherIds = new int[count];
+        mMinTemps = new double[count];
+        mMaxTemps = new double[count];
+        mHumidities = new double[count];
+        mPressures = new double[count];
+        mWindSpeeds = new double[count];
+        mDegrees = new double[count];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            mIds[i] = cursor.getLong(COL_WEATHER_ID);
+            mDates[i] = cursor.getLong(COL_DATE);
+            mShortDescs[i] = cursor.getString(COL_SHORT_DESC);
+            mWeatherIds[i] = cursor.getInt(COL_WEATHER_CONDITION_ID);
+            mMinTemps[i] = cursor.getDouble(COL_MIN_TEMP);
+            mMaxTemps[i] = cursor.getDouble(COL_MAX_TEMP);
+            mHumidities[i] = cursor.getDouble(COL_HUMIDITY);
+            mPressures[i] = cursor.getDouble(COL_PRESSURE);
+            mWindSpeeds[i] = cursor.getDouble(COL_WIND_SPEED);
+            mDegrees[i] = cursor.getDouble(COL_DEGREES);
+        }
+        // The location columns are the same on every row
+        if (cursor.moveToFirst()) {
+            mLocationId = cursor.getLong(COL_LOC_KEY);
+            mCityName = cursor.getString(COL_CITY_NAME);
+            mCoordLat = cursor.getDouble(COL_COORD_LAT);
+            mCoordLong = cursor.getDouble(COL_COORD_LONG);
+        } else {
+            mLocationId = 0;
+            mCityName = null;
+            mCoordLat = 0;
+            mCoordLong = 0;
+        }
+    }
+
+    /**
+     * Reads the location's forecast from the start date on.  Call it outside of any write
+     * transaction, and {@link #publish(ForecastSnapshot)} the result.
+     */
+    static ForecastSnapshot load(SQLiteDatabase db, String locationSetting, long startDate) {
+        // Taken before reading, so a write committed during the read makes the snapshot stale
+        long generation = sGeneration.get();
+        Cursor cursor = WeatherProvider.sWeatherByLocationSettingQueryBuilder.query(db,
+                COLUMNS,
+                WeatherProvider.sLocationSettingWithStartDateSelection,
+                new String[]{locationSetting, Long.toString(startDate)},
+                null,
+                null,
+                SORT_ORDER);
+        try {
+            return new ForecastSnapshot(generation, locationSetting, startDate, cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    static void publish(ForecastSnapshot snapshot) {
+        sCurrent.set(snapshot);
+    }
+
+    /**
+     * @return the current snapshot if it holds the location from {@code date} on, or null.
+     */
+    static ForecastSnapshot get(String locationSetting, long date) {
+        ForecastSnapshot snapshot = sCurrent.get();
+        if (snapshot != null && snapshot.generation == sGeneration.get()
+                && snapshot.startDate <= date && snapshot.locationSetting.equals(locationSetting)) {
+            sHitCount.incrementAndGet();
+            return snapshot;
+        }
+        sMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Makes every snapshot loaded so far stale.  Called after each committed write.
+     */
+    static void invalidate() {
+        sGeneration.incrementAndGet();
+        sCurrent.set(null);
+    }
+
+    static long getHitCount() {
+        return sHitCount.get();
+    }
+
+    static long getMissCount() {
+        return sMissCount.get();
+    }
+
+    static void resetCounters() {
+        sHitCount.set(0);
+        sMissCount.set(0);
+    }
+
+    private static int getColumn(String name) {
+        // Accept the qualified names the join needs for ambiguous columns
+        if (name.equals(LocationEntry.TABLE_NAME + "." + LocationEntry._ID)) {
+            return COL_LOC_KEY;
+        }
+        int dot = name.indexOf('.');
+        if (dot >= 0 && !name.startsWith(WeatherEntry.TABLE_NAME + ".")
+                && !name.startsWith(LocationEntry.TABLE_NAME + ".")) {
+            return -1;
+        }
+        String column = name.substring(dot + 1);
+        if (column.equals(WeatherEntry._ID)) {
+            return COL_WEATHER_ID;
+        }
+        for (int i = 1; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether a query with this projection and sort order gets the same cursor from a
+     * snapshot as from SQLite.
+     */
+    static boolean canServe(String[] projection, String sortOrder) {
+        if (projection == null) {
+            // SQLite would return both tables' columns, _id twice
+            return false;
+        }
+        for (String column : projection) {
+            if (getColumn(column) == -1) {
+                return false;
+            }
+        }
+        if (sortOrder == null) {
+            return true;
+        }
+        String order = sortOrder.trim().toLowerCase();
+        if (order.startsWith(WeatherEntry.TABLE_NAME + ".")) {
+            order = order.substring(WeatherEntry.TABLE_NAME.length() + 1);
+        }
+        return order.equals(WeatherEntry.COLUMN_DATE) || order.equals(SORT_ORDER.toLowerCase());
+    }
+
+    /**
+     * Builds the cursor the join would return for the snapshot's location.  The projection must
+     * pass {@link #canServe(String[], String)}.
+     *
+     * @param date      the first day to return
+     * @param singleDay whether to return only that day
+     */
+    Cursor query(String[] projection, long date, boolean singleDay) {
+        int[] columns = new int[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            columns[i] = getColumn(projection[i]);
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, singleDay ? 1 : mDates.length);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < mDates.length; i++) {
+            if (mDates[i] < date || (singleDay && mDates[i] != date)) {
+                continue;
+            }
+            for (int j = 0; j < columns.length; j++) {
+                row[j] = getValue(columns[j], i);
+            }
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    private Object getValue(int column, int i) {
+        switch (column) {
+            case COL_WEATHER_ID:
+                return mIds[i];
+            case COL_LOC_KEY:
+                return mLocationId;
+            case COL_DATE:
+                return mDates[i];
+            case COL_SHORT_DESC:
+                return mShortDescs[i];
+            case COL_WEATHER_CONDITION_ID:
+                return mWeatherIds[i];
+            case COL_MIN_TEMP:
+                return mMinTemps[i];
+            case COL_MAX_TEMP:
+                return mMaxTemps[i];
+            case COL_HUMIDITY:
+                return mHumidities[i];
+            case COL_PRESSURE:
+                return mPressures[i];
+            case COL_WIND_SPEED:
+                return mWindSpeeds[i];
+            case COL_DEGREES:
+                return mDegrees[i];
+            case COL_LOCATION_SETTING:
+                return locationSetting;
+            case COL_CITY_NAME:
+                return mCityName;
+            case COL_COORD_LAT:
+                return mCoordLat;
+            case COL_COORD_LONG:
+                return mCoordLong;
+            default:
+                throw new IllegalArgumentException("Unknown column " + column);
+        }
+    }
+
+    int getCount() {
+        return mDates.length;
+    }
+}
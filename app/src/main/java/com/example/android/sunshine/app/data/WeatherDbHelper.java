@@ -15,9 +15,11 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -28,11 +30,82 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     static final String DATABASE_NAME = "weather.db";
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version, and add a
+    // Migration to MIGRATIONS that makes the same change to an existing database.
+    static final int DATABASE_VERSION = 3;
+    // The oldest version the migrations can carry forward.  Anything older is rebuilt.
+    static final int MIN_MIGRATABLE_VERSION = 2;
+    // Matches the file system block size on current devices, and has to be set before the
+    // first table is created
+    static final int PAGE_SIZE = 4096;
+
+    // Serves the weather/location join: rows of one location, in date order, from a start date.
+    // The UNIQUE (date, location_id) constraint's index has the columns the other way around,
+    // so it can't narrow a query down to one location.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX IF NOT EXISTS " + WEATHER_LOCATION_DATE_INDEX + " ON " +
+                    WeatherEntry.TABLE_NAME + " (" + WeatherEntry.COLUMN_LOC_KEY + ", " +
+                    WeatherEntry.COLUMN_DATE + ");";
+
+    /*
+        The schema changes since MIN_MIGRATABLE_VERSION, in order.  Each step takes a database at
+        toVersion - 1 to toVersion in place, so the cached forecast survives app updates.
+     */
+    static final Migration[] MIGRATIONS = {
+            new Migration(3) {
+                @Override
+                void apply(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
+    private final boolean mWriteAheadLogging;
 
     public WeatherDbHelper(Context context) {
+        this(context, true);
+    }
+
+    /**
+     * @param writeAheadLogging whether to open the database in WAL mode, which lets the widgets,
+     *                          the Muzei source and the forecast loaders keep reading while a sync
+     *                          writes.  Only turned off to measure what that buys.
+     */
+    WeatherDbHelper(Context context, boolean writeAheadLogging) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        // Only called from Jelly Bean on, older releases keep their default page size.  The page
+        // size of a new database is fixed by its first write, so this goes before the switch to
+        // WAL, which writes the header.
+        db.execSQL("PRAGMA page_size = " + PAGE_SIZE);
+        if (mWriteAheadLogging) {
+            // Also gives the database a pool of read connections
+            db.enableWriteAheadLogging();
+        } else {
+            db.disableWriteAheadLogging();
+        }
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (!mWriteAheadLogging || db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        // In WAL mode a commit that only reaches the log can't corrupt the database, at worst the
+        // last sync is lost on power failure and fetched again, so skip the fsync on every commit
+        db.execSQL("PRAGMA synchronous = NORMAL");
     }
 
     @Override
@@ -80,18 +153,42 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
-        // Note that this only fires if you change the version number for your database.
-        // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < MIN_MIGRATABLE_VERSION) {
+            // Databases from before in-place upgrades are only a cache for online data, so
+            // discard the data and start over
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+
+        // SQLiteOpenHelper already runs this in a transaction, so a failing step leaves the
+        // database at oldVersion
+        for (Migration migration : MIGRATIONS) {
+            if (migration.toVersion > oldVersion && migration.toVersion <= newVersion) {
+                migration.apply(sqLiteDatabase);
+            }
+        }
+    }
+
+    /**
+     * One step of the schema history.
+     */
+    abstract static class Migration {
+        final int toVersion;
+
+        Migration(int toVersion) {
+            this.toVersion = toVersion;
+        }
+
+        /**
+         * Changes a database at version {@code toVersion - 1} into one at {@code toVersion}.
+         */
+        abstract void apply(SQLiteDatabase db);
     }
 }
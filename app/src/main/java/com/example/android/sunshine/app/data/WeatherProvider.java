@@ -17,12 +17,19 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.support.v4.os.TraceCompat;
+import android.util.Log;
+
+import java.util.ArrayList;
 
 public class WeatherProvider extends ContentProvider {
 
@@ -30,20 +37,21 @@ public class WeatherProvider extends ContentProvider {
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -62,6 +70,15 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.LocationEntry._ID);
     }
 
+    // The batch being applied on the calling thread, if any
+    private static final ThreadLocal<Batch> sBatch = new ThreadLocal<>();
+    // Time the calling thread has spent in delete, see getDeleteNanos()
+    private static final ThreadLocal<long[]> sDeleteNanos = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
     private WeatherDbHelper mOpenHelper;
 
     /*
@@ -129,6 +146,37 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /*
+        Answers weather/<location>?date= and weather/<location>/<date> from the ForecastSnapshot when it holds the
+        location from that date on.  A start date query that misses loads and publishes a new
+        snapshot, so the next consumer after a sync hits.  Returns null when SQLite has to
+        answer.
+     */
+    private Cursor getWeatherFromSnapshot(
+            Uri uri, String[] projection, String sortOrder, boolean singleDay) {
+        // Inside a batch the database may hold rows that are never committed
+        if (sBatch.get() != null || !ForecastSnapshot.canServe(projection, sortOrder)) {
+            return null;
+        }
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long date = singleDay ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        if (date == 0) {
+            // The whole history, which the snapshot doesn't keep
+            return null;
+        }
+        ForecastSnapshot snapshot = ForecastSnapshot.get(locationSetting, date);
+        if (snapshot == null) {
+            if (singleDay) {
+                return null;
+            }
+            snapshot = ForecastSnapshot.load(mOpenHelper.getReadableDatabase(), locationSetting,
+                    date);
+            ForecastSnapshot.publish(snapshot);
+        }
+        return snapshot.query(projection, date, singleDay);
+    }
+
     /*
         Students: We've coded this for you.  We just create a new WeatherDbHelper for later use
         here.
@@ -174,12 +222,18 @@ public class WeatherProvider extends ContentProvider {
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE: {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                retCursor = getWeatherFromSnapshot(uri, projection, sortOrder, true);
+                if (retCursor == null) {
+                    retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                }
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = getWeatherFromSnapshot(uri, projection, sortOrder, false);
+                if (retCursor == null) {
+                    retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                }
                 break;
             }
             // "weather"
@@ -228,6 +282,19 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER: {
                 normalizeDate(values);
+                Batch batch = sBatch.get();
+                if (batch != null) {
+                    // Inside applyBatch, weather rows are upserted like in bulkInsert
+                    WeatherUpsert upsert = batch.getUpsert(db);
+                    int result = upsert.upsert(values);
+                    if (result == WeatherUpsert.RESULT_FAILED)
+                        throw new android.database.SQLException("Failed to insert row into " + uri);
+                    returnUri = WeatherContract.WeatherEntry.buildWeatherUri(upsert.getLastRowId());
+                    if (result == WeatherUpsert.RESULT_UNCHANGED) {
+                        return returnUri;
+                    }
+                    break;
+                }
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if (_id > 0)
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
@@ -246,7 +313,7 @@ public class WeatherProvider extends ContentProvider {
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
@@ -257,25 +324,41 @@ public class WeatherProvider extends ContentProvider {
         int rowsDeleted;
         // this makes delete all rows return the number of rows deleted
         if (null == selection) selection = "1";
-        switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
-                break;
-            default:
-                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        TraceCompat.beginSection("WeatherProvider.delete");
+        long start = System.nanoTime();
+        try {
+            switch (match) {
+                case WEATHER:
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                case LOCATION:
+                    rowsDeleted = db.delete(
+                            WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                default:
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+            }
+        } finally {
+            sDeleteNanos.get()[0] += System.nanoTime() - start;
+            TraceCompat.endSection();
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
+    /**
+     * @return how long the calling thread has spent deleting rows, in nanoseconds.  A caller in
+     * this process can tell how much of an applyBatch went to its deletes by reading it before
+     * and after.
+     */
+    public static long getDeleteNanos() {
+        return sDeleteNanos.get()[0];
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -305,7 +388,7 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
@@ -316,34 +399,129 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                // Rows already stored for a location and day are updated in place, and left
+                // alone when nothing changed, instead of being deleted and re-inserted
+                Batch batch = sBatch.get();
+                WeatherUpsert upsert = batch != null ? batch.getUpsert(db) : new WeatherUpsert(db);
+                int changedBefore = upsert.getChangedCount();
+                int failedBefore = upsert.getFailedCount();
                 db.beginTransaction();
-                int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
                         normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                        upsert.upsert(value);
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    if (batch == null) {
+                        upsert.close();
+                    }
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                Log.d(LOG_TAG, "bulkInsert: " + upsert);
+                if (upsert.getChangedCount() > changedBefore) {
+                    notifyChange(uri);
+                }
+                // Unchanged rows were accepted too, only failed ones are left out of the count
+                return values.length - (upsert.getFailedCount() - failedBefore);
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /*
+        Runs the whole batch in one transaction, so a sync that writes several locations either
+        lands completely or not at all, and pays for a single journal commit.  Observers hear
+        about the batch once, after it has been committed, however many operations it held.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (sBatch.get() != null) {
+            // Nested batches simply become part of the outer one
+            return super.applyBatch(operations);
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch();
+        ContentProviderResult[] results;
+        sBatch.set(batch);
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            sBatch.remove();
+            batch.close();
+            db.endTransaction();
+        }
+        Uri uri = batch.getNotificationUri();
+        if (uri != null) {
+            ForecastSnapshot.invalidate();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    /*
+        Tells observers about a change right away, or after the current batch has committed when
+        called from within applyBatch.  Either way the change is committed by the time the
+        forecast snapshot is invalidated.
+     */
+    private void notifyChange(Uri uri) {
+        Batch batch = sBatch.get();
+        if (batch != null) {
+            batch.addChangedUri(uri);
+        } else {
+            ForecastSnapshot.invalidate();
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
     @Override
     @TargetApi(11)
     public void shutdown() {
+        ForecastSnapshot.invalidate();
         mOpenHelper.close();
         super.shutdown();
     }
-}
\ No newline at end of file
+
+    /*
+        Per-thread state of an applyBatch call: the upsert shared by its weather inserts and the
+        uris whose observers must hear about the batch.
+     */
+    private static class Batch {
+        private Uri mNotificationUri;
+        private WeatherUpsert mUpsert;
+
+        WeatherUpsert getUpsert(SQLiteDatabase db) {
+            if (mUpsert == null) {
+                mUpsert = new WeatherUpsert(db);
+            }
+            return mUpsert;
+        }
+
+        void addChangedUri(Uri uri) {
+            if (mNotificationUri == null || mNotificationUri.equals(uri)) {
+                mNotificationUri = uri;
+            } else {
+                // Observers of every table hang off the base uri, so one notification there
+                // reaches all of them
+                mNotificationUri = WeatherContract.BASE_CONTENT_URI;
+            }
+        }
+
+        Uri getNotificationUri() {
+            return mNotificationUri;
+        }
+
+        void close() {
+            if (mUpsert != null) {
+                Log.d(LOG_TAG, "applyBatch: " + mUpsert);
+                mUpsert.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes weather rows keyed by (location, date) without going through the table's
+ * ON CONFLICT REPLACE clause, which deletes the old row and inserts a new one with a fresh _ID.
+ * <p>
+ * SQLite's INSERT ... ON CONFLICT DO UPDATE only exists from 3.24 (Android 11), so each row is
+ * first offered to an UPDATE that only matches when some value actually differs.  If that
+ * touches nothing, a lookup tells an unchanged row apart from a missing one, and only missing
+ * rows are inserted.  The statements are compiled once per set of columns and reused for every
+ * row, so the caller should hold a transaction and {@link #close()} the upsert afterwards.
+ */
+class WeatherUpsert {
+    static final int RESULT_FAILED = -1;
+    static final int RESULT_UNCHANGED = 0;
+    static final int RESULT_UPDATED = 1;
+    static final int RESULT_INSERTED = 2;
+    private static final String LOG_TAG = WeatherUpsert.class.getSimpleName();
+
+    private final SQLiteDatabase mDb;
+    private final Map<String, Statements> mStatements = new HashMap<>();
+    private SQLiteStatement mSelectId;
+    private SQLiteStatement mChanges;
+    private int mInsertedCount;
+    private int mUpdatedCount;
+    private int mUnchangedCount;
+    private int mFailedCount;
+    private long mLastLocationId;
+    private long mLastDate;
+    private long mLastRowId;
+
+    WeatherUpsert(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    private static void bind(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Number) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    /**
+     * Writes one row.  The values must already hold a normalized date.
+     *
+     * @return one of the RESULT_* constants
+     */
+    int upsert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        mLastRowId = -1;
+        if (locationId == null || date == null) {
+            // Without the key there's nothing to match against, let the constraints decide
+            mLastRowId = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+            if (mLastRowId == -1) {
+                mFailedCount++;
+                return RESULT_FAILED;
+            }
+            mInsertedCount++;
+            return RESULT_INSERTED;
+        }
+        mLastLocationId = locationId;
+        mLastDate = date;
+
+        Statements statements = getStatements(values);
+        String[] columns = statements.columns;
+        if (columns.length > 0) {
+            SQLiteStatement update = statements.update;
+            for (int i = 0; i < columns.length; i++) {
+                Object value = values.get(columns[i]);
+                // SET column = ? ... AND (column IS NOT ? OR ...)
+                bind(update, i + 1, value);
+                bind(update, columns.length + 3 + i, value);
+            }
+            update.bindLong(columns.length + 1, locationId);
+            update.bindLong(columns.length + 2, date);
+            try {
+                if (executeUpdate(update) > 0) {
+                    mUpdatedCount++;
+                    return RESULT_UPDATED;
+                }
+            } catch (SQLException e) {
+                // Same as SQLiteDatabase.insert: a row breaking a constraint is just not written
+                Log.e(LOG_TAG, "Error updating " + values, e);
+                mFailedCount++;
+                return RESULT_FAILED;
+            }
+        }
+
+        mLastRowId = selectId(locationId, date);
+        if (mLastRowId != -1) {
+            mUnchangedCount++;
+            return RESULT_UNCHANGED;
+        }
+
+        SQLiteStatement insert = statements.insert;
+        for (int i = 0; i < columns.length; i++) {
+            bind(insert, i + 1, values.get(columns[i]));
+        }
+        insert.bindLong(columns.length + 1, locationId);
+        insert.bindLong(columns.length + 2, date);
+        try {
+            mLastRowId = insert.executeInsert();
+            if (mLastRowId == -1) {
+                mFailedCount++;
+                return RESULT_FAILED;
+            }
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            mFailedCount++;
+            return RESULT_FAILED;
+        }
+        mInsertedCount++;
+        return RESULT_INSERTED;
+    }
+
+    /**
+     * @return the _ID of the row written by the last successful {@link #upsert(ContentValues)}.
+     */
+    long getLastRowId() {
+        if (mLastRowId == -1) {
+            // Updates don't report the row they touched, so look it up only when asked
+            mLastRowId = selectId(mLastLocationId, mLastDate);
+        }
+        return mLastRowId;
+    }
+
+    private long selectId(long locationId, long date) {
+        if (mSelectId == null) {
+            mSelectId = mDb.compileStatement("SELECT " + WeatherEntry._ID +
+                    " FROM " + WeatherEntry.TABLE_NAME +
+                    " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherEntry.COLUMN_DATE + " = ?");
+        }
+        mSelectId.bindLong(1, locationId);
+        mSelectId.bindLong(2, date);
+        try {
+            return mSelectId.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No row for this location and day yet
+            return -1;
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private long executeUpdate(SQLiteStatement update) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return update.executeUpdateDelete();
+        }
+        update.execute();
+        if (mChanges == null) {
+            mChanges = mDb.compileStatement("SELECT changes()");
+        }
+        return mChanges.simpleQueryForLong();
+    }
+
+    private Statements getStatements(ContentValues values) {
+        String[] columns = new String[values.size()];
+        int count = 0;
+        for (Map.Entry<String, Object> entry : values.valueSet()) {
+            String column = entry.getKey();
+            if (!column.equals(WeatherEntry.COLUMN_LOC_KEY)
+                    && !column.equals(WeatherEntry.COLUMN_DATE)) {
+                columns[count++] = column;
+            }
+        }
+        columns = Arrays.copyOf(columns, count);
+        Arrays.sort(columns);
+        String key = Arrays.toString(columns);
+
+        Statements statements = mStatements.get(key);
+        if (statements == null) {
+            statements = new Statements(mDb, columns);
+            mStatements.put(key, statements);
+        }
+        return statements;
+    }
+
+    int getInsertedCount() {
+        return mInsertedCount;
+    }
+
+    int getUpdatedCount() {
+        return mUpdatedCount;
+    }
+
+    int getUnchangedCount() {
+        return mUnchangedCount;
+    }
+
+    int getFailedCount() {
+        return mFailedCount;
+    }
+
+    /**
+     * @return the number of rows that were inserted or actually modified.
+     */
+    int getChangedCount() {
+        return mInsertedCount + mUpdatedCount;
+    }
+
+    void close() {
+        for (Statements statements : mStatements.values()) {
+            statements.close();
+        }
+        mStatements.clear();
+        if (mSelectId != null) {
+            mSelectId.close();
+            mSelectId = null;
+        }
+        if (mChanges != null) {
+            mChanges.close();
+            mChanges = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mInsertedCount + " inserted, " + mUpdatedCount + " updated, " +
+                mUnchangedCount + " unchanged, " + mFailedCount + " failed";
+    }
+
+    /*
+        The compiled statements for one set of value columns, bound in this order:
+        UPDATE: the values, location, date, then the values again for the change check.
+        INSERT: the values, location, date.
+     */
+    private static class Statements {
+        final String[] columns;
+        final SQLiteStatement update;
+        final SQLiteStatement insert;
+
+        Statements(SQLiteDatabase db, String[] columns) {
+            this.columns = columns;
+
+            StringBuilder set = new StringBuilder();
+            StringBuilder changed = new StringBuilder();
+            StringBuilder insertColumns = new StringBuilder();
+            StringBuilder insertValues = new StringBuilder();
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    set.append(", ");
+                    changed.append(" OR ");
+                }
+                set.append(columns[i]).append(" = ?");
+                changed.append(columns[i]).append(" IS NOT ?");
+                insertColumns.append(columns[i]).append(", ");
+                insertValues.append("?, ");
+            }
+            insertColumns.append(WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                    .append(WeatherEntry.COLUMN_DATE);
+            insertValues.append("?, ?");
+
+            update = columns.length == 0 ? null : db.compileStatement(
+                    "UPDATE " + WeatherEntry.TABLE_NAME + " SET " + set +
+                            " WHERE " + WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                            WeatherEntry.COLUMN_DATE + " = ? AND (" + changed + ")");
+            insert = db.compileStatement(
+                    "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" + insertColumns + ")" +
+                            " VALUES (" + insertValues + ")");
+        }
+
+        void close() {
+            if (update != null) {
+                update.close();
+            }
+            insert.close();
+        }
+    }
+}
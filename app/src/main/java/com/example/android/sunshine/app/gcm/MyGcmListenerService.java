@@ -21,7 +21,6 @@ import android.app.PendingIntent;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
 import android.support.v4.app.NotificationCompat;
 import android.util.Log;
@@ -29,6 +28,7 @@ import android.widget.Toast;
 
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.google.android.gms.gcm.GcmListenerService;
 
 import org.json.JSONException;
@@ -93,7 +93,9 @@ public class MyGcmListenerService extends GcmListenerService {
         // icon as a bitmap. So we need to create that here from the resource ID, and pass the
         // object along in our notification builder. Generally, you want to use the app icon as the
         // small icon, so that users understand what app is triggering this notification.
-        Bitmap largeIcon = BitmapFactory.decodeResource(this.getResources(), R.drawable.art_storm);
+        // The cache decodes it once, at the large icon size.
+        Bitmap largeIcon = WeatherArtCache.getInstance(this)
+                .getNotificationArtForResource(R.drawable.art_storm);
         NotificationCompat.Builder mBuilder =
                 new NotificationCompat.Builder(this)
                         .setSmallIcon(R.drawable.art_clear)
@@ -0,0 +1,74 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers the first day of the forecast the widgets, the wearable and the notification were
+ * last told about, so a sync can compare the new first day with what they show rather than
+ * with the stored row of the same date.  At midnight those differ: the new today is
+ * yesterday's second day, whose row may well not have changed.
+ * <p>
+ * Only the preferred location is announced, so one day is kept, along with its location.
+ */
+class AnnouncedToday {
+    private static final String PREFS_NAME = "announced_today";
+    private static final String KEY_LOCATION = "location";
+    // Values are stored by column, numbers as the bits of a double and the rest as strings
+    private static final String KEY_NUMBER = "number:";
+    private static final String KEY_STRING = "string:";
+
+    private final SharedPreferences mPrefs;
+
+    AnnouncedToday(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    AnnouncedToday(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * @return the {@link SyncChangeSet#COLUMNS} of the day last announced for the location, or
+     * null if the last announcement was for another location or there was none
+     */
+    ContentValues get(String locationSetting) {
+        if (!locationSetting.equals(mPrefs.getString(KEY_LOCATION, null))) {
+            return null;
+        }
+        ContentValues today = new ContentValues();
+        for (String column : SyncChangeSet.COLUMNS) {
+            if (mPrefs.contains(KEY_NUMBER + column)) {
+                today.put(column, Double.longBitsToDouble(mPrefs.getLong(KEY_NUMBER + column, 0)));
+            } else if (mPrefs.contains(KEY_STRING + column)) {
+                today.put(column, mPrefs.getString(KEY_STRING + column, null));
+            } else {
+                today.putNull(column);
+            }
+        }
+        return today;
+    }
+
+    /**
+     * Records the first day of the location's forecast once the consumers have been told.
+     */
+    void put(String locationSetting, ContentValues today) {
+        SharedPreferences.Editor editor = mPrefs.edit().clear()
+                .putString(KEY_LOCATION, locationSetting);
+        for (String column : SyncChangeSet.COLUMNS) {
+            Object value = today.get(column);
+            if (value instanceof Number) {
+                editor.putLong(KEY_NUMBER + column,
+                        Double.doubleToLongBits(((Number) value).doubleValue()));
+            } else if (value != null) {
+                editor.putString(KEY_STRING + column, value.toString());
+            }
+        }
+        editor.commit();
+    }
+
+    void clear() {
+        mPrefs.edit().clear().commit();
+    }
+}
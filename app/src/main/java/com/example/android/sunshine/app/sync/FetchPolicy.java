@@ -0,0 +1,285 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.SyncResult;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Decides how hard a sync tries to reach OpenWeatherMap.
+ * <p>
+ * A request that fails with a 5xx, a timeout or a dropped connection is tried up to
+ * {@link #MAX_ATTEMPTS} times, waiting an exponentially growing delay with random jitter in
+ * between, so devices that lost the server at the same moment don't all come back at the same
+ * moment.  Any other answer is handed back at once, since asking again would get the same one.
+ * <p>
+ * Each endpoint also has a circuit breaker.  After {@link #FAILURES_TO_OPEN} failed attempts in
+ * a row it opens, and requests to the endpoint fail fast with a {@link CircuitOpenException}
+ * for {@link #OPEN_MILLIS}, however often a sync is asked for.  Then a single request is let
+ * through: the breaker closes if it gets an answer and opens again if it doesn't.  A host name
+ * that doesn't resolve isn't held against the server, as it usually means the device is offline.
+ */
+public class FetchPolicy {
+    static final int MAX_ATTEMPTS = 3;
+    static final long BASE_BACKOFF_MILLIS = 2 * 1000;
+    static final long MAX_BACKOFF_MILLIS = 30 * 1000;
+    static final int FAILURES_TO_OPEN = 5;
+    static final long OPEN_MILLIS = 15 * 60 * 1000;
+
+    private static final String LOG_TAG = FetchPolicy.class.getSimpleName();
+
+    private static FetchPolicy sInstance;
+
+    private final long mBaseBackoffMillis;
+    private final long mOpenMillis;
+    private final int mReadTimeoutMillis;
+    private final Random mRandom;
+    private final Map<String, CircuitBreaker> mBreakers = new HashMap<>();
+
+    FetchPolicy(long baseBackoffMillis, long openMillis, int readTimeoutMillis, Random random) {
+        mBaseBackoffMillis = baseBackoffMillis;
+        mOpenMillis = openMillis;
+        mReadTimeoutMillis = readTimeoutMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @return the policy shared by every sync in the process, so they agree on which endpoints
+     * are down.
+     */
+    public static synchronized FetchPolicy getInstance() {
+        if (sInstance == null) {
+            sInstance = new FetchPolicy(BASE_BACKOFF_MILLIS, OPEN_MILLIS,
+                    ForecastTransport.READ_TIMEOUT_MILLIS, new Random());
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param attempt the attempt about to be made, 1 for the first retry
+     * @return how long to wait before it: half of the exponential delay plus a random share of
+     * the other half, capped at {@link #MAX_BACKOFF_MILLIS}
+     */
+    static long getBackoffMillis(int attempt, long baseBackoffMillis, Random random) {
+        long backoff = Math.min(MAX_BACKOFF_MILLIS, baseBackoffMillis << Math.min(attempt - 1, 16));
+        long half = backoff / 2;
+        return half + (long) (random.nextDouble() * (backoff - half));
+    }
+
+    /**
+     * @return true if trying the same request again might get a different result
+     */
+    static boolean isRetryable(IOException e) {
+        if (isOffline(e)) {
+            return false;
+        }
+        // A read timeout is worth another go, an interrupted thread is being told to stop
+        return !(e instanceof InterruptedIOException) || e instanceof SocketTimeoutException;
+    }
+
+    /**
+     * @return true if the fetch failed because the device has no connection, rather than because
+     * of anything the server did
+     */
+    public static boolean isOffline(IOException e) {
+        // Without a network the name of the server doesn't resolve
+        return e instanceof UnknownHostException;
+    }
+
+    private synchronized CircuitBreaker getBreaker(String endpoint) {
+        CircuitBreaker breaker = mBreakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(FAILURES_TO_OPEN, mOpenMillis);
+            mBreakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    /**
+     * Opens a request for the url, with the validators stored for the location, and waits for
+     * the response headers, retrying as described above.  Must not be called on the UI thread.
+     * <p>
+     * Each attempt is added to the cancellation, so canceling the sync disconnects it; the
+     * caller removes the returned request when it is done with it.
+     *
+     * @param httpCache the validators to send, or null for none
+     * @return the connected request, whose response code is below 500; the caller disconnects it
+     * @throws CircuitOpenException if the endpoint's breaker is open
+     * @throws ServerErrorException if the last attempt was answered with a 5xx
+     * @throws SyncCancellation.CanceledException if the sync was canceled
+     */
+    public HttpURLConnection connect(URL url, ForecastHttpCache httpCache, String locationSetting,
+                                     SyncCancellation cancellation) throws IOException {
+        String endpoint = url.getAuthority();
+        CircuitBreaker breaker = getBreaker(endpoint);
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                // Returns as soon as the sync is canceled, instead of after up to 30 seconds
+                cancellation.sleep(getBackoffMillis(attempt, mBaseBackoffMillis, mRandom));
+            }
+            cancellation.throwIfCanceled();
+            long now = SystemClock.elapsedRealtime();
+            if (!breaker.allowRequest(now)) {
+                throw new CircuitOpenException(endpoint, breaker.getRetryAfterMillis(now), failure);
+            }
+
+            HttpURLConnection connection = ForecastTransport.open(url);
+            connection.setReadTimeout(mReadTimeoutMillis);
+            cancellation.addConnection(connection);
+            boolean connected = false;
+            try {
+                if (httpCache != null) {
+                    httpCache.applyValidators(connection, locationSetting);
+                }
+                connection.connect();
+                int responseCode = connection.getResponseCode();
+                if (responseCode >= HttpURLConnection.HTTP_INTERNAL_ERROR) {
+                    throw new ServerErrorException(responseCode);
+                }
+                breaker.onSuccess();
+                connected = true;
+                return connection;
+            } catch (IOException e) {
+                if (cancellation.isCanceled()) {
+                    // The request was disconnected under us, which says nothing about the server
+                    breaker.onAbandoned();
+                    throw new SyncCancellation.CanceledException();
+                }
+                if (!isRetryable(e)) {
+                    breaker.onAbandoned();
+                    throw e;
+                }
+                breaker.onFailure(SystemClock.elapsedRealtime());
+                Log.w(LOG_TAG, "Attempt " + (attempt + 1) + " to reach " + endpoint
+                        + " failed: " + e);
+                failure = e;
+            } finally {
+                if (!connected) {
+                    cancellation.removeConnection(connection);
+                    connection.disconnect();
+                }
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Reports a failed fetch to the sync framework.  It is counted as an I/O error, which the
+     * framework retries with its own backoff, and when the endpoint's breaker is open the
+     * account's syncs are held back until it lets a request through again.
+     *
+     * @param now the current time in millis since the epoch
+     */
+    public static void recordFailure(SyncResult syncResult, IOException e, long now) {
+        syncResult.stats.numIoExceptions++;
+        if (e instanceof CircuitOpenException) {
+            // In seconds since the epoch
+            long delayUntil = (now + ((CircuitOpenException) e).retryAfterMillis) / 1000;
+            syncResult.delayUntil = Math.max(syncResult.delayUntil, delayUntil);
+        }
+    }
+
+    /**
+     * Counts the failed attempts to one endpoint.  Times are from
+     * {@link SystemClock#elapsedRealtime()}, so changing the clock doesn't open or close it.
+     */
+    static class CircuitBreaker {
+        private final int mFailuresToOpen;
+        private final long mOpenMillis;
+        private int mFailures;
+        private long mOpenUntil;
+        private boolean mProbing;
+
+        CircuitBreaker(int failuresToOpen, long openMillis) {
+            mFailuresToOpen = failuresToOpen;
+            mOpenMillis = openMillis;
+        }
+
+        /**
+         * @return true if a request may be made now; once the open period is over only one
+         * request at a time is let through until it is known how it went
+         */
+        synchronized boolean allowRequest(long now) {
+            if (mFailures < mFailuresToOpen) {
+                return true;
+            }
+            if (now < mOpenUntil || mProbing) {
+                return false;
+            }
+            mProbing = true;
+            return true;
+        }
+
+        synchronized boolean isOpen() {
+            return mFailures >= mFailuresToOpen;
+        }
+
+        /**
+         * @return how long until a request is let through again, 0 if it would be now
+         */
+        synchronized long getRetryAfterMillis(long now) {
+            if (!isOpen()) {
+                return 0;
+            }
+            // A request that is already through will have decided within a period
+            return mProbing ? mOpenMillis : Math.max(0, mOpenUntil - now);
+        }
+
+        synchronized void onSuccess() {
+            mFailures = 0;
+            mProbing = false;
+        }
+
+        synchronized void onFailure(long now) {
+            mFailures++;
+            if (mFailures >= mFailuresToOpen) {
+                mOpenUntil = now + mOpenMillis;
+                mProbing = false;
+            }
+        }
+
+        /**
+         * Records a request that ended without telling anything about the endpoint.
+         */
+        synchronized void onAbandoned() {
+            mProbing = false;
+        }
+    }
+
+    /**
+     * Thrown instead of making a request while the endpoint's circuit breaker is open.
+     */
+    public static class CircuitOpenException extends IOException {
+        public final long retryAfterMillis;
+
+        CircuitOpenException(String endpoint, long retryAfterMillis, IOException lastFailure) {
+            super("Not contacting " + endpoint + " for another " + retryAfterMillis + "ms");
+            this.retryAfterMillis = retryAfterMillis;
+            if (lastFailure != null) {
+                initCause(lastFailure);
+            }
+        }
+    }
+
+    /**
+     * Thrown when the last attempt was answered with a 5xx.
+     */
+    public static class ServerErrorException extends IOException {
+        public final int responseCode;
+
+        ServerErrorException(int responseCode) {
+            super("HTTP " + responseCode);
+            this.responseCode = responseCode;
+        }
+    }
+}
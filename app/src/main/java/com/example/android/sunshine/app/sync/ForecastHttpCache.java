@@ -0,0 +1,133 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.net.HttpURLConnection;
+import java.util.Locale;
+
+/**
+ * Remembers the HTTP cache validators (ETag, Last-Modified and Cache-Control max-age) of the last
+ * forecast response for each location setting, so that periodic syncs can revalidate with a
+ * conditional request instead of downloading an unchanged forecast again.
+ * <p>
+ * Validators are only reused for the exact URL they were received for; changing the units, the
+ * number of days or the lat/lon of a location setting starts over with a full download.
+ */
+public class ForecastHttpCache {
+    static final String HEADER_ETAG = "ETag";
+    static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    private static final String PREFS_NAME = "forecast_http_cache";
+    private static final String KEY_URL = "url:";
+    private static final String KEY_ETAG = "etag:";
+    private static final String KEY_LAST_MODIFIED = "last_modified:";
+    private static final String KEY_EXPIRES = "expires:";
+
+    private final SharedPreferences mPrefs;
+
+    public ForecastHttpCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Extracts the max-age directive of a Cache-Control header.
+     *
+     * @param cacheControl the header value, may be null
+     * @return max-age in seconds, 0 if the response must not be reused without revalidation,
+     * or -1 if the header doesn't say
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        long maxAge = -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.US);
+            if (directive.equals("no-cache") || directive.equals("no-store")) {
+                return 0;
+            }
+            if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Long.parseLong(directive.substring("max-age=".length()).trim());
+                } catch (NumberFormatException e) {
+                    maxAge = 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    /**
+     * @return true if the last response for this location was received for the same url and
+     * is still within its max-age, so the network doesn't need to be asked at all.
+     */
+    public boolean isFresh(String locationSetting, String url, long now) {
+        return url.equals(mPrefs.getString(KEY_URL + locationSetting, null))
+                && now < mPrefs.getLong(KEY_EXPIRES + locationSetting, 0);
+    }
+
+    /**
+     * Adds If-None-Match / If-Modified-Since to a request that has not been connected yet.
+     */
+    public void applyValidators(HttpURLConnection connection, String locationSetting) {
+        String url = connection.getURL().toString();
+        if (!url.equals(mPrefs.getString(KEY_URL + locationSetting, null))) {
+            return;
+        }
+        String etag = mPrefs.getString(KEY_ETAG + locationSetting, null);
+        if (etag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, etag);
+        }
+        long lastModified = mPrefs.getLong(KEY_LAST_MODIFIED + locationSetting, 0);
+        if (lastModified > 0) {
+            connection.setIfModifiedSince(lastModified);
+        }
+    }
+
+    /**
+     * Records the validators of a 200 or 304 response, from headers captured before the
+     * connection was closed.  Call this only once the response has been handled, so a failed
+     * write never leaves behind validators for data we don't have.
+     *
+     * @param lastModified the Last-Modified time in millis, or 0 if the response had none
+     */
+    public void storeValidators(String locationSetting, String url, String etag,
+                                long lastModified, String cacheControl, long now) {
+        boolean sameUrl = url.equals(mPrefs.getString(KEY_URL + locationSetting, null));
+
+        // A 304 is allowed to leave out validators that haven't changed, so keep the old ones
+        if (etag == null && sameUrl) {
+            etag = mPrefs.getString(KEY_ETAG + locationSetting, null);
+        }
+        if (lastModified == 0 && sameUrl) {
+            lastModified = mPrefs.getLong(KEY_LAST_MODIFIED + locationSetting, 0);
+        }
+        long maxAge = parseMaxAge(cacheControl);
+        // Nothing to remember about a location we knew nothing of, so spare the commit
+        if (etag == null && lastModified == 0 && maxAge <= 0
+                && !mPrefs.contains(KEY_URL + locationSetting)) {
+            return;
+        }
+
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putString(KEY_URL + locationSetting, url)
+                .putString(KEY_ETAG + locationSetting, etag)
+                .putLong(KEY_LAST_MODIFIED + locationSetting, lastModified)
+                .putLong(KEY_EXPIRES + locationSetting, maxAge > 0 ? now + maxAge * 1000 : 0);
+        editor.commit();
+    }
+
+    /**
+     * Forgets everything about a location, forcing the next sync to download the full forecast.
+     */
+    public void clear(String locationSetting) {
+        mPrefs.edit()
+                .remove(KEY_URL + locationSetting)
+                .remove(KEY_ETAG + locationSetting)
+                .remove(KEY_LAST_MODIFIED + locationSetting)
+                .remove(KEY_EXPIRES + locationSetting)
+                .commit();
+    }
+}
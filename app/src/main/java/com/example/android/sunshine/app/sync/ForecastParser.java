@@ -0,0 +1,356 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.os.Build;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes an OpenWeatherMap daily forecast response into rows for the weather table.
+ * <p>
+ * {@link #parse(Reader)} pulls tokens straight off the response stream, so the sync never
+ * holds the raw payload and a JSON object tree at the same time.  {@link #parse(String)} is the
+ * original org.json path, kept for devices without {@link JsonReader} (pre-Honeycomb).
+ */
+public class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // Every column a parsed day must carry before it can be written to the weather table.
+    private static final String[] REQUIRED_DAY_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private ForecastParser() {
+    }
+
+    /**
+     * Streams the forecast out of the given reader.  The reader is consumed but not closed.
+     *
+     * @param in reader positioned at the start of the response body
+     * @return the decoded forecast
+     * @throws IOException   if the underlying stream fails
+     * @throws JSONException if the response is not a well formed forecast
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public static Forecast parse(Reader in) throws IOException, JSONException {
+        Forecast forecast = new Forecast();
+        DayClock clock = new DayClock();
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name)) {
+                    forecast.messageCode = reader.nextInt();
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader, forecast);
+                } else if (OWM_LIST.equals(name)) {
+                    forecast.hasList = true;
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        forecast.weatherValues.add(
+                                readDay(reader, clock.dateFor(forecast.weatherValues.size())));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException e) {
+            throw asJsonException(e);
+        } catch (IllegalStateException e) {
+            // JsonReader signals an unexpected token type this way
+            throw asJsonException(e);
+        } catch (NumberFormatException e) {
+            throw asJsonException(e);
+        }
+        forecast.validate();
+        return forecast;
+    }
+
+    /**
+     * Decodes a forecast that has already been read into memory, using org.json.
+     *
+     * @param forecastJsonStr the complete response body
+     * @return the decoded forecast
+     * @throws JSONException if the response is not a well formed forecast
+     */
+    public static Forecast parse(String forecastJsonStr) throws JSONException {
+        Forecast forecast = new Forecast();
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            forecast.messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (forecast.messageCode != HttpURLConnection.HTTP_OK) {
+                return forecast;
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        forecast.hasList = true;
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        DayClock clock = new DayClock();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, clock.dateFor(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    dayForecast.getDouble(OWM_PRESSURE));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    dayForecast.getInt(OWM_HUMIDITY));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    dayForecast.getDouble(OWM_WINDSPEED));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    dayForecast.getDouble(OWM_WIND_DIRECTION));
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject =
+                    dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    weatherObject.getString(OWM_DESCRIPTION));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    weatherObject.getInt(OWM_WEATHER_ID));
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                    temperatureObject.getDouble(OWM_MAX));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    temperatureObject.getDouble(OWM_MIN));
+
+            forecast.weatherValues.add(weatherValues);
+        }
+        return forecast;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Forecast forecast) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                forecast.cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        forecast.cityLatitude = reader.nextDouble();
+                        forecast.hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        forecast.cityLongitude = reader.nextDouble();
+                        forecast.hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ContentValues readDay(JsonReader reader, long dateTime)
+            throws IOException, JSONException {
+        ContentValues weatherValues = new ContentValues();
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, reader.nextDouble());
+            } else if (OWM_HUMIDITY.equals(name)) {
+                // org.json's getInt truncates fractional values, so do the same here
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                        (int) reader.nextDouble());
+            } else if (OWM_WINDSPEED.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, reader.nextDouble());
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, reader.nextDouble());
+            } else if (OWM_WEATHER.equals(name)) {
+                // Only the first element of the "weather" array describes the day
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    readWeather(reader, weatherValues);
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                reader.nextDouble());
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                reader.nextDouble());
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        for (String column : REQUIRED_DAY_COLUMNS) {
+            if (!weatherValues.containsKey(column)) {
+                throw new JSONException("Forecast day is missing " + column);
+            }
+        }
+        return weatherValues;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readWeather(JsonReader reader, ContentValues weatherValues)
+            throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_DESCRIPTION.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                        reader.nextString());
+            } else if (OWM_WEATHER_ID.equals(name)) {
+                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, reader.nextInt());
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    private static JSONException asJsonException(Exception e) {
+        JSONException jsonException = new JSONException(e.getMessage());
+        jsonException.initCause(e);
+        return jsonException;
+    }
+
+    /**
+     * OWM returns daily forecasts based upon the local time of the city that is being asked for,
+     * which means that we need to know the GMT offset to translate this data properly.
+     * <p>
+     * Since this data is also sent in-order and the first day is always the current day, we
+     * take advantage of that to get a nice normalized UTC date for all of our weather.
+     */
+    static class DayClock {
+        private final int mJulianStartDay;
+        private final Time mDayTime;
+
+        DayClock() {
+            Time dayTime = new Time();
+            dayTime.setToNow();
+
+            // we start at the day returned by local time. Otherwise this is a mess.
+            mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+            // now we work exclusively in UTC
+            mDayTime = new Time();
+        }
+
+        long dateFor(int dayIndex) {
+            // Cheating to convert this to UTC time, which is what we want anyhow
+            return mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+        }
+    }
+
+    /**
+     * The decoded response.  Rows in {@link #weatherValues} carry every weather column except
+     * {@link WeatherContract.WeatherEntry#COLUMN_LOC_KEY}, which is only known once the city has
+     * been stored.
+     */
+    public static class Forecast {
+        public final List<ContentValues> weatherValues = new ArrayList<ContentValues>();
+        public int messageCode = HttpURLConnection.HTTP_OK;
+        public String cityName;
+        public double cityLatitude;
+        public double cityLongitude;
+        boolean hasList;
+        boolean hasLatitude;
+        boolean hasLongitude;
+
+        void validate() throws JSONException {
+            // Error responses carry nothing but the message code, which the caller handles
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                return;
+            }
+            if (!hasList) {
+                throw new JSONException("No value for " + OWM_LIST);
+            }
+            if (cityName == null || !hasLatitude || !hasLongitude) {
+                throw new JSONException("Incomplete value for " + OWM_CITY);
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.android.sunshine.app.sync;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Where a sync gets its forecasts from: it names the request for a location and turns the
+ * answer into weather rows ready to be written.
+ * <p>
+ * The sync adapter and {@link MultiLocationSync} only deal with the decoded rows, so they work
+ * the same against {@link OpenWeatherMapSource} and against {@link LocalForecastSource}, which
+ * makes up forecasts in-process for load tests that must not depend on the network.
+ * Implementations are called from several sync threads at once.
+ */
+public interface ForecastSource {
+
+    /**
+     * Names the request for a location.  The url also keys the HTTP cache validators, so it
+     * must change whenever the forecast it asks for would.
+     *
+     * @param locationSetting the location string, used when no lat/lon is given
+     * @param latitude        the latitude to ask for instead of the location string, or null
+     * @param longitude       the longitude to ask for instead of the location string, or null
+     */
+    URL getForecastUrl(String locationSetting, String latitude, String longitude)
+            throws MalformedURLException;
+
+    /**
+     * Fetches and decodes the forecast.  Must not be called on the UI thread.
+     *
+     * @param url             the url from {@link #getForecastUrl(String, String, String)}
+     * @param locationSetting the location the forecast is for
+     * @param httpCache       the validators to send along, or null to ask unconditionally
+     * @param cancellation    stops the fetch when the sync is canceled
+     * @throws IOException   if the forecast couldn't be fetched
+     * @throws JSONException if the answer is not a well formed forecast
+     */
+    Response fetch(URL url, String locationSetting, ForecastHttpCache httpCache,
+                   SyncCancellation cancellation) throws IOException, JSONException;
+
+    /**
+     * What a source answered.  The cache validators are only kept once the forecast has been
+     * stored, see {@link ForecastHttpCache#storeValidators}.
+     */
+    class Response {
+        /**
+         * The decoded forecast, or null if it was not modified.  An error answer carries its
+         * message code and no rows.
+         */
+        public ForecastParser.Forecast forecast;
+        public boolean notModified;
+        String etag;
+        long lastModified;
+        String cacheControl;
+    }
+}
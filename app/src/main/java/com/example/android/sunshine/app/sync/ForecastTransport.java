@@ -0,0 +1,152 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opens the connections used to fetch forecasts from OpenWeatherMap.
+ * <p>
+ * Requests ask for a gzip or deflate encoded body and carry connect and read timeouts, so a
+ * stalled radio can't hold the sync thread forever.  Response bodies are decoded as a stream and
+ * always read as UTF-8, which is what OpenWeatherMap sends regardless of the device's default
+ * charset.  Setting Accept-Encoding ourselves turns off the platform's transparent gzip
+ * handling, so every body must be read through {@link #openReader(HttpURLConnection)}.
+ */
+public class ForecastTransport {
+    static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    static final int READ_TIMEOUT_MILLIS = 20 * 1000;
+    static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    static final String ENCODING_GZIP = "gzip";
+    static final String ENCODING_DEFLATE = "deflate";
+
+    private static final String CHARSET = "UTF-8";
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final AtomicLong sCompressedBytes = new AtomicLong();
+    private static final AtomicLong sDecompressedBytes = new AtomicLong();
+
+    private ForecastTransport() {
+    }
+
+    /**
+     * @return a GET request for the url that negotiates compression, not yet connected.
+     */
+    public static HttpURLConnection open(URL url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("GET");
+        connection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        connection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        connection.setRequestProperty(HEADER_ACCEPT_ENCODING, ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+        return connection;
+    }
+
+    /**
+     * Wraps the response body of a connected request in a UTF-8 reader, decoding it according to
+     * its Content-Encoding.
+     *
+     * @return the reader, or null if the connection has no body
+     */
+    public static Reader openReader(HttpURLConnection connection) throws IOException {
+        InputStream inputStream = connection.getInputStream();
+        if (inputStream == null) {
+            return null;
+        }
+        InputStream body = new CountingInputStream(inputStream, sCompressedBytes);
+
+        String encoding = connection.getContentEncoding();
+        if (encoding != null) {
+            encoding = encoding.trim().toLowerCase(Locale.US);
+        }
+        if (ENCODING_GZIP.equals(encoding) || "x-gzip".equals(encoding)) {
+            body = new GZIPInputStream(body, BUFFER_SIZE);
+        } else if (ENCODING_DEFLATE.equals(encoding)) {
+            body = openDeflate(body);
+        }
+        return new InputStreamReader(new CountingInputStream(body, sDecompressedBytes), CHARSET);
+    }
+
+    /**
+     * HTTP's "deflate" is supposed to be zlib wrapped, but some servers send raw deflate data.
+     * Peek at the first two bytes to tell them apart.
+     */
+    private static InputStream openDeflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int first = pushback.read();
+        int second = first == -1 ? -1 : pushback.read();
+        if (second != -1) {
+            pushback.unread(second);
+        }
+        if (first != -1) {
+            pushback.unread(first);
+        }
+        boolean zlibWrapped = first != -1 && second != -1
+                && (first & 0x0F) == 8 && ((first << 8) | second) % 31 == 0;
+        return new InflaterInputStream(pushback, new Inflater(!zlibWrapped), BUFFER_SIZE);
+    }
+
+    /**
+     * @return the number of body bytes received over the network since the last reset.
+     */
+    public static long getCompressedBytes() {
+        return sCompressedBytes.get();
+    }
+
+    /**
+     * @return the number of body bytes handed to the parser since the last reset.
+     */
+    public static long getDecompressedBytes() {
+        return sDecompressedBytes.get();
+    }
+
+    static void resetCounters() {
+        sCompressedBytes.set(0);
+        sDecompressedBytes.set(0);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong mCounter;
+
+        CountingInputStream(InputStream in, AtomicLong counter) {
+            super(in);
+            mCounter = counter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                mCounter.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                mCounter.addAndGet(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long count) throws IOException {
+            long skipped = super.skip(count);
+            if (skipped > 0) {
+                mCounter.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Random;
+
+/**
+ * A stand-in for OpenWeatherMap that makes up forecasts in-process, without touching the
+ * network.
+ * <p>
+ * The forecast of a location depends only on the seed and the location setting, so a run over
+ * thousands of locations writes the same rows every time, and two sources with different seeds
+ * look like upstream publishing a new forecast.  An optional fixed latency stands in for the
+ * round trip.  There are no cache validators, so every fetch returns the full forecast.
+ */
+public class LocalForecastSource implements ForecastSource {
+    static final int DEFAULT_NUM_DAYS = 16;
+
+    // Reserved for names that must never resolve, should anything try to connect to it
+    private static final String BASE_URL = "http://forecast.invalid/daily?";
+    private static final int[] WEATHER_IDS = {800, 801, 802, 500, 501, 211, 600, 701, 804};
+    private static final String[] DESCRIPTIONS =
+            {"Clear", "Clouds", "Clouds", "Rain", "Rain", "Thunderstorm", "Snow", "Mist", "Clouds"};
+
+    private final int mNumDays;
+    private final long mSeed;
+    private final long mLatencyMillis;
+
+    public LocalForecastSource(long seed) {
+        this(DEFAULT_NUM_DAYS, seed, 0);
+    }
+
+    /**
+     * @param numDays       the number of days in every forecast, today included
+     * @param latencyMillis how long each fetch waits before answering
+     */
+    public LocalForecastSource(int numDays, long seed, long latencyMillis) {
+        mNumDays = numDays;
+        mSeed = seed;
+        mLatencyMillis = latencyMillis;
+    }
+
+    @Override
+    public URL getForecastUrl(String locationSetting, String latitude, String longitude)
+            throws MalformedURLException {
+        StringBuilder url = new StringBuilder(BASE_URL);
+        try {
+            if (latitude != null && longitude != null) {
+                url.append("lat=").append(URLEncoder.encode(latitude, "UTF-8"))
+                        .append("&lon=").append(URLEncoder.encode(longitude, "UTF-8"));
+            } else {
+                url.append("q=").append(URLEncoder.encode(locationSetting, "UTF-8"));
+            }
+        } catch (UnsupportedEncodingException e) {
+            // Every platform supports UTF-8
+            throw new AssertionError(e);
+        }
+        return new URL(url.append("&cnt=").append(mNumDays).append("&seed=").append(mSeed)
+                .toString());
+    }
+
+    @Override
+    public Response fetch(URL url, String locationSetting, ForecastHttpCache httpCache,
+                          SyncCancellation cancellation) throws IOException {
+        cancellation.throwIfCanceled();
+        if (mLatencyMillis > 0) {
+            long connectStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_CONNECT);
+            try {
+                Thread.sleep(mLatencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for " + locationSetting);
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_CONNECT, connectStart);
+            }
+            cancellation.throwIfCanceled();
+        }
+
+        Response response = new Response();
+        long parseStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_PARSE);
+        try {
+            response.forecast = createForecast(locationSetting);
+        } finally {
+            SyncMetrics.endPhase(SyncMetrics.PHASE_PARSE, parseStart);
+        }
+        return response;
+    }
+
+    /**
+     * @return the forecast of the location, the same for the same seed and location
+     */
+    ForecastParser.Forecast createForecast(String locationSetting) {
+        // String.hashCode is specified, so this doesn't change between runs or devices
+        Random random = new Random(mSeed * 31 + locationSetting.hashCode());
+        ForecastParser.Forecast forecast = new ForecastParser.Forecast();
+        forecast.cityName = locationSetting;
+        forecast.cityLatitude = random.nextDouble() * 180 - 90;
+        forecast.cityLongitude = random.nextDouble() * 360 - 180;
+
+        ForecastParser.DayClock clock = new ForecastParser.DayClock();
+        double high = 5 + random.nextDouble() * 25;
+        for (int i = 0; i < mNumDays; i++) {
+            int condition = random.nextInt(WEATHER_IDS.length);
+            high += random.nextDouble() * 6 - 3;
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, clock.dateFor(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+                    990 + random.nextDouble() * 40);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+                    20 + random.nextInt(80));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+                    random.nextDouble() * 15);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES,
+                    (double) random.nextInt(360));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                    DESCRIPTIONS[condition]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                    WEATHER_IDS[condition]);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                    high - 3 - random.nextDouble() * 10);
+            forecast.weatherValues.add(weatherValues);
+        }
+        return forecast;
+    }
+}
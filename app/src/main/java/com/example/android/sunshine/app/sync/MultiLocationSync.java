@@ -0,0 +1,378 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.os.RemoteException;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Refreshes the forecast of several locations in one sync.
+ * <p>
+ * Forecasts are fetched from a {@link ForecastSource} on a small thread pool, with a cap on how
+ * many requests may be in flight to the same host at once so a long list of saved cities doesn't
+ * hammer OpenWeatherMap.  Once every fetch has finished, all of the results are written with a
+ * single {@link android.content.ContentResolver#applyBatch}, which {@code WeatherProvider} runs
+ * in one transaction.  Announcing the new data is left to the caller, so it happens once per sync
+ * instead of once per location.
+ */
+public class MultiLocationSync {
+    static final int DEFAULT_MAX_THREADS = 4;
+    static final int DEFAULT_MAX_REQUESTS_PER_HOST = 2;
+    private static final String LOG_TAG = MultiLocationSync.class.getSimpleName();
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private final Context mContext;
+    private final ForecastHttpCache mHttpCache;
+    private final int mMaxThreads;
+    private final int mMaxRequestsPerHost;
+    private final ForecastSource mSource;
+    private final Map<String, Semaphore> mHostPermits = new HashMap<>();
+
+    public MultiLocationSync(Context context) {
+        this(context, new OpenWeatherMapSource());
+    }
+
+    public MultiLocationSync(Context context, ForecastSource source) {
+        this(context, source, DEFAULT_MAX_THREADS, DEFAULT_MAX_REQUESTS_PER_HOST);
+    }
+
+    MultiLocationSync(Context context, int maxThreads, int maxRequestsPerHost) {
+        this(context, new OpenWeatherMapSource(), maxThreads, maxRequestsPerHost);
+    }
+
+    MultiLocationSync(Context context, ForecastSource source, int maxThreads,
+                      int maxRequestsPerHost) {
+        mContext = context;
+        mHttpCache = new ForecastHttpCache(context);
+        mSource = source;
+        mMaxThreads = maxThreads;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    /**
+     * @return the preferred location followed by every other location setting stored in the
+     * location table, without duplicates.
+     */
+    public static List<String> getLocationSettings(Context context) {
+        List<String> locationSettings = new ArrayList<>();
+        locationSettings.add(Utility.getPreferredLocation(context));
+        Cursor cursor = context.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                String locationSetting = cursor.getString(0);
+                if (!locationSettings.contains(locationSetting)) {
+                    locationSettings.add(locationSetting);
+                }
+            }
+            cursor.close();
+        }
+        return locationSettings;
+    }
+
+    /**
+     * Fetches and stores the forecasts for all requests.  Must not be called on the UI thread.
+     *
+     * @return the outcome for each request, in the order they were given
+     * @throws SyncCancellation.CanceledException if the sync was canceled before anything was
+     *                                            written
+     */
+    public Result sync(List<Request> requests, SyncCancellation cancellation)
+            throws RemoteException, OperationApplicationException,
+            SyncCancellation.CanceledException {
+        long start = System.currentTimeMillis();
+        List<LocationResult> results = fetchAll(requests, cancellation);
+        cancellation.throwIfCanceled();
+
+        ArrayList<ContentProviderOperation> operations = buildOperations(results);
+        if (!operations.isEmpty()) {
+            long deleteNanos = WeatherProvider.getDeleteNanos();
+            long writeStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_WRITE);
+            try {
+                mContext.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+            } finally {
+                deleteNanos = WeatherProvider.getDeleteNanos() - deleteNanos;
+                SyncMetrics.endPhase(SyncMetrics.PHASE_WRITE, writeStart, deleteNanos);
+                SyncMetrics.record(SyncMetrics.PHASE_DELETE, deleteNanos);
+            }
+        }
+
+        // Validators are only kept for data that made it into the database
+        long now = System.currentTimeMillis();
+        int rowsWritten = 0;
+        for (LocationResult result : results) {
+            if (result.status == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                mHttpCache.storeValidators(result.locationSetting, result.url, result.etag,
+                        result.lastModified, result.cacheControl, now);
+            }
+            rowsWritten += result.rowsWritten;
+        }
+        return new Result(results, rowsWritten, System.currentTimeMillis() - start);
+    }
+
+    private List<LocationResult> fetchAll(List<Request> requests,
+                                          final SyncCancellation cancellation) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mMaxThreads, requests.size())));
+        try {
+            List<Future<LocationResult>> futures = new ArrayList<>(requests.size());
+            for (final Request request : requests) {
+                futures.add(executor.submit(new Callable<LocationResult>() {
+                    @Override
+                    public LocationResult call() throws Exception {
+                        return fetch(request, cancellation);
+                    }
+                }));
+            }
+
+            List<LocationResult> results = new ArrayList<>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                LocationResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    result = new LocationResult(requests.get(i),
+                            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error syncing " + requests.get(i).locationSetting, e);
+                    result = new LocationResult(requests.get(i),
+                            SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+                }
+                results.add(result);
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Semaphore getHostPermits(String host) {
+        synchronized (mHostPermits) {
+            Semaphore permits = mHostPermits.get(host);
+            if (permits == null) {
+                permits = new Semaphore(mMaxRequestsPerHost, true);
+                mHostPermits.put(host, permits);
+            }
+            return permits;
+        }
+    }
+
+    private LocationResult fetch(Request request, SyncCancellation cancellation)
+            throws InterruptedException {
+        LocationResult result = new LocationResult(request, SunshineSyncAdapter.LOCATION_STATUS_OK);
+        Semaphore permits = getHostPermits(request.url.getHost());
+        permits.acquire();
+        try {
+            // Retries hold on to the host's permit, so a struggling host isn't asked any harder
+            ForecastSource.Response response = mSource.fetch(
+                    request.url, request.locationSetting, mHttpCache, cancellation);
+            result.etag = response.etag;
+            result.lastModified = response.lastModified;
+            result.cacheControl = response.cacheControl;
+            if (response.notModified) {
+                result.notModified = true;
+                return result;
+            }
+
+            ForecastParser.Forecast forecast = response.forecast;
+            switch (forecast.messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    result.forecast = forecast;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + request.locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            result.error = e;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, "Error parsing " + request.locationSetting, e);
+            result.status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            permits.release();
+        }
+        return result;
+    }
+
+    /**
+     * Turns the fetched forecasts into one batch: a location row for cities we haven't seen
+     * before, the weather rows, and finally the trim of days that are in the past everywhere.
+     */
+    private ArrayList<ContentProviderOperation> buildOperations(List<LocationResult> results) {
+        Map<String, Long> locationIds = queryLocationIds();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        long oldestFirstDate = Long.MAX_VALUE;
+
+        for (LocationResult result : results) {
+            ForecastParser.Forecast forecast = result.forecast;
+            if (forecast == null || forecast.weatherValues.isEmpty()) {
+                continue;
+            }
+            Long locationId = locationIds.get(result.locationSetting);
+            int locationOperation = -1;
+            if (locationId == null) {
+                ContentValues locationValues = new ContentValues();
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, forecast.cityName);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        result.locationSetting);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, forecast.cityLatitude);
+                locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, forecast.cityLongitude);
+                locationOperation = operations.size();
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValues(locationValues)
+                        .build());
+            }
+
+            for (ContentValues weatherValues : forecast.weatherValues) {
+                ContentProviderOperation.Builder builder = ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues);
+                if (locationId != null) {
+                    builder.withValue(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                } else {
+                    builder.withValueBackReference(
+                            WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationOperation);
+                }
+                operations.add(builder.build());
+            }
+            result.rowsWritten = forecast.weatherValues.size();
+            oldestFirstDate = Math.min(oldestFirstDate, forecast.weatherValues.get(0)
+                    .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE));
+        }
+
+        if (!operations.isEmpty()) {
+            // delete old data so we don't build up an endless history
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(oldestFirstDate - DAY_IN_MILLIS)})
+                    .build());
+        }
+        return operations;
+    }
+
+    private Map<String, Long> queryLocationIds() {
+        Map<String, Long> locationIds = new HashMap<>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry._ID,
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null,
+                null,
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.put(cursor.getString(1), cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * A location to refresh and the url its {@link ForecastSource} fetches it from.
+     */
+    public static class Request {
+        public final String locationSetting;
+        public final URL url;
+
+        public Request(String locationSetting, URL url) {
+            this.locationSetting = locationSetting;
+            this.url = url;
+        }
+    }
+
+    /**
+     * The outcome of one {@link Request}.
+     */
+    public static class LocationResult {
+        public final String locationSetting;
+        public final String url;
+        /**
+         * One of the {@code SunshineSyncAdapter.LOCATION_STATUS_*} values.
+         */
+        @SunshineSyncAdapter.LocationStatus
+        public int status;
+        public boolean notModified;
+        public int rowsWritten;
+        /**
+         * The decoded forecast, or null if nothing new was received.
+         */
+        public ForecastParser.Forecast forecast;
+        /**
+         * Why the forecast couldn't be fetched, or null if nothing went wrong on the network.
+         */
+        public IOException error;
+        String etag;
+        long lastModified;
+        String cacheControl;
+
+        LocationResult(Request request, @SunshineSyncAdapter.LocationStatus int status) {
+            this.locationSetting = request.locationSetting;
+            this.url = request.url.toString();
+            this.status = status;
+        }
+    }
+
+    public static class Result {
+        public final int rowsWritten;
+        public final long elapsedMillis;
+        private final Map<String, LocationResult> mResults = new LinkedHashMap<>();
+
+        Result(List<LocationResult> results, int rowsWritten, long elapsedMillis) {
+            for (LocationResult result : results) {
+                mResults.put(result.locationSetting, result);
+            }
+            this.rowsWritten = rowsWritten;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        public LocationResult get(String locationSetting) {
+            return mResults.get(locationSetting);
+        }
+
+        public int getLocationCount() {
+            return mResults.size();
+        }
+
+        public double getLocationsPerSecond() {
+            return elapsedMillis == 0 ? 0 : mResults.size() * 1000.0 / elapsedMillis;
+        }
+    }
+}
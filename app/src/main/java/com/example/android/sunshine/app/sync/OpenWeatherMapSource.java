@@ -0,0 +1,157 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.Build;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+
+/**
+ * Fetches the daily forecast from OpenWeatherMap.  Requests go through {@link FetchPolicy}, so
+ * a flapping server is retried a few times and not contacted at all while it is known to be
+ * down, and the body is decoded by {@link ForecastParser} as it arrives.
+ */
+public class OpenWeatherMapSource implements ForecastSource {
+    private static final String LOG_TAG = OpenWeatherMapSource.class.getSimpleName();
+
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    private static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private final String mBaseUrl;
+    private final FetchPolicy mFetchPolicy;
+
+    public OpenWeatherMapSource() {
+        this(FORECAST_BASE_URL, FetchPolicy.getInstance());
+    }
+
+    /**
+     * @param baseUrl the forecast endpoint, up to and including the '?' of the query, so tests
+     *                can replay recorded responses from a local server
+     */
+    OpenWeatherMapSource(String baseUrl, FetchPolicy fetchPolicy) {
+        mBaseUrl = baseUrl;
+        mFetchPolicy = fetchPolicy;
+    }
+
+    @Override
+    public URL getForecastUrl(String locationSetting, String latitude, String longitude)
+            throws MalformedURLException {
+        Uri.Builder uriBuilder = Uri.parse(mBaseUrl).buildUpon();
+        if (latitude != null && longitude != null) {
+            uriBuilder.appendQueryParameter(LAT_PARAM, latitude)
+                    .appendQueryParameter(LON_PARAM, longitude);
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, locationSetting);
+        }
+
+        Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+
+        return new URL(builtUri.toString());
+    }
+
+    @Override
+    public Response fetch(URL url, String locationSetting, ForecastHttpCache httpCache,
+                          SyncCancellation cancellation) throws IOException, JSONException {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        Reader reader = null;
+        try {
+            long connectStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_CONNECT);
+            try {
+                urlConnection = mFetchPolicy.connect(url, httpCache, locationSetting, cancellation);
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_CONNECT, connectStart);
+            }
+
+            Response response = new Response();
+            response.etag = urlConnection.getHeaderField(ForecastHttpCache.HEADER_ETAG);
+            response.lastModified = urlConnection.getLastModified();
+            response.cacheControl =
+                    urlConnection.getHeaderField(ForecastHttpCache.HEADER_CACHE_CONTROL);
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                response.notModified = true;
+                return response;
+            }
+
+            reader = ForecastTransport.openReader(urlConnection);
+            if (reader == null) {
+                throw new EOFException("Forecast response has no body");
+            }
+
+            // The time spent waiting in reads is the download, the rest of the parse is decoding
+            SyncMetrics.TimedReader timedReader = new SyncMetrics.TimedReader(reader);
+            reader = timedReader;
+            long parseStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_PARSE);
+            try {
+                response.forecast = parse(reader);
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_PARSE, parseStart,
+                        timedReader.getReadNanos());
+                SyncMetrics.record(SyncMetrics.PHASE_DOWNLOAD, timedReader.getReadNanos());
+            }
+            return response;
+        } finally {
+            if (urlConnection != null) {
+                cancellation.removeConnection(urlConnection);
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private static ForecastParser.Forecast parse(Reader reader)
+            throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            // Decode the rows straight off the wire.  An empty stream surfaces as an
+            // EOFException, which the sync reports as the server being down.
+            return ForecastParser.parse(reader);
+        }
+
+        // Read the input stream into a String
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new EOFException("Forecast response is empty");
+        }
+        return ForecastParser.parse(buffer.toString());
+    }
+}
@@ -2,64 +2,65 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
 import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
+    // Sync extra asking for every saved location to be refreshed, not just the preferred one
+    public static final String EXTRA_SYNC_ALL_LOCATIONS = "sync_all_locations";
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
@@ -83,12 +84,26 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
+    private final SyncScheduler mScheduler;
+    private final SyncRequestCoalescer mCoalescer;
+    private final AnnouncedToday mAnnouncedToday;
+    private final ForecastSource mSource;
+    // False for adapters run by tests, which leave the installed app's periodic sync, its
+    // notification and the wearable alone
+    private final boolean mUpdatesDevice;
+    // The cancellation of the sync in progress, read by onSyncCanceled on another thread
+    private volatile SyncCancellation mCancellation;
     private GoogleApiClient mGoogleApiClient;
     private Double mHighTemp, mLowTemp;
     private int mWeatherId;
 
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
+        mScheduler = new SyncScheduler(context);
+        mCoalescer = new SyncRequestCoalescer(context);
+        mAnnouncedToday = new AnnouncedToday(context);
+        mSource = new OpenWeatherMapSource();
+        mUpdatesDevice = true;
         mGoogleApiClient = new GoogleApiClient.Builder(getContext())
                 .addApi(Wearable.API)
                 .addConnectionCallbacks(this)
@@ -97,6 +112,24 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         mGoogleApiClient.connect();
     }
 
+    /**
+     * For tests: the adapter keeps its state in the given objects, which the test backs with
+     * preferences of its own, and doesn't reschedule the periodic sync, post the notification
+     * or push to the wearable.  It still writes the database and tells the widgets and Muzei.
+     *
+     * @param source where to get the forecasts from, a {@link LocalForecastSource} to sync
+     *               without the network
+     */
+    SunshineSyncAdapter(Context context, ForecastSource source, SyncScheduler scheduler,
+                        SyncRequestCoalescer coalescer, AnnouncedToday announcedToday) {
+        super(context, false);
+        mScheduler = scheduler;
+        mCoalescer = coalescer;
+        mAnnouncedToday = announcedToday;
+        mSource = source;
+        mUpdatesDevice = false;
+    }
+
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
@@ -117,14 +150,41 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to have the sync adapter sync immediately
+     * Helper method to have the sync adapter sync immediately.  Requests close together are
+     * merged, and ones for a location that was just synced are dropped, see
+     * {@link SyncRequestCoalescer}.  A new location cancels the sync in progress, which would
+     * only store and announce the forecast of the old one.
      *
      * @param context The context used to access the account service
+     * @param reason  why the sync is needed, one of the SyncRequestCoalescer.REASON_ constants
      */
-    public static void syncImmediately(Context context) {
+    public static void syncImmediately(Context context, String reason) {
+        if (!new SyncRequestCoalescer(context).onSyncRequested(reason,
+                Utility.getPreferredLocation(context), System.currentTimeMillis())) {
+            Log.d(SunshineSyncAdapter.class.getSimpleName(), "Sync for " + reason + " not needed");
+            return;
+        }
+        Account account = getSyncAccount(context);
+        String authority = context.getString(R.string.content_authority);
+        if (SyncRequestCoalescer.REASON_LOCATION_CHANGED.equals(reason)) {
+            ContentResolver.cancelSync(account, authority);
+        }
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(account, authority, bundle);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every saved location right away
+     *
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocations(Context context) {
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(EXTRA_SYNC_ALL_LOCATIONS, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -182,7 +242,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Finally, let's do a sync to get things started
          */
-        syncImmediately(context);
+        syncImmediately(context, SyncRequestCoalescer.REASON_ACCOUNT_CREATED);
     }
 
     public static void initializeSyncAdapter(Context context) {
@@ -205,42 +265,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
-        Log.d(LOG_TAG, "Starting sync");
-
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
+        boolean manualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        String reasons = mCoalescer.onSyncStarted(manualSync, System.currentTimeMillis());
+        Log.d(LOG_TAG, "Starting sync for " + reasons);
+        SyncCancellation cancellation = new SyncCancellation();
+        mCancellation = cancellation;
+        long start = SyncMetrics.beginPhase(SyncMetrics.PHASE_SYNC);
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
+            // If the user asked for it, a periodic sync refreshes every saved location, so
+            // switching between them shows a recent forecast.  A manual one only waits for the
+            // location on screen.
+            Context context = getContext();
+            if (extras.getBoolean(EXTRA_SYNC_ALL_LOCATIONS, false)
+                    || !manualSync && isSyncAllLocationsEnabled(context)) {
+                syncAllLocations(manualSync, cancellation, syncResult);
+                return;
+            }
+
+            // We no longer need just the location String, but also potentially the latitude and
+            // longitude, in case we are syncing based on a new Place Picker API result.
+            String locationQuery = Utility.getPreferredLocation(context);
+            String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
+            String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
 
             // Instead of always building the query based off of the location string, we want to
             // potentially build a query using a lat/lon value. This will be the case when we are
@@ -248,273 +294,482 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
             // service may not understand the location address provided by the Place Picker API
             // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
+            URL url;
+            try {
+                url = Utility.isLocationLatLonAvailable(context)
+                        ? mSource.getForecastUrl(
+                                locationQuery, locationLatitude, locationLongitude)
+                        : mSource.getForecastUrl(locationQuery, null, null);
+            } catch (MalformedURLException e) {
+                Log.e(LOG_TAG, "Error ", e);
+                setLocationStatus(context, LOCATION_STATUS_SERVER_DOWN);
+                onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+                return;
             }
+            syncLocation(url, locationQuery, manualSync, cancellation, syncResult);
+        } finally {
+            SyncMetrics.endPhase(SyncMetrics.PHASE_SYNC, start);
+            mCancellation = null;
+        }
+    }
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
+    /**
+     * @return true if periodic syncs should refresh every saved location, not just the
+     * preferred one.  Off by default, since every location ever looked at stays saved.
+     */
+    private static boolean isSyncAllLocationsEnabled(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getBoolean(context.getString(R.string.pref_sync_all_locations_key),
+                Boolean.parseBoolean(context.getString(R.string.pref_sync_all_locations_default)));
+    }
 
-            URL url = new URL(builtUri.toString());
+    /**
+     * Stops the sync in progress at its next check, and aborts its download.  Called by the
+     * framework on another thread, for instance when a newer sync supersedes this one.
+     */
+    @Override
+    public void onSyncCanceled() {
+        SyncCancellation cancellation = mCancellation;
+        if (cancellation != null) {
+            Log.d(LOG_TAG, "Canceling sync");
+            cancellation.cancel();
+        }
+        super.onSyncCanceled();
+    }
 
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+    /**
+     * Fetches the forecast for one location from the url and stores it, unless the sync is
+     * canceled first.  A canceled sync leaves the database, the location status and the
+     * consumers of the forecast as they were once it has passed the last check before writing.
+     *
+     * @param url        the url of the location from the adapter's {@link ForecastSource}
+     * @param manualSync true to ask the server even if the stored forecast is still fresh
+     */
+    void syncLocation(URL url, String locationQuery, boolean manualSync,
+                      SyncCancellation cancellation, SyncResult syncResult) {
+        ForecastHttpCache httpCache = new ForecastHttpCache(getContext());
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
+        try {
+            // Only revalidate what we still have on disk; otherwise a 304 would leave the
+            // forecast list empty.  A manual refresh always asks the server, but still sends
+            // the validators so an unchanged forecast costs a header round trip.
+            if (!hasForecastForToday(locationQuery)) {
+                httpCache.clear(locationQuery);
+            } else if (!manualSync &&
+                    httpCache.isFresh(locationQuery, url.toString(), System.currentTimeMillis())) {
+                Log.d(LOG_TAG, "Forecast for " + locationQuery + " is still fresh, skipping sync");
+                rollOverStoredForecast(locationQuery);
+                mCoalescer.onSyncFinished(locationQuery, System.currentTimeMillis());
                 return;
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            ForecastSource.Response response =
+                    mSource.fetch(url, locationQuery, httpCache, cancellation);
+            if (response.notModified) {
+                // Nothing changed upstream, so there is nothing to parse, write or announce
+                httpCache.storeValidators(locationQuery, url.toString(), response.etag,
+                        response.lastModified, response.cacheControl, System.currentTimeMillis());
+                Log.d(LOG_TAG, "Sync Complete. Forecast not modified");
+                setLocationStatus(getContext(), LOCATION_STATUS_OK);
+                onSyncFinished(SyncScheduler.OUTCOME_UNCHANGED);
+                cancellation.throwIfCanceled();
+                rollOverStoredForecast(locationQuery);
+                mCoalescer.onSyncFinished(locationQuery, System.currentTimeMillis());
                 return;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+
+            cancellation.throwIfCanceled();
+            if (storeForecast(response.forecast, locationQuery, cancellation)) {
+                httpCache.storeValidators(locationQuery, url.toString(), response.etag,
+                        response.lastModified, response.cacheControl, System.currentTimeMillis());
+                mCoalescer.onSyncFinished(locationQuery, System.currentTimeMillis());
+            } else {
+                onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+            }
+            Log.d(LOG_TAG, "Forecast transfer: " + ForecastTransport.getCompressedBytes()
+                    + " bytes received, " + ForecastTransport.getDecompressedBytes()
+                    + " bytes decoded since start");
         } catch (IOException e) {
+            if (cancellation.isCanceled()) {
+                // Superseded, so neither a failure nor a reason to retry
+                Log.d(LOG_TAG, "Sync of " + locationQuery + " canceled: " + e.getMessage());
+                return;
+            }
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            onSyncFinished(FetchPolicy.isOffline(e)
+                    ? SyncScheduler.OUTCOME_OFFLINE : SyncScheduler.OUTCOME_FAILED);
+            FetchPolicy.recordFailure(syncResult, e, System.currentTimeMillis());
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
             e.printStackTrace();
             setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+            onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+        } catch (RemoteException | OperationApplicationException e) {
+            // The forecast was fine, but we couldn't store it; have the framework retry
+            Log.e(LOG_TAG, "Error writing forecast", e);
+            setLocationStatus(getContext(), LOCATION_STATUS_UNKNOWN);
+            onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+            syncResult.databaseError = true;
         }
-        return;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Refreshes the preferred location and every location in the location table in one pass.
+     * Periodic syncs take this path when enabled in the settings, and like a single sync they
+     * skip the locations whose forecast is still fresh.
+     * Only the preferred location is shown outside the app, so its change-set decides which of
+     * the widgets, the wearable, Muzei and the notification are told about new data.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
+    private void syncAllLocations(boolean manualSync, SyncCancellation cancellation,
+                                  SyncResult syncResult) {
+        Context context = getContext();
+        String preferredLocation = Utility.getPreferredLocation(context);
+        ForecastHttpCache httpCache = new ForecastHttpCache(context);
 
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            List<MultiLocationSync.Request> requests = new ArrayList<>();
+            for (String locationSetting : MultiLocationSync.getLocationSettings(context)) {
+                URL url;
+                if (locationSetting.equals(preferredLocation)
+                        && Utility.isLocationLatLonAvailable(context)) {
+                    url = mSource.getForecastUrl(locationSetting,
+                            String.valueOf(Utility.getLocationLatitude(context)),
+                            String.valueOf(Utility.getLocationLongitude(context)));
+                } else {
+                    url = mSource.getForecastUrl(locationSetting, null, null);
+                }
+                // Same rules as a single sync: only revalidate what we still have on disk, and
+                // don't ask again for a forecast that is still fresh
+                if (!hasForecastForToday(locationSetting)) {
+                    httpCache.clear(locationSetting);
+                } else if (!manualSync && httpCache.isFresh(
+                        locationSetting, url.toString(), System.currentTimeMillis())) {
+                    continue;
                 }
+                requests.add(new MultiLocationSync.Request(locationSetting, url));
             }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+            Map<Long, ContentValues> storedRows = SyncChangeSet.readStoredRows(
+                    context.getContentResolver(), preferredLocation);
+            MultiLocationSync.Result result =
+                    new MultiLocationSync(context, mSource).sync(requests, cancellation);
+            // The newer sync announces its own forecasts
+            cancellation.throwIfCanceled();
+
+            for (MultiLocationSync.Request request : requests) {
+                IOException error = result.get(request.locationSetting).error;
+                if (error != null) {
+                    FetchPolicy.recordFailure(syncResult, error, System.currentTimeMillis());
+                }
+            }
 
-                double high;
-                double low;
+            Log.d(LOG_TAG, String.format("Sync Complete. %d locations, %d Inserted, %.2f locations/s",
+                    result.getLocationCount(), result.rowsWritten, result.getLocationsPerSecond()));
+            MultiLocationSync.LocationResult preferred = result.get(preferredLocation);
+            if (preferred == null) {
+                Log.d(LOG_TAG, "Forecast for " + preferredLocation + " is still fresh");
+                rollOverStoredForecast(preferredLocation);
+                mCoalescer.onSyncFinished(preferredLocation, System.currentTimeMillis());
+                return;
+            }
+            if (preferred.forecast != null && !preferred.forecast.weatherValues.isEmpty()) {
+                List<ContentValues> weatherValues = preferred.forecast.weatherValues;
+                // The batch trims relative to the oldest location, so this is an upper bound
+                long firstDate = weatherValues.get(0)
+                        .getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                SyncChangeSet changes = SyncChangeSet.compute(storedRows, weatherValues,
+                        firstDate - DAY_IN_MILLIS, mAnnouncedToday.get(preferredLocation));
+                onSyncFinished(changes);
+                dispatchChanges(changes, preferredLocation, weatherValues.get(0));
+            } else if (preferred.status == LOCATION_STATUS_OK) {
+                onSyncFinished(SyncScheduler.OUTCOME_UNCHANGED);
+                rollOverStoredForecast(preferredLocation);
+            } else {
+                onSyncFinished(preferred.error != null && FetchPolicy.isOffline(preferred.error)
+                        ? SyncScheduler.OUTCOME_OFFLINE : SyncScheduler.OUTCOME_FAILED);
+            }
+            setLocationStatus(context, preferred.status);
+            if (preferred.status == LOCATION_STATUS_OK) {
+                mCoalescer.onSyncFinished(preferredLocation, System.currentTimeMillis());
+            }
+        } catch (SyncCancellation.CanceledException e) {
+            Log.d(LOG_TAG, "Sync of all locations canceled");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error ", e);
+            setLocationStatus(context, LOCATION_STATUS_SERVER_DOWN);
+            onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error writing forecasts", e);
+            setLocationStatus(context, LOCATION_STATUS_UNKNOWN);
+            onSyncFinished(SyncScheduler.OUTCOME_FAILED);
+            syncResult.databaseError = true;
+        }
+    }
 
-                String description;
-                int weatherId;
+    /**
+     * Has the provider load today's forecast for the location into its in-memory snapshot, so
+     * the widgets, Muzei and the notification updated next don't each read it from SQLite.
+     */
+    private void publishForecastSnapshot(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor != null) {
+            cursor.close();
+        }
+    }
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    /**
+     * Writes a decoded forecast into the database, trims old days and lets the widgets, the
+     * wearable, Muzei and the notification know about the data that changed.
+     *
+     * @param forecast        the forecast decoded by {@link ForecastParser}
+     * @param locationSetting the location string the forecast was requested for
+     * @return true if the forecast was stored, false if the response carried an error code
+     * @throws SyncCancellation.CanceledException if the sync was canceled after the forecast
+     *                                            was written, before anyone was told about it
+     */
+    private boolean storeForecast(ForecastParser.Forecast forecast, String locationSetting,
+                                  SyncCancellation cancellation)
+            throws RemoteException, OperationApplicationException,
+            SyncCancellation.CanceledException {
+        // do we have an error?
+        switch (forecast.messageCode) {
+            case HttpURLConnection.HTTP_OK:
+                break;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
+                return false;
+            default:
+                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+                return false;
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+        long locationId = addLocation(locationSetting, forecast.cityName,
+                forecast.cityLatitude, forecast.cityLongitude);
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        int numDays = forecast.weatherValues.size();
+        ContentValues[] cvArray = new ContentValues[numDays];
+        for (int i = 0; i < numDays; i++) {
+            ContentValues weatherValues = forecast.weatherValues.get(i);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            cvArray[i] = weatherValues;
+        }
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+        // add to database
+        if (numDays > 0) {
+            // What is stored now, to tell which consumers the new forecast affects
+            Map<Long, ContentValues> storedRows = SyncChangeSet.readStoredRows(
+                    getContext().getContentResolver(), locationSetting);
+
+            // Write the new days and delete old data, so we don't build up an endless history,
+            // in one batch: the provider commits it once and notifies the loaders once
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>(numDays + 1);
+            for (ContentValues weatherValues : cvArray) {
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                        .withValues(weatherValues)
+                        .build());
+            }
+            long firstDate = cvArray[0].getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            operations.add(ContentProviderOperation
+                    .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                            new String[]{Long.toString(firstDate - DAY_IN_MILLIS)})
+                    .build());
+            cancellation.throwIfCanceled();
+            long deleteNanos = WeatherProvider.getDeleteNanos();
+            long writeStart = SyncMetrics.beginPhase(SyncMetrics.PHASE_WRITE);
+            try {
+                getContext().getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+            } finally {
+                // The provider runs in this process and on this thread, so it can tell how
+                // much of the batch went to trimming the old days
+                deleteNanos = WeatherProvider.getDeleteNanos() - deleteNanos;
+                SyncMetrics.endPhase(SyncMetrics.PHASE_WRITE, writeStart, deleteNanos);
+                SyncMetrics.record(SyncMetrics.PHASE_DELETE, deleteNanos);
+            }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+            // The newer sync announces its own forecast
+            cancellation.throwIfCanceled();
+            SyncChangeSet changes = SyncChangeSet.compute(storedRows, forecast.weatherValues,
+                    firstDate - DAY_IN_MILLIS, mAnnouncedToday.get(locationSetting));
+            onSyncFinished(changes);
+            dispatchChanges(changes, locationSetting, cvArray[0]);
+        }
+        Log.d(LOG_TAG, "Sync Complete. " + numDays + " Inserted");
+        setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        return true;
+    }
 
-                ContentValues weatherValues = new ContentValues();
+    /**
+     * For a sync that kept the stored forecast, because it was still fresh or not modified
+     * upstream: once the day has rolled over, trims the days before today the way writing a
+     * forecast would, and announces the new first day.
+     */
+    private void rollOverStoredForecast(String locationSetting) {
+        ContentResolver resolver = getContext().getContentResolver();
+        long today = WeatherContract.normalizeDate(System.currentTimeMillis());
+        Map<Long, ContentValues> storedRows =
+                SyncChangeSet.readStoredRows(resolver, locationSetting);
+        List<ContentValues> days = new ArrayList<>(storedRows.size());
+        for (ContentValues row : storedRows.values()) {
+            if (row.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE) >= today) {
+                days.add(row);
+            }
+        }
+        if (days.isEmpty()) {
+            return;
+        }
+        Collections.sort(days, new Comparator<ContentValues>() {
+            @Override
+            public int compare(ContentValues lhs, ContentValues rhs) {
+                long lhsDate = lhs.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                long rhsDate = rhs.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                return lhsDate < rhsDate ? -1 : (lhsDate == rhsDate ? 0 : 1);
+            }
+        });
+
+        if (days.size() < storedRows.size()) {
+            long start = SyncMetrics.beginPhase(SyncMetrics.PHASE_DELETE);
+            try {
+                resolver.delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                        WeatherContract.WeatherEntry.COLUMN_DATE + " < ?",
+                        new String[]{Long.toString(today)});
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_DELETE, start);
+            }
+        }
+        dispatchChanges(SyncChangeSet.compute(storedRows, days, today - 1,
+                mAnnouncedToday.get(locationSetting)), locationSetting, days.get(0));
+    }
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    /**
+     * @return true if the database already holds today's forecast for the location.
+     */
+    private boolean hasForecastForToday(String locationSetting) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, System.currentTimeMillis()),
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                null,
+                null,
+                null);
+        if (cursor == null) {
+            return false;
+        }
+        boolean hasForecast = cursor.moveToFirst();
+        cursor.close();
+        return hasForecast;
+    }
 
-                cVVector.add(weatherValues);
+    /**
+     * Tells each consumer of the location's forecast about the changes that affect it: the
+     * widgets about any change, the wearable about a new first day, and Muzei about a new
+     * condition.  The notification is checked whatever changed, since it is shown once a day.
+     *
+     * @param today the first day of the new forecast
+     */
+    private void dispatchChanges(SyncChangeSet changes, String locationSetting,
+                                 ContentValues today) {
+        Log.d(LOG_TAG, "Forecast for " + locationSetting + ": " + changes);
+        if (changes.hasChanges() || changes.todayChanged) {
+            announceChanges(changes, locationSetting, today);
+        }
+        long start = SyncMetrics.beginPhase(SyncMetrics.PHASE_NOTIFICATION);
+        try {
+            notifyWeather();
+        } finally {
+            SyncMetrics.endPhase(SyncMetrics.PHASE_NOTIFICATION, start);
+        }
+    }
 
-                if (i == 0) {
-                    updateWearData(high, low, weatherId);
-                }
+    private void announceChanges(SyncChangeSet changes, String locationSetting,
+                                 ContentValues today) {
+        publishForecastSnapshot(locationSetting);
+        long start = SyncMetrics.beginPhase(SyncMetrics.PHASE_WIDGETS);
+        try {
+            updateWidgets(changes);
+        } finally {
+            SyncMetrics.endPhase(SyncMetrics.PHASE_WIDGETS, start);
+        }
+        if (changes.todayChanged) {
+            start = SyncMetrics.beginPhase(SyncMetrics.PHASE_WEAR);
+            try {
+                updateWearData(
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                        today.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                        today.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID));
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_WEAR, start);
             }
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+            mAnnouncedToday.put(locationSetting, today);
+        }
+        if (changes.artChanged) {
+            start = SyncMetrics.beginPhase(SyncMetrics.PHASE_MUZEI);
+            try {
+                updateMuzei(changes);
+            } finally {
+                SyncMetrics.endPhase(SyncMetrics.PHASE_MUZEI, start);
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Lets the scheduler adapt the periodic sync to what a fetched forecast changed.
+     */
+    private void onSyncFinished(SyncChangeSet changes) {
+        // A small revision of today is just another change, it needn't bring the next sync closer
+        if (changes.todayChangedNoticeably) {
+            onSyncFinished(SyncScheduler.OUTCOME_TODAY_CHANGED);
+        } else {
+            onSyncFinished(changes.hasChanges()
+                    ? SyncScheduler.OUTCOME_CHANGED : SyncScheduler.OUTCOME_UNCHANGED);
         }
     }
 
-    private void updateWidgets() {
+    /**
+     * Lets the scheduler adapt the periodic sync to how this one went.
+     *
+     * @param outcome one of the SyncScheduler.OUTCOME_ constants
+     */
+    private void onSyncFinished(int outcome) {
+        if (mScheduler.onSyncFinished(outcome)) {
+            int interval = mScheduler.getSyncInterval();
+            Log.d(LOG_TAG, "Periodic sync now every " + interval + "s");
+            if (mUpdatesDevice) {
+                configurePeriodicSync(getContext(), interval, SyncScheduler.getFlexTime(interval));
+            }
+        }
+    }
+
+    private void updateWidgets(SyncChangeSet changes) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
-        Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
-                .setPackage(context.getPackageName());
+        Intent dataUpdatedIntent = changes.putExtras(new Intent(ACTION_DATA_UPDATED)
+                .setPackage(context.getPackageName()));
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(SyncChangeSet changes) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+            context.startService(changes.putExtras(new Intent(ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class)));
         }
     }
 
     private void notifyWeather() {
+        if (!mUpdatesDevice) {
+            return;
+        }
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -544,33 +799,10 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+
+                    // Retrieve the large icon, decoded at its size
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context)
+                            .getNotificationArt(weatherId);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
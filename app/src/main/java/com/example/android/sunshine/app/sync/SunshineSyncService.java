@@ -5,6 +5,9 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +26,17 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
+
+    /**
+     * Prints where syncs in this process spent their time, see {@link SyncMetrics}.  While the
+     * service is running, {@code adb shell dumpsys activity service
+     * com.example.android.sunshine.app/.sync.SunshineSyncService} shows it.
+     */
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        SyncMetrics.dump(writer);
+        writer.println("Forecast transfer: " + ForecastTransport.getCompressedBytes()
+                + " bytes received, " + ForecastTransport.getDecompressedBytes()
+                + " bytes decoded");
+    }
 }
\ No newline at end of file
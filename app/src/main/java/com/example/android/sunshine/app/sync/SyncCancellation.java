@@ -0,0 +1,106 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tells a running sync that it has been canceled, usually because a newer sync superseded it.
+ * <p>
+ * The sync checks it between fetching, parsing, writing and announcing the forecast, and stops
+ * at the first check after {@link #cancel()} with a {@link CanceledException}.  Requests that
+ * are in flight are disconnected right away, so a sync blocked on a slow download doesn't wait
+ * for its read timeout before it notices, and a sync waiting between attempts
+ * ({@link #sleep(long)}) wakes up at once.
+ */
+public class SyncCancellation {
+    private final List<HttpURLConnection> mConnections = new ArrayList<>();
+    private boolean mCanceled;
+
+    /**
+     * Cancels the sync.  May be called from any thread.
+     */
+    public void cancel() {
+        List<HttpURLConnection> connections;
+        synchronized (this) {
+            mCanceled = true;
+            connections = new ArrayList<>(mConnections);
+            mConnections.clear();
+            // Wakes up a sync waiting in sleep()
+            notifyAll();
+        }
+        // Closing the socket makes the blocked read on the sync thread fail
+        for (HttpURLConnection connection : connections) {
+            connection.disconnect();
+        }
+    }
+
+    public synchronized boolean isCanceled() {
+        return mCanceled;
+    }
+
+    /**
+     * @throws CanceledException if the sync has been canceled
+     */
+    public void throwIfCanceled() throws CanceledException {
+        if (isCanceled()) {
+            throw new CanceledException();
+        }
+    }
+
+    /**
+     * Waits on the sync thread, returning early only if the sync is canceled meanwhile.
+     *
+     * @throws CanceledException      if the sync was canceled before or during the wait
+     * @throws InterruptedIOException if the thread was interrupted
+     */
+    public synchronized void sleep(long millis) throws IOException {
+        long deadline = SystemClock.elapsedRealtime() + millis;
+        try {
+            long remaining = millis;
+            while (!mCanceled && remaining > 0) {
+                wait(remaining);
+                remaining = deadline - SystemClock.elapsedRealtime();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting");
+        }
+        throwIfCanceled();
+    }
+
+    /**
+     * Has {@link #cancel()} disconnect the request.  A request added after the sync was canceled
+     * is disconnected at once.
+     */
+    public void addConnection(HttpURLConnection connection) {
+        synchronized (this) {
+            if (!mCanceled) {
+                mConnections.add(connection);
+                return;
+            }
+        }
+        connection.disconnect();
+    }
+
+    /**
+     * Forgets a request the sync is done with.
+     */
+    public synchronized void removeConnection(HttpURLConnection connection) {
+        mConnections.remove(connection);
+    }
+
+    /**
+     * Thrown at the first check after the sync was canceled.  It is an IOException so it passes
+     * through the network code unchanged; callers tell it apart with {@link #isCanceled()}.
+     */
+    public static class CanceledException extends IOException {
+        CanceledException() {
+            super("Sync canceled");
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Intent;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.common.WeatherConditions;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a sync changed in the preferred location's forecast, so only the consumers that show the
+ * changed data are told about it.
+ * <p>
+ * The stored rows are read before the forecast is written ({@link #readStoredRows}) and
+ * compared with the new ones afterwards ({@link #compute}).  The first day is compared with the
+ * one the consumers were last told about ({@link AnnouncedToday}), so the day rolling over is a
+ * change to today even when the row that becomes today wasn't revised.  The change-set travels with
+ * {@link SunshineSyncAdapter#ACTION_DATA_UPDATED} as extras; an intent without them is treated
+ * as a change to everything.
+ */
+public class SyncChangeSet {
+    public static final String EXTRA_ROWS_ADDED = "rows_added";
+    public static final String EXTRA_ROWS_CHANGED = "rows_changed";
+    public static final String EXTRA_ROWS_REMOVED = "rows_removed";
+    public static final String EXTRA_TODAY_CHANGED = "today_changed";
+    public static final String EXTRA_ART_CHANGED = "art_changed";
+
+    // The columns a sync writes, other than the location.  The date is the key.
+    static final String[] COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+    // these indices must match COLUMNS
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    // In degrees Celsius, as stored.  Smaller revisions of today aren't worth syncing sooner for.
+    static final double NOTICEABLE_TEMP_CHANGE = 1.0;
+
+    /**
+     * Days of the location's forecast that didn't exist before.
+     */
+    public final int rowsAdded;
+    /**
+     * Days whose values differ from the stored ones.
+     */
+    public final int rowsChanged;
+    /**
+     * Past days trimmed from the location's forecast.
+     */
+    public final int rowsRemoved;
+    /**
+     * True if the first day of the forecast, the one the widgets, the wearable and the
+     * notification show, differs from the one they were last told about: another date, or
+     * other values.
+     */
+    public final boolean todayChanged;
+    /**
+     * True if the first day's condition, and with it its art and description, changed.
+     */
+    public final boolean artChanged;
+    /**
+     * True if the first day is new, its condition changed or its high or low moved by at least
+     * {@link #NOTICEABLE_TEMP_CHANGE}.  Not carried by intents, where it's taken to be the same
+     * as {@link #todayChanged}.
+     */
+    final boolean todayChangedNoticeably;
+
+    public SyncChangeSet(int rowsAdded, int rowsChanged, int rowsRemoved, boolean todayChanged,
+                         boolean artChanged) {
+        this(rowsAdded, rowsChanged, rowsRemoved, todayChanged, artChanged, todayChanged);
+    }
+
+    SyncChangeSet(int rowsAdded, int rowsChanged, int rowsRemoved, boolean todayChanged,
+                  boolean artChanged, boolean todayChangedNoticeably) {
+        this.rowsAdded = rowsAdded;
+        this.rowsChanged = rowsChanged;
+        this.rowsRemoved = rowsRemoved;
+        this.todayChanged = todayChanged;
+        this.artChanged = artChanged;
+        this.todayChangedNoticeably = todayChangedNoticeably;
+    }
+
+    /**
+     * @return the change-set carried by the intent.  One without extras is reported as
+     * changing everything.
+     */
+    public static SyncChangeSet fromIntent(Intent intent) {
+        if (!intent.hasExtra(EXTRA_TODAY_CHANGED)) {
+            return new SyncChangeSet(0, 0, 0, true, true);
+        }
+        return new SyncChangeSet(
+                intent.getIntExtra(EXTRA_ROWS_ADDED, 0),
+                intent.getIntExtra(EXTRA_ROWS_CHANGED, 0),
+                intent.getIntExtra(EXTRA_ROWS_REMOVED, 0),
+                intent.getBooleanExtra(EXTRA_TODAY_CHANGED, true),
+                intent.getBooleanExtra(EXTRA_ART_CHANGED, true));
+    }
+
+    /**
+     * Reads every stored day of a location into memory, so writing the new forecast doesn't
+     * change what it's compared with.
+     *
+     * @return the rows with the {@link #COLUMNS} values, by date
+     */
+    static Map<Long, ContentValues> readStoredRows(ContentResolver resolver,
+                                                   String locationSetting) {
+        Map<Long, ContentValues> rows = new HashMap<>();
+        Cursor cursor = resolver.query(WeatherEntry.buildWeatherLocation(locationSetting),
+                COLUMNS, null, null, null);
+        if (cursor == null) {
+            return rows;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues values = new ContentValues();
+                long date = cursor.getLong(INDEX_DATE);
+                values.put(WeatherEntry.COLUMN_DATE, date);
+                // The column types are fixed by the contract, which Cursor.getType (API 11)
+                // would only confirm
+                for (int i = INDEX_WEATHER_ID; i < COLUMNS.length; i++) {
+                    if (cursor.isNull(i)) {
+                        values.putNull(COLUMNS[i]);
+                    } else if (i == INDEX_WEATHER_ID) {
+                        values.put(COLUMNS[i], cursor.getInt(i));
+                    } else if (i == INDEX_SHORT_DESC) {
+                        values.put(COLUMNS[i], cursor.getString(i));
+                    } else {
+                        values.put(COLUMNS[i], cursor.getDouble(i));
+                    }
+                }
+                rows.put(date, values);
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    /**
+     * Same as {@link #compute(Map, List, long, ContentValues)}, comparing the first day with the
+     * stored row of the same date.
+     */
+    static SyncChangeSet compute(Map<Long, ContentValues> storedRows,
+                                 List<ContentValues> newRows, long removeBefore) {
+        return compute(storedRows, newRows, removeBefore, null);
+    }
+
+    /**
+     * Compares a location's forecast with what was stored before it was written.
+     *
+     * @param storedRows     from {@link #readStoredRows}
+     * @param newRows        the forecast, first day first
+     * @param removeBefore   days on or before this date were trimmed by the sync
+     * @param announcedToday from {@link AnnouncedToday#get}, or null to compare the first day
+     *                       with the stored row of the same date
+     */
+    static SyncChangeSet compute(Map<Long, ContentValues> storedRows,
+                                 List<ContentValues> newRows, long removeBefore,
+                                 ContentValues announcedToday) {
+        int added = 0;
+        int changed = 0;
+        boolean todayChanged = false;
+        boolean artChanged = false;
+        boolean todayChangedNoticeably = false;
+        for (int i = 0; i < newRows.size(); i++) {
+            ContentValues newRow = newRows.get(i);
+            ContentValues storedRow = storedRows.get(newRow.getAsLong(WeatherEntry.COLUMN_DATE));
+            boolean rowChanged;
+            if (storedRow == null) {
+                added++;
+                rowChanged = true;
+            } else {
+                rowChanged = differs(storedRow, newRow);
+                if (rowChanged) {
+                    changed++;
+                }
+            }
+            if (i == 0) {
+                // What the consumers show now
+                ContentValues shownRow = announcedToday != null ? announcedToday : storedRow;
+                boolean newDay = shownRow == null
+                        || !equal(shownRow.get(WeatherEntry.COLUMN_DATE),
+                        newRow.get(WeatherEntry.COLUMN_DATE));
+                todayChanged = newDay || differs(shownRow, newRow);
+                artChanged = shownRow == null || getCondition(shownRow) != getCondition(newRow)
+                        || !equal(shownRow.get(WeatherEntry.COLUMN_SHORT_DESC),
+                        newRow.get(WeatherEntry.COLUMN_SHORT_DESC));
+                todayChangedNoticeably = newDay || todayChanged && (artChanged
+                        || tempMoved(shownRow, newRow, WeatherEntry.COLUMN_MAX_TEMP)
+                        || tempMoved(shownRow, newRow, WeatherEntry.COLUMN_MIN_TEMP));
+            }
+        }
+
+        int removed = 0;
+        for (Long date : storedRows.keySet()) {
+            if (date <= removeBefore) {
+                removed++;
+            }
+        }
+        return new SyncChangeSet(added, changed, removed, todayChanged, artChanged,
+                todayChangedNoticeably);
+    }
+
+    private static boolean tempMoved(ContentValues storedRow, ContentValues newRow,
+                                     String column) {
+        Double stored = storedRow.getAsDouble(column);
+        Double value = newRow.getAsDouble(column);
+        if (stored == null || value == null) {
+            return stored != value;
+        }
+        return Math.abs(value - stored) >= NOTICEABLE_TEMP_CHANGE;
+    }
+
+    private static int getCondition(ContentValues row) {
+        Integer weatherId = row.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID);
+        return weatherId == null ? WeatherConditions.CONDITION_NONE
+                : WeatherConditions.getCondition(weatherId);
+    }
+
+    /**
+     * @return true if a column written by the sync has a different value than the stored one
+     */
+    private static boolean differs(ContentValues storedRow, ContentValues newRow) {
+        for (int i = INDEX_WEATHER_ID; i < COLUMNS.length; i++) {
+            if (newRow.containsKey(COLUMNS[i])
+                    && !equal(storedRow.get(COLUMNS[i]), newRow.get(COLUMNS[i]))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equal(Object stored, Object value) {
+        if (stored == null || value == null) {
+            return stored == value;
+        }
+        if (stored instanceof Number && value instanceof Number) {
+            // The parser hands out doubles and ints, SQLite hands back what it stored
+            return ((Number) stored).doubleValue() == ((Number) value).doubleValue();
+        }
+        return stored.equals(value);
+    }
+
+    /**
+     * @return true if anything in the location's forecast changed
+     */
+    public boolean hasChanges() {
+        return rowsAdded > 0 || rowsChanged > 0 || rowsRemoved > 0;
+    }
+
+    public Intent putExtras(Intent intent) {
+        return intent.putExtra(EXTRA_ROWS_ADDED, rowsAdded)
+                .putExtra(EXTRA_ROWS_CHANGED, rowsChanged)
+                .putExtra(EXTRA_ROWS_REMOVED, rowsRemoved)
+                .putExtra(EXTRA_TODAY_CHANGED, todayChanged)
+                .putExtra(EXTRA_ART_CHANGED, artChanged);
+    }
+
+    @Override
+    public String toString() {
+        return rowsAdded + " added, " + rowsChanged + " changed, " + rowsRemoved + " removed"
+                + (todayChanged ? ", today changed" : "") + (artChanged ? ", art changed" : "");
+    }
+}
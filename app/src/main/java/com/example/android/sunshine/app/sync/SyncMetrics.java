@@ -0,0 +1,208 @@
+package com.example.android.sunshine.app.sync;
+
+import android.support.v4.os.TraceCompat;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times the phases of a sync and keeps a histogram of each since the process started.
+ * <p>
+ * Every phase is also a trace section named {@code Sync.<phase>}, so systrace shows where a
+ * sync spends its time next to what the rest of the system is doing.  Phases are recorded on
+ * the thread that runs them and must be ended in the reverse order they began.  The histograms
+ * are printed by {@link #dump(PrintWriter)}, which backs the dump of
+ * {@link SunshineSyncService}.
+ */
+public final class SyncMetrics {
+    // The whole sync, from onPerformSync to its return
+    static final String PHASE_SYNC = "sync";
+    // Name lookup, connecting and waiting for the response headers, including retries
+    static final String PHASE_CONNECT = "connect";
+    // Waiting for the response body, which is decoded as it arrives
+    static final String PHASE_DOWNLOAD = "download";
+    // Decoding the response body, without the time spent waiting for it
+    static final String PHASE_PARSE = "parse";
+    // Writing the forecast, without trimming the old days
+    static final String PHASE_WRITE = "db_write";
+    // Trimming the old days, which commits in the same transaction as the write
+    static final String PHASE_DELETE = "db_delete";
+    static final String PHASE_WIDGETS = "widgets";
+    static final String PHASE_MUZEI = "muzei";
+    static final String PHASE_NOTIFICATION = "notification";
+    static final String PHASE_WEAR = "wear";
+
+    // Upper bounds of the histogram buckets, the last bucket holds everything slower
+    static final long[] BUCKET_BOUNDS_MILLIS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+
+    private static final String SECTION_PREFIX = "Sync.";
+    private static final Map<String, Histogram> sHistograms = new LinkedHashMap<>();
+
+    private SyncMetrics() {
+    }
+
+    /**
+     * Starts a phase on this thread.
+     *
+     * @return the start time, to pass to {@link #endPhase(String, long)}
+     */
+    static long beginPhase(String phase) {
+        TraceCompat.beginSection(SECTION_PREFIX + phase);
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends the phase this thread began last, and records how long it took.
+     */
+    static void endPhase(String phase, long start) {
+        endPhase(phase, start, 0);
+    }
+
+    /**
+     * Ends the phase this thread began last, and records how long it took minus the time
+     * attributed to another phase, such as the download a parse waited for.
+     */
+    static void endPhase(String phase, long start, long excludedNanos) {
+        long nanos = System.nanoTime() - start - excludedNanos;
+        TraceCompat.endSection();
+        record(phase, nanos);
+    }
+
+    static void record(String phase, long nanos) {
+        synchronized (sHistograms) {
+            Histogram histogram = sHistograms.get(phase);
+            if (histogram == null) {
+                histogram = new Histogram();
+                sHistograms.put(phase, histogram);
+            }
+            histogram.add(Math.max(0, nanos));
+        }
+    }
+
+    /**
+     * @return a copy of the phase's histogram, empty if it was never recorded
+     */
+    static Histogram getHistogram(String phase) {
+        synchronized (sHistograms) {
+            Histogram histogram = sHistograms.get(phase);
+            return histogram == null ? new Histogram() : histogram.copy();
+        }
+    }
+
+    static void reset() {
+        synchronized (sHistograms) {
+            sHistograms.clear();
+        }
+    }
+
+    /**
+     * Prints a line per phase: how many times it ran, and its mean, median, 90th percentile and
+     * slowest time in milliseconds.  Percentiles are the upper bound of their bucket.
+     */
+    public static void dump(PrintWriter writer) {
+        writer.println("Sync phases since process start, in ms:");
+        writer.println(String.format(Locale.US, "  %-14s %7s %9s %7s %7s %9s",
+                "phase", "count", "mean", "p50", "p90", "max"));
+        synchronized (sHistograms) {
+            for (Map.Entry<String, Histogram> entry : sHistograms.entrySet()) {
+                Histogram histogram = entry.getValue();
+                writer.println(String.format(Locale.US, "  %-14s %7d %9.2f %7d %7d %9.2f",
+                        entry.getKey(), histogram.count, histogram.getMeanMillis(),
+                        histogram.getPercentileMillis(0.5), histogram.getPercentileMillis(0.9),
+                        histogram.maxNanos / 1e6));
+            }
+        }
+    }
+
+    static class Histogram {
+        final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+        long count;
+        long totalNanos;
+        long maxNanos;
+
+        void add(long nanos) {
+            long millis = nanos / 1000000;
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS_MILLIS.length && millis >= BUCKET_BOUNDS_MILLIS[bucket]) {
+                bucket++;
+            }
+            buckets[bucket]++;
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+        }
+
+        Histogram copy() {
+            Histogram copy = new Histogram();
+            System.arraycopy(buckets, 0, copy.buckets, 0, buckets.length);
+            copy.count = count;
+            copy.totalNanos = totalNanos;
+            copy.maxNanos = maxNanos;
+            return copy;
+        }
+
+        double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        /**
+         * @param fraction between 0 and 1, 0.5 for the median
+         * @return the upper bound of the bucket holding that fraction of the times, or the
+         * slowest time if it's beyond the last bound
+         */
+        long getPercentileMillis(double fraction) {
+            long rank = (long) Math.ceil(fraction * count);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+                seen += buckets[bucket];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[bucket],
+                            (long) Math.ceil(maxNanos / 1e6));
+                }
+            }
+            return (long) Math.ceil(maxNanos / 1e6);
+        }
+    }
+
+    /**
+     * Counts the time spent waiting in reads, which for a body decoded as it arrives is the
+     * time spent downloading it.
+     */
+    static class TimedReader extends FilterReader {
+        private long mReadNanos;
+
+        TimedReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read();
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return super.read(buffer, offset, count);
+            } finally {
+                mReadNanos += System.nanoTime() - start;
+            }
+        }
+
+        long getReadNanos() {
+            return mReadNanos;
+        }
+    }
+}
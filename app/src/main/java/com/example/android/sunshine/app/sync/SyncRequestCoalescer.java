@@ -0,0 +1,159 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides whether a request for an immediate sync needs to reach the sync framework, and
+ * remembers why each sync ran.
+ * <p>
+ * Requests made within {@link #COALESCE_WINDOW} of the one that was sent are merged into it:
+ * their reason is added to the pending sync instead of asking for another one.  Requests for a
+ * location that finished syncing less than {@link #RECENT_SYNC_WINDOW} ago are dropped, since
+ * the forecast they would fetch is the one just stored.  When a sync starts it takes the pending
+ * reasons, which are logged and kept in a short history.
+ * <p>
+ * The state is kept in preferences, so requests from the UI and the sync adapter agree on it.
+ */
+public class SyncRequestCoalescer {
+    public static final String REASON_LOCATION_CHANGED = "location_changed";
+    public static final String REASON_ACCOUNT_CREATED = "account_created";
+    public static final String REASON_MANUAL = "manual";
+    public static final String REASON_PERIODIC = "periodic";
+
+    // In milliseconds
+    static final long COALESCE_WINDOW = 10 * 1000;
+    static final long RECENT_SYNC_WINDOW = 60 * 1000;
+    static final int HISTORY_SIZE = 10;
+
+    private static final String PREFS_NAME = "sync_requests";
+    private static final String KEY_PENDING_REASONS = "pending_reasons";
+    private static final String KEY_PENDING_SINCE = "pending_since";
+    private static final String KEY_LAST_LOCATION = "last_location";
+    private static final String KEY_LAST_FINISHED = "last_finished";
+    private static final String KEY_HISTORY = "history";
+    private static final String KEY_DROPPED = "dropped";
+    private static final String KEY_MERGED = "merged";
+
+    private final SharedPreferences mPrefs;
+
+    public SyncRequestCoalescer(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    SyncRequestCoalescer(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * @param reason          one of the REASON_ constants
+     * @param locationSetting the location the sync would fetch
+     * @return true if the sync should be requested, false if it was merged into a pending one
+     * or the location was just synced
+     */
+    public synchronized boolean onSyncRequested(String reason, String locationSetting,
+                                                long now) {
+        long lastFinished = mPrefs.getLong(KEY_LAST_FINISHED, 0);
+        if (locationSetting.equals(mPrefs.getString(KEY_LAST_LOCATION, null))
+                && isWithin(lastFinished, now, RECENT_SYNC_WINDOW)) {
+            mPrefs.edit().putInt(KEY_DROPPED, mPrefs.getInt(KEY_DROPPED, 0) + 1).apply();
+            return false;
+        }
+
+        String pending = mPrefs.getString(KEY_PENDING_REASONS, "");
+        if (!pending.isEmpty()
+                && isWithin(mPrefs.getLong(KEY_PENDING_SINCE, 0), now, COALESCE_WINDOW)) {
+            mPrefs.edit()
+                    .putString(KEY_PENDING_REASONS, addReason(pending, reason))
+                    .putInt(KEY_MERGED, mPrefs.getInt(KEY_MERGED, 0) + 1)
+                    .apply();
+            return false;
+        }
+        // A pending sync that never started within the window is asked for again; the
+        // framework merges it with its own copy if that is still queued
+        mPrefs.edit()
+                .putString(KEY_PENDING_REASONS, addReason(pending, reason))
+                .putLong(KEY_PENDING_SINCE, now)
+                .apply();
+        return true;
+    }
+
+    // A clock set back is treated as outside the window
+    private static boolean isWithin(long then, long now, long window) {
+        return then > 0 && now >= then && now - then < window;
+    }
+
+    private static String addReason(String reasons, String reason) {
+        if (reasons.isEmpty()) {
+            return reason;
+        }
+        if (Arrays.asList(TextUtils.split(reasons, ",")).contains(reason)) {
+            return reasons;
+        }
+        return reasons + "," + reason;
+    }
+
+    /**
+     * Takes the reasons for the sync that is starting.
+     *
+     * @param manual true if the sync was requested with SYNC_EXTRAS_MANUAL
+     * @return the comma separated reasons
+     */
+    public synchronized String onSyncStarted(boolean manual, long now) {
+        String reasons = mPrefs.getString(KEY_PENDING_REASONS, "");
+        if (reasons.isEmpty()) {
+            reasons = manual ? REASON_MANUAL : REASON_PERIODIC;
+        }
+        List<String> history = getHistory();
+        history.add(0, now + " " + reasons);
+        if (history.size() > HISTORY_SIZE) {
+            history = history.subList(0, HISTORY_SIZE);
+        }
+        mPrefs.edit()
+                .remove(KEY_PENDING_REASONS)
+                .remove(KEY_PENDING_SINCE)
+                .putString(KEY_HISTORY, TextUtils.join("\n", history))
+                .apply();
+        return reasons;
+    }
+
+    /**
+     * Records that the location's forecast is now up to date.
+     */
+    public synchronized void onSyncFinished(String locationSetting, long now) {
+        mPrefs.edit()
+                .putString(KEY_LAST_LOCATION, locationSetting)
+                .putLong(KEY_LAST_FINISHED, now)
+                .apply();
+    }
+
+    /**
+     * @return the start time and reasons of the last syncs, latest first
+     */
+    public synchronized List<String> getHistory() {
+        String history = mPrefs.getString(KEY_HISTORY, "");
+        if (history.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(TextUtils.split(history, "\n")));
+    }
+
+    /**
+     * @return requests dropped because their location had just been synced
+     */
+    public synchronized int getDroppedCount() {
+        return mPrefs.getInt(KEY_DROPPED, 0);
+    }
+
+    /**
+     * @return requests merged into a pending sync
+     */
+    public synchronized int getMergedCount() {
+        return mPrefs.getInt(KEY_MERGED, 0);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Picks the periodic sync interval from how the last syncs went, instead of always syncing
+ * every {@link SunshineSyncAdapter#SYNC_INTERVAL}.
+ * <p>
+ * Syncs in a row that noticeably changed today's forecast shorten the interval by a third each,
+ * down to an hour, so a volatile forecast is followed closely.  The first of them, like one that
+ * changed only later days or revised today a little, keeps the interval, up to the default, so
+ * the odd revision doesn't bring on a burst of syncs.  An unchanged forecast lengthens it by
+ * half, up to 6 hours, so a quiet forecast costs fewer requests.  A single failure keeps the
+ * interval, since the framework retries it anyway; each further failure in a row lengthens it by
+ * half, up to the same cap.  A sync that couldn't even look up the server because the device is
+ * offline says nothing about the server, and leaves both the interval and the run of failures
+ * alone.  The flex time stays a third of the interval.
+ */
+public class SyncScheduler {
+    static final int OUTCOME_TODAY_CHANGED = 0;
+    static final int OUTCOME_CHANGED = 1;
+    static final int OUTCOME_UNCHANGED = 2;
+    static final int OUTCOME_FAILED = 3;
+    static final int OUTCOME_OFFLINE = 4;
+
+    // In seconds, like SYNC_INTERVAL
+    static final int MIN_INTERVAL = 60 * 60;
+    static final int MAX_INTERVAL = SunshineSyncAdapter.SYNC_INTERVAL * 2;
+    // Noticeable changes to today in a row before the interval tightens
+    static final int TODAY_CHANGES_TO_TIGHTEN = 2;
+    // Failures in a row before the interval backs off
+    static final int FAILURES_TO_BACK_OFF = 2;
+
+    private static final String PREFS_NAME = "sync_scheduler";
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_LAST_OUTCOME = "last_outcome";
+    private static final String KEY_STREAK = "streak";
+
+    private final SharedPreferences mPrefs;
+
+    public SyncScheduler(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    SyncScheduler(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * @param lastOutcome the outcome of the previous sync
+     * @param streak      how many syncs in a row ended with it
+     * @return how many syncs in a row, this one included, ended with this outcome
+     */
+    static int getNextStreak(int lastOutcome, int streak, int outcome) {
+        return outcome == lastOutcome ? streak + 1 : 1;
+    }
+
+    /**
+     * @param interval the current interval, in seconds
+     * @param outcome  one of the OUTCOME_ constants
+     * @param streak   how many syncs in a row, this one included, ended with this outcome
+     * @return the interval to use after a sync with this outcome, in seconds
+     */
+    static int getNextInterval(int interval, int outcome, int streak) {
+        switch (outcome) {
+            case OUTCOME_TODAY_CHANGED:
+                if (streak < TODAY_CHANGES_TO_TIGHTEN) {
+                    return Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+                }
+                return Math.max(MIN_INTERVAL,
+                        Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL) * 2 / 3);
+            case OUTCOME_CHANGED:
+                return Math.min(interval, SunshineSyncAdapter.SYNC_INTERVAL);
+            case OUTCOME_FAILED:
+                if (streak < FAILURES_TO_BACK_OFF) {
+                    return interval;
+                }
+                return Math.min(MAX_INTERVAL, interval * 3 / 2);
+            case OUTCOME_OFFLINE:
+                return interval;
+            default:
+                return Math.min(MAX_INTERVAL, interval * 3 / 2);
+        }
+    }
+
+    static int getFlexTime(int interval) {
+        return interval / 3;
+    }
+
+    /**
+     * @return the periodic sync interval, in seconds
+     */
+    public int getSyncInterval() {
+        return mPrefs.getInt(KEY_INTERVAL, SunshineSyncAdapter.SYNC_INTERVAL);
+    }
+
+    /**
+     * Records how a sync went.
+     *
+     * @param outcome one of the OUTCOME_ constants
+     * @return true if the interval changed, and the periodic sync needs to be scheduled again
+     */
+    public boolean onSyncFinished(int outcome) {
+        if (outcome == OUTCOME_OFFLINE) {
+            // Neither breaks a run of outcomes nor adds to it
+            return false;
+        }
+        int streak = getNextStreak(mPrefs.getInt(KEY_LAST_OUTCOME, -1),
+                mPrefs.getInt(KEY_STREAK, 0), outcome);
+        int interval = getSyncInterval();
+        int nextInterval = getNextInterval(interval, outcome, streak);
+        mPrefs.edit()
+                .putInt(KEY_LAST_OUTCOME, outcome)
+                .putInt(KEY_STREAK, streak)
+                .putInt(KEY_INTERVAL, nextInterval)
+                .apply();
+        return nextInterval != interval;
+    }
+}
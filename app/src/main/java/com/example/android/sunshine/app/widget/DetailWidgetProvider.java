@@ -7,7 +7,9 @@ import android.appwidget.AppWidgetProvider;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.os.AsyncTask;
 import android.os.Build;
+import android.preference.PreferenceManager;
 import android.support.annotation.NonNull;
 import android.support.v4.app.TaskStackBuilder;
 import android.widget.RemoteViews;
@@ -17,52 +19,111 @@ import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * Provider for a scrollable weather detail widget
  */
 @TargetApi(Build.VERSION_CODES.HONEYCOMB)
 public class DetailWidgetProvider extends AppWidgetProvider {
-    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        // Perform this loop procedure for each App Widget that belongs to this provider
-        for (int appWidgetId : appWidgetIds) {
-            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_detail);
+    static final String STATS_NAME = "DetailWidgetProvider";
 
-            // Create an Intent to launch MainActivity
-            Intent intent = new Intent(context, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        WidgetUpdateStats stats = new WidgetUpdateStats(STATS_NAME);
+        // Every App Widget that belongs to this provider looks the same, so the views are built
+        // once and sent to all of them in one call
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_detail);
 
-            // Set up the collection
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
-                setRemoteAdapter(context, views);
-            } else {
-                setRemoteAdapterV11(context, views);
-            }
-            boolean useDetailActivity = context.getResources()
-                    .getBoolean(R.bool.use_detail_activity);
-            Intent clickIntentTemplate = useDetailActivity
-                    ? new Intent(context, DetailActivity.class)
-                    : new Intent(context, MainActivity.class);
-            PendingIntent clickPendingIntentTemplate = TaskStackBuilder.create(context)
-                    .addNextIntentWithParentStack(clickIntentTemplate)
-                    .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
-            views.setPendingIntentTemplate(R.id.widget_list, clickPendingIntentTemplate);
-            views.setEmptyView(R.id.widget_list, R.id.widget_empty);
+        // Create an Intent to launch MainActivity
+        Intent intent = new Intent(context, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(context, 0, intent, 0);
+        views.setOnClickPendingIntent(R.id.widget, pendingIntent);
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+        // Set up the collection
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            setRemoteAdapter(context, views);
+        } else {
+            setRemoteAdapterV11(context, views);
         }
+        boolean useDetailActivity = context.getResources()
+                .getBoolean(R.bool.use_detail_activity);
+        Intent clickIntentTemplate = useDetailActivity
+                ? new Intent(context, DetailActivity.class)
+                : new Intent(context, MainActivity.class);
+        PendingIntent clickPendingIntentTemplate = TaskStackBuilder.create(context)
+                .addNextIntentWithParentStack(clickIntentTemplate)
+                .getPendingIntent(0, PendingIntent.FLAG_UPDATE_CURRENT);
+        views.setPendingIntentTemplate(R.id.widget_list, clickPendingIntentTemplate);
+        views.setEmptyView(R.id.widget_list, R.id.widget_empty);
+
+        // Tell the AppWidgetManager to perform an update on the app widgets
+        appWidgetManager.updateAppWidget(appWidgetIds, views);
+        // Their lists will be loaded from scratch
+        WidgetFingerprints.DETAIL.remove(appWidgetIds);
+        stats.count(WidgetUpdateStats.FULL, appWidgetIds.length);
+        stats.finish("update");
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetFingerprints.DETAIL.remove(appWidgetIds);
     }
 
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
         if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
-            int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
-                    new ComponentName(context, getClass()));
-            appWidgetManager.notifyAppWidgetViewDataChanged(appWidgetIds, R.id.widget_list);
+            // Whether the lists changed is found out off the main thread
+            final Context appContext = context.getApplicationContext();
+            final PendingResult result = goAsync();
+            AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        notifyDataChanged(appContext);
+                    } finally {
+                        result.finish();
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Tells the widgets whose list would look different to reload it.  Reloading makes the
+     * widget host call back into DetailWidgetRemoteViewsService for every row, so widgets whose
+     * list is unchanged are skipped.
+     */
+    static void notifyDataChanged(Context context) {
+        WidgetUpdateStats stats = new WidgetUpdateStats(STATS_NAME);
+        AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
+        int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
+                new ComponentName(context, DetailWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return;
+        }
+        int[] changedIds = appWidgetIds;
+        List<DetailWidgetRemoteViewsService.Row> rows =
+                DetailWidgetRemoteViewsService.loadRows(context);
+        if (rows == null) {
+            // Nothing to compare, so every list reloads
+            WidgetFingerprints.DETAIL.remove(appWidgetIds);
+        } else {
+            String artPack = PreferenceManager.getDefaultSharedPreferences(context).getString(
+                    context.getString(R.string.pref_art_pack_key),
+                    context.getString(R.string.pref_art_pack_sunshine));
+            changedIds = WidgetFingerprints.DETAIL.update(appWidgetIds,
+                    DetailWidgetRemoteViewsService.getFingerprint(rows, artPack));
+        }
+        stats.mark("query");
+        if (changedIds.length > 0) {
+            appWidgetManager.notifyAppWidgetViewDataChanged(changedIds, R.id.widget_list);
         }
+        stats.mark("notify");
+        // Only the list is reloaded, so a notified widget counts as a partial update
+        stats.count(WidgetUpdateStats.SKIPPED, appWidgetIds.length - changedIds.length);
+        stats.count(WidgetUpdateStats.PARTIAL, changedIds.length);
+        stats.finish("data changed");
     }
 
     /**
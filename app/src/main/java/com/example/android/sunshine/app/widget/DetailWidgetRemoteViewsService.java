@@ -1,24 +1,26 @@
 package com.example.android.sunshine.app.widget;
 
 import android.annotation.TargetApi;
+import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
 import android.graphics.Bitmap;
 import android.net.Uri;
 import android.os.Binder;
 import android.os.Build;
-import android.util.Log;
 import android.widget.AdapterView;
 import android.widget.RemoteViews;
 import android.widget.RemoteViewsService;
 
-import com.bumptech.glide.Glide;
-import com.bumptech.glide.request.target.Target;
+import com.example.android.sunshine.app.ForecastFormatter;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
 import com.example.android.sunshine.app.data.WeatherContract;
 
-import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * RemoteViewsService controlling the data being shown in the scrollable weather detail widget
@@ -32,6 +34,7 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_DESC = 3;
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
+    static final String STATS_NAME = "DetailWidget";
     private static final String[] FORECAST_COLUMNS = {
             WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
             WeatherContract.WeatherEntry.COLUMN_DATE,
@@ -44,132 +47,223 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
-        return new RemoteViewsFactory() {
-            private Cursor data = null;
+        return new DetailWidgetFactory(this);
+    }
 
-            @Override
-            public void onCreate() {
-                // Nothing to do
-            }
+    /**
+     * Reads and formats the rows the list shows.
+     *
+     * @return the rows, or null if the forecast couldn't be queried
+     */
+    static List<Row> loadRows(Context context) {
+        String location = Utility.getPreferredLocation(context);
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry
+                .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
+        Cursor data = context.getContentResolver().query(weatherForLocationUri,
+                FORECAST_COLUMNS,
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (data == null) {
+            return null;
+        }
+        try {
+            return readRows(context, data, location);
+        } finally {
+            data.close();
+        }
+    }
 
-            @Override
-            public void onDataSetChanged() {
-                if (data != null) {
-                    data.close();
-                }
-                // This method is called by the app hosting the widget (e.g., the launcher)
-                // However, our ContentProvider is not exported so it doesn't have access to the
-                // data. Therefore we need to clear (and finally restore) the calling identity so
-                // that calls use our process and permission
-                final long identityToken = Binder.clearCallingIdentity();
-                String location = Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherForLocationUri = WeatherContract.WeatherEntry
-                        .buildWeatherLocationWithStartDate(location, System.currentTimeMillis());
-                data = getContentResolver().query(weatherForLocationUri,
-                        FORECAST_COLUMNS,
-                        null,
-                        null,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
-                Binder.restoreCallingIdentity(identityToken);
-            }
+    private static List<Row> readRows(Context context, Cursor data, String location) {
+        ForecastFormatter formatter = ForecastFormatter.getInstance(context);
+        List<Row> rows = new ArrayList<>(data.getCount());
+        while (data.moveToNext()) {
+            int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
+            long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
+            rows.add(new Row(
+                    data.getLong(INDEX_WEATHER_ID),
+                    dateInMillis,
+                    weatherId,
+                    formatter.getFriendlyDayString(dateInMillis, false),
+                    data.getString(INDEX_WEATHER_DESC),
+                    formatter.formatTemperature(data.getDouble(INDEX_WEATHER_MAX_TEMP)),
+                    formatter.formatTemperature(data.getDouble(INDEX_WEATHER_MIN_TEMP)),
+                    Utility.getIconResourceForWeatherCondition(weatherId),
+                    WeatherContract.WeatherEntry.buildWeatherLocationWithDate(location,
+                            dateInMillis)));
+        }
+        return rows;
+    }
 
-            @Override
-            public void onDestroy() {
-                if (data != null) {
-                    data.close();
-                    data = null;
-                }
-            }
+    /**
+     * @param artPack the art pack preference, which decides the pictures shown
+     * @return everything the list shows for these rows, equal for two lists that look the same
+     */
+    static String getFingerprint(List<Row> rows, String artPack) {
+        StringBuilder fingerprint = new StringBuilder(artPack);
+        for (Row row : rows) {
+            fingerprint.append('\n').append(row.id)
+                    .append('|').append(row.weatherId)
+                    .append('|').append(row.iconResourceId)
+                    .append('|').append(row.dateText)
+                    .append('|').append(row.description)
+                    .append('|').append(row.highText)
+                    .append('|').append(row.lowText);
+        }
+        return fingerprint.toString();
+    }
 
-            @Override
-            public int getCount() {
-                return data == null ? 0 : data.getCount();
-            }
+    /**
+     * One row of the list, read and formatted in onDataSetChanged.
+     */
+    static final class Row {
+        final long id;
+        final long date;
+        final int weatherId;
+        final String dateText;
+        final String description;
+        final String highText;
+        final String lowText;
+        final int iconResourceId;
+        final Uri uri;
+        // Set before the row is shown, null when the local icons are used or the remote art
+        // couldn't be loaded
+        Bitmap art;
 
-            @Override
-            public RemoteViews getViewAt(int position) {
-                if (position == AdapterView.INVALID_POSITION ||
-                        data == null || !data.moveToPosition(position)) {
-                    return null;
-                }
-                RemoteViews views = new RemoteViews(getPackageName(),
-                        R.layout.widget_detail_list_item);
-                int weatherId = data.getInt(INDEX_WEATHER_CONDITION_ID);
-                int weatherArtResourceId = Utility.getIconResourceForWeatherCondition(weatherId);
-                Bitmap weatherArtImage = null;
-                if (!Utility.usingLocalGraphics(DetailWidgetRemoteViewsService.this)) {
-                    String weatherArtResourceUrl = Utility.getArtUrlForWeatherCondition(
-                            DetailWidgetRemoteViewsService.this, weatherId);
-                    try {
-                        weatherArtImage = Glide.with(DetailWidgetRemoteViewsService.this)
-                                .load(weatherArtResourceUrl)
-                                .asBitmap()
-                                .error(weatherArtResourceId)
-                                .into(Target.SIZE_ORIGINAL, Target.SIZE_ORIGINAL).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + weatherArtResourceUrl, e);
-                    }
-                }
-                String description = data.getString(INDEX_WEATHER_DESC);
-                long dateInMillis = data.getLong(INDEX_WEATHER_DATE);
-                String formattedDate = Utility.getFriendlyDayString(
-                        DetailWidgetRemoteViewsService.this, dateInMillis, false);
-                double maxTemp = data.getDouble(INDEX_WEATHER_MAX_TEMP);
-                double minTemp = data.getDouble(INDEX_WEATHER_MIN_TEMP);
-                String formattedMaxTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, maxTemp);
-                String formattedMinTemperature =
-                        Utility.formatTemperature(DetailWidgetRemoteViewsService.this, minTemp);
-                if (weatherArtImage != null) {
-                    views.setImageViewBitmap(R.id.widget_icon, weatherArtImage);
-                } else {
-                    views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+        Row(long id, long date, int weatherId, String dateText, String description,
+            String highText, String lowText, int iconResourceId, Uri uri) {
+            this.id = id;
+            this.date = date;
+            this.weatherId = weatherId;
+            this.dateText = dateText;
+            this.description = description;
+            this.highText = highText;
+            this.lowText = lowText;
+            this.iconResourceId = iconResourceId;
+            this.uri = uri;
+        }
+    }
+
+    /*
+        The list's data is read, formatted and its art loaded in onDataSetChanged, which the
+        widget host lets block.  getViewAt is called while the list is being drawn, so it only
+        copies a prepared row into views.
+     */
+    static class DetailWidgetFactory implements RemoteViewsFactory {
+        private final Context mContext;
+        private final int mIconSize;
+        private volatile List<Row> mRows = Collections.emptyList();
+
+        DetailWidgetFactory(Context context) {
+            mContext = context;
+            mIconSize = context.getResources().getDimensionPixelSize(R.dimen.list_icon);
+        }
+
+        @Override
+        public void onCreate() {
+            // Nothing to do
+        }
+
+        @Override
+        public void onDataSetChanged() {
+            WidgetUpdateStats stats = new WidgetUpdateStats(STATS_NAME);
+            // This method is called by the app hosting the widget (e.g., the launcher)
+            // However, our ContentProvider is not exported so it doesn't have access to the
+            // data. Therefore we need to clear (and finally restore) the calling identity so
+            // that calls use our process and permission
+            final long identityToken = Binder.clearCallingIdentity();
+            try {
+                List<Row> rows = loadRows(mContext);
+                if (rows == null) {
+                    mRows = Collections.emptyList();
+                    return;
                 }
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                    setRemoteContentDescription(views, description);
+                stats.mark("query");
+
+                if (!Utility.usingLocalGraphics(mContext)) {
+                    prefetchArt(rows);
                 }
-                views.setTextViewText(R.id.widget_date, formattedDate);
-                views.setTextViewText(R.id.widget_description, description);
-                views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-                views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
-
-                final Intent fillInIntent = new Intent();
-                String locationSetting =
-                        Utility.getPreferredLocation(DetailWidgetRemoteViewsService.this);
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
-                        locationSetting,
-                        dateInMillis);
-                fillInIntent.setData(weatherUri);
-                views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
-                return views;
+                stats.mark("art");
+                // Only now are the rows complete, and visible to getViewAt
+                mRows = rows;
+                stats.finish(rows.size() + " rows");
+            } finally {
+                Binder.restoreCallingIdentity(identityToken);
             }
+        }
 
-            @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
-            private void setRemoteContentDescription(RemoteViews views, String description) {
-                views.setContentDescription(R.id.widget_icon, description);
+        private void prefetchArt(List<Row> rows) {
+            // Conditions sharing an art are only loaded once, by the cache
+            WeatherArtCache cache = WeatherArtCache.getInstance(mContext);
+            for (Row row : rows) {
+                row.art = cache.getRemoteArt(row.weatherId, mIconSize, mIconSize);
             }
+        }
 
-            @Override
-            public RemoteViews getLoadingView() {
-                return new RemoteViews(getPackageName(), R.layout.widget_detail_list_item);
-            }
+        @Override
+        public void onDestroy() {
+            mRows = Collections.emptyList();
+        }
 
-            @Override
-            public int getViewTypeCount() {
-                return 1;
-            }
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
 
-            @Override
-            public long getItemId(int position) {
-                if (data.moveToPosition(position))
-                    return data.getLong(INDEX_WEATHER_ID);
-                return position;
+        @Override
+        public RemoteViews getViewAt(int position) {
+            List<Row> rows = mRows;
+            if (position == AdapterView.INVALID_POSITION || position >= rows.size()) {
+                return null;
             }
-
-            @Override
-            public boolean hasStableIds() {
-                return true;
+            Row row = rows.get(position);
+            RemoteViews views = new RemoteViews(mContext.getPackageName(),
+                    R.layout.widget_detail_list_item);
+            if (row.art != null) {
+                views.setImageViewBitmap(R.id.widget_icon, row.art);
+            } else {
+                views.setImageViewResource(R.id.widget_icon, row.iconResourceId);
             }
-        };
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
+                setRemoteContentDescription(views, row.description);
+            }
+            views.setTextViewText(R.id.widget_date, row.dateText);
+            views.setTextViewText(R.id.widget_description, row.description);
+            views.setTextViewText(R.id.widget_high_temperature, row.highText);
+            views.setTextViewText(R.id.widget_low_temperature, row.lowText);
+
+            final Intent fillInIntent = new Intent();
+            fillInIntent.setData(row.uri);
+            views.setOnClickFillInIntent(R.id.widget_list_item, fillInIntent);
+            return views;
+        }
+
+        @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1)
+        private void setRemoteContentDescription(RemoteViews views, String description) {
+            views.setContentDescription(R.id.widget_icon, description);
+        }
+
+        @Override
+        public RemoteViews getLoadingView() {
+            return new RemoteViews(mContext.getPackageName(), R.layout.widget_detail_list_item);
+        }
+
+        @Override
+        public int getViewTypeCount() {
+            return 1;
+        }
+
+        @Override
+        public long getItemId(int position) {
+            List<Row> rows = mRows;
+            if (position < rows.size())
+                return rows.get(position).id;
+            return position;
+        }
+
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
     }
 }
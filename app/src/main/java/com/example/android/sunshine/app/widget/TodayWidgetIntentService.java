@@ -29,11 +29,17 @@ import android.util.DisplayMetrics;
 import android.util.TypedValue;
 import android.widget.RemoteViews;
 
+import com.example.android.sunshine.app.ForecastFormatter;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
 import com.example.android.sunshine.app.data.WeatherContract;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * IntentService which handles updating all Today widgets with the latest data
  */
@@ -49,6 +55,59 @@ public class TodayWidgetIntentService extends IntentService {
     private static final int INDEX_SHORT_DESC = 1;
     private static final int INDEX_MAX_TEMP = 2;
     private static final int INDEX_MIN_TEMP = 3;
+    static final String STATS_NAME = "TodayWidget";
+    // Every layout a Today widget can have
+    private static final int[] LAYOUTS = {
+            R.layout.widget_today_small,
+            R.layout.widget_today,
+            R.layout.widget_today_large
+    };
+
+    /**
+     * What a Today widget was sent: its layout and the data in it.
+     */
+    static final class Rendered {
+        final int layoutId;
+        final int artResourceId;
+        final String description;
+        final String highText;
+        final String lowText;
+
+        Rendered(int layoutId, int artResourceId, String description, String highText,
+                 String lowText) {
+            this.layoutId = layoutId;
+            this.artResourceId = artResourceId;
+            this.description = description == null ? "" : description;
+            this.highText = highText;
+            this.lowText = lowText;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Rendered)) {
+                return false;
+            }
+            Rendered other = (Rendered) o;
+            return layoutId == other.layoutId
+                    && artResourceId == other.artResourceId
+                    && description.equals(other.description)
+                    && highText.equals(other.highText)
+                    && lowText.equals(other.lowText);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = layoutId;
+            result = 31 * result + artResourceId;
+            result = 31 * result + description.hashCode();
+            result = 31 * result + highText.hashCode();
+            result = 31 * result + lowText.hashCode();
+            return result;
+        }
+    }
 
     public TodayWidgetIntentService() {
         super("TodayWidgetIntentService");
@@ -56,10 +115,14 @@ public class TodayWidgetIntentService extends IntentService {
 
     @Override
     protected void onHandleIntent(Intent intent) {
+        WidgetUpdateStats stats = new WidgetUpdateStats(STATS_NAME);
         // Retrieve all of the Today widget ids: these are the widgets we need to update
         AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(this);
         int[] appWidgetIds = appWidgetManager.getAppWidgetIds(new ComponentName(this,
                 TodayWidgetProvider.class));
+        if (appWidgetIds.length == 0) {
+            return;
+        }
 
         // Get today's data from the ContentProvider
         String location = Utility.getPreferredLocation(this);
@@ -81,44 +144,165 @@ public class TodayWidgetIntentService extends IntentService {
         String description = data.getString(INDEX_SHORT_DESC);
         double maxTemp = data.getDouble(INDEX_MAX_TEMP);
         double minTemp = data.getDouble(INDEX_MIN_TEMP);
-        String formattedMaxTemperature = Utility.formatTemperature(this, maxTemp);
-        String formattedMinTemperature = Utility.formatTemperature(this, minTemp);
+        ForecastFormatter formatter = ForecastFormatter.getInstance(this);
+        String formattedMaxTemperature = formatter.formatTemperature(maxTemp);
+        String formattedMinTemperature = formatter.formatTemperature(minTemp);
         data.close();
+        stats.mark("query");
+
+        // Find the correct layout for each widget based on its width
+        int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
+        int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
+        int[] layoutIds = new int[appWidgetIds.length];
+        for (int i = 0; i < appWidgetIds.length; i++) {
+            layoutIds[i] = getLayoutForWidth(getWidgetWidth(appWidgetManager, appWidgetIds[i]),
+                    defaultWidth, largeWidth);
+        }
+        stats.mark("layout");
+
+        // Create an Intent to launch MainActivity, the same for every widget
+        Intent launchIntent = new Intent(this, MainActivity.class);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
 
-        // Perform this loop procedure for each Today widget
-        for (int appWidgetId : appWidgetIds) {
-            // Find the correct layout based on the widget's width
-            int widgetWidth = getWidgetWidth(appWidgetManager, appWidgetId);
-            int defaultWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_default_width);
-            int largeWidth = getResources().getDimensionPixelSize(R.dimen.widget_today_large_width);
-            int layoutId;
-            if (widgetWidth >= largeWidth) {
-                layoutId = R.layout.widget_today_large;
-            } else if (widgetWidth >= defaultWidth) {
-                layoutId = R.layout.widget_today;
-            } else {
-                layoutId = R.layout.widget_today_small;
+        // Each layout is built once and sent to all the widgets using it in one call.  Widgets
+        // already showing this data are skipped, and ones showing the same layout with other
+        // data only get the views that changed.
+        int variants = 0;
+        for (int layoutId : LAYOUTS) {
+            int[] layoutWidgetIds = selectWidgetIds(appWidgetIds, layoutIds, layoutId);
+            if (layoutWidgetIds.length == 0) {
+                continue;
+            }
+            Rendered rendered = new Rendered(layoutId, weatherArtResourceId, description,
+                    formattedMaxTemperature, formattedMinTemperature);
+            List<Integer> fullIds = new ArrayList<>();
+            // Widgets to update partially, by what they show now
+            Map<Rendered, List<Integer>> partialIds = new HashMap<>();
+            for (int appWidgetId : layoutWidgetIds) {
+                Rendered previous = (Rendered) WidgetFingerprints.TODAY.get(appWidgetId);
+                int kind = getUpdateKind(previous, rendered,
+                        Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB);
+                stats.count(kind, 1);
+                if (kind == WidgetUpdateStats.FULL) {
+                    fullIds.add(appWidgetId);
+                } else if (kind == WidgetUpdateStats.PARTIAL) {
+                    List<Integer> ids = partialIds.get(previous);
+                    if (ids == null) {
+                        ids = new ArrayList<>();
+                        partialIds.put(previous, ids);
+                    }
+                    ids.add(appWidgetId);
+                }
             }
-            RemoteViews views = new RemoteViews(getPackageName(), layoutId);
 
-            // Add the data to the RemoteViews
-            views.setImageViewResource(R.id.widget_icon, weatherArtResourceId);
+            if (!fullIds.isEmpty()) {
+                variants++;
+                RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+                setViews(views, null, rendered);
+                views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+                // Tell the AppWidgetManager to perform an update on these app widgets
+                appWidgetManager.updateAppWidget(toArray(fullIds), views);
+            }
+            for (Map.Entry<Rendered, List<Integer>> entry : partialIds.entrySet()) {
+                variants++;
+                RemoteViews views = new RemoteViews(getPackageName(), layoutId);
+                setViews(views, entry.getKey(), rendered);
+                partiallyUpdateAppWidget(appWidgetManager, toArray(entry.getValue()), views);
+            }
+            for (int appWidgetId : layoutWidgetIds) {
+                WidgetFingerprints.TODAY.put(appWidgetId, rendered);
+            }
+        }
+        stats.mark("update");
+        stats.finish(appWidgetIds.length + " widgets, " + variants + " variants");
+    }
+
+    /**
+     * @param previous what the widget shows, null if unknown
+     * @param rendered what it should show
+     * @return WidgetUpdateStats.SKIPPED, PARTIAL or FULL
+     */
+    static int getUpdateKind(Rendered previous, Rendered rendered, boolean canUpdatePartially) {
+        if (rendered.equals(previous)) {
+            return WidgetUpdateStats.SKIPPED;
+        }
+        // A partial update is applied on top of the views the widget has, which must be the
+        // same layout
+        if (previous != null && previous.layoutId == rendered.layoutId && canUpdatePartially) {
+            return WidgetUpdateStats.PARTIAL;
+        }
+        return WidgetUpdateStats.FULL;
+    }
+
+    /**
+     * Adds the data to the RemoteViews.
+     *
+     * @param previous what the widget shows, only what differs from it is set.  Null to set it
+     *                 all.
+     */
+    private void setViews(RemoteViews views, Rendered previous, Rendered rendered) {
+        if (previous == null || previous.artResourceId != rendered.artResourceId) {
+            views.setImageViewResource(R.id.widget_icon, rendered.artResourceId);
+        }
+        if (previous == null || !previous.description.equals(rendered.description)) {
             // Content Descriptions for RemoteViews were only added in ICS MR1
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH_MR1) {
-                setRemoteContentDescription(views, description);
+                setRemoteContentDescription(views, rendered.description);
             }
-            views.setTextViewText(R.id.widget_description, description);
-            views.setTextViewText(R.id.widget_high_temperature, formattedMaxTemperature);
-            views.setTextViewText(R.id.widget_low_temperature, formattedMinTemperature);
+            views.setTextViewText(R.id.widget_description, rendered.description);
+        }
+        if (previous == null || !previous.highText.equals(rendered.highText)) {
+            views.setTextViewText(R.id.widget_high_temperature, rendered.highText);
+        }
+        if (previous == null || !previous.lowText.equals(rendered.lowText)) {
+            views.setTextViewText(R.id.widget_low_temperature, rendered.lowText);
+        }
+    }
 
-            // Create an Intent to launch MainActivity
-            Intent launchIntent = new Intent(this, MainActivity.class);
-            PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, launchIntent, 0);
-            views.setOnClickPendingIntent(R.id.widget, pendingIntent);
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void partiallyUpdateAppWidget(AppWidgetManager appWidgetManager, int[] appWidgetIds,
+                                          RemoteViews views) {
+        appWidgetManager.partiallyUpdateAppWidget(appWidgetIds, views);
+    }
+
+    private static int[] toArray(List<Integer> ids) {
+        int[] array = new int[ids.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = ids.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * @return the Today widget layout for a widget width, all in pixels
+     */
+    static int getLayoutForWidth(int widgetWidth, int defaultWidth, int largeWidth) {
+        if (widgetWidth >= largeWidth) {
+            return R.layout.widget_today_large;
+        } else if (widgetWidth >= defaultWidth) {
+            return R.layout.widget_today;
+        } else {
+            return R.layout.widget_today_small;
+        }
+    }
 
-            // Tell the AppWidgetManager to perform an update on the current app widget
-            appWidgetManager.updateAppWidget(appWidgetId, views);
+    /**
+     * @return the ids of the widgets whose entry in layoutIds is layoutId, in order
+     */
+    static int[] selectWidgetIds(int[] appWidgetIds, int[] layoutIds, int layoutId) {
+        int count = 0;
+        for (int id : layoutIds) {
+            if (id == layoutId) {
+                count++;
+            }
+        }
+        int[] selected = new int[count];
+        for (int i = 0, j = 0; j < count; i++) {
+            if (layoutIds[i] == layoutId) {
+                selected[j++] = appWidgetIds[i];
+            }
         }
+        return selected;
     }
 
     private int getWidgetWidth(AppWidgetManager appWidgetManager, int appWidgetId) {
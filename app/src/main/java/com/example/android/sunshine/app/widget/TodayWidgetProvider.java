@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.support.annotation.NonNull;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncChangeSet;
 
 /**
  * Provider for a horizontally expandable widget showing today's weather.
@@ -34,19 +35,31 @@ public class TodayWidgetProvider extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        // The system asks for these when the widgets are added or restored, and they may have
+        // nothing to apply a partial update on
+        WidgetFingerprints.TODAY.remove(appWidgetIds);
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
     @Override
     public void onAppWidgetOptionsChanged(Context context, AppWidgetManager appWidgetManager,
                                           int appWidgetId, Bundle newOptions) {
+        // A resized widget switches layouts, which have none of the old one's views to update
+        WidgetFingerprints.TODAY.remove(new int[]{appWidgetId});
         context.startService(new Intent(context, TodayWidgetIntentService.class));
     }
 
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        WidgetFingerprints.TODAY.remove(appWidgetIds);
+    }
+
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+        // Only today's forecast is shown, so other days changing needs no update
+        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())
+                && SyncChangeSet.fromIntent(intent).todayChanged) {
             context.startService(new Intent(context, TodayWidgetIntentService.class));
         }
     }
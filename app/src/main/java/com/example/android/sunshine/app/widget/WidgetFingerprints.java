@@ -0,0 +1,60 @@
+package com.example.android.sunshine.app.widget;
+
+import android.util.SparseArray;
+
+import java.util.Arrays;
+
+/**
+ * What each widget was last sent, so an update that wouldn't change anything can be skipped.
+ * <p>
+ * Only kept in memory: when the process is gone every widget gets a full update again, which is
+ * always safe.  Widgets the system asks to update (added, restored, resized) are forgotten first
+ * for the same reason.
+ */
+final class WidgetFingerprints {
+    static final WidgetFingerprints TODAY = new WidgetFingerprints();
+    static final WidgetFingerprints DETAIL = new WidgetFingerprints();
+
+    private final SparseArray<Object> mFingerprints = new SparseArray<>();
+
+    private WidgetFingerprints() {
+    }
+
+    /**
+     * @return what the widget was last sent, or null if that isn't known
+     */
+    synchronized Object get(int appWidgetId) {
+        return mFingerprints.get(appWidgetId);
+    }
+
+    synchronized void put(int appWidgetId, Object fingerprint) {
+        mFingerprints.put(appWidgetId, fingerprint);
+    }
+
+    /**
+     * Records that these widgets were sent something with this fingerprint.
+     *
+     * @return the ones that had a different or unknown fingerprint, in order
+     */
+    synchronized int[] update(int[] appWidgetIds, Object fingerprint) {
+        int[] changed = new int[appWidgetIds.length];
+        int count = 0;
+        for (int appWidgetId : appWidgetIds) {
+            if (!fingerprint.equals(mFingerprints.get(appWidgetId))) {
+                changed[count++] = appWidgetId;
+                mFingerprints.put(appWidgetId, fingerprint);
+            }
+        }
+        return Arrays.copyOf(changed, count);
+    }
+
+    synchronized void remove(int[] appWidgetIds) {
+        for (int appWidgetId : appWidgetIds) {
+            mFingerprints.remove(appWidgetId);
+        }
+    }
+
+    synchronized void clear() {
+        mFingerprints.clear();
+    }
+}
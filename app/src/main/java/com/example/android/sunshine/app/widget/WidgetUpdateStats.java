@@ -0,0 +1,107 @@
+package com.example.android.sunshine.app.widget;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Times the phases of one widget update and counts how many widgets it skipped, updated
+ * partially or updated fully.  Both are logged when it finishes, along with running totals per
+ * kind of update since the process started.
+ */
+final class WidgetUpdateStats {
+    static final int SKIPPED = 0;
+    static final int PARTIAL = 1;
+    static final int FULL = 2;
+    private static final String LOG_TAG = WidgetUpdateStats.class.getSimpleName();
+    private static final int TOTAL_UPDATES = 3;
+    private static final int TOTAL_NANOS = 4;
+    // [skipped, partial, full, updates, nanos] per name
+    private static final Map<String, long[]> sTotals = new HashMap<>();
+
+    private final String mName;
+    private final long mStart;
+    private final StringBuilder mPhases = new StringBuilder();
+    // Widgets, by SKIPPED, PARTIAL and FULL
+    private final int[] mWidgets = new int[3];
+    private long mLast;
+
+    WidgetUpdateStats(String name) {
+        mName = name;
+        mStart = System.nanoTime();
+        mLast = mStart;
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+
+    /**
+     * Ends the current phase, it's logged as phase=duration.
+     */
+    void mark(String phase) {
+        long now = System.nanoTime();
+        mPhases.append(' ').append(phase).append('=').append(millis(now - mLast));
+        mLast = now;
+    }
+
+    /**
+     * Counts widgets this update skipped, or updated partially or fully.
+     *
+     * @param kind SKIPPED, PARTIAL or FULL
+     */
+    void count(int kind, int widgets) {
+        mWidgets[kind] += widgets;
+    }
+
+    /**
+     * Ends the update and logs it.
+     *
+     * @param detail what was updated, e.g. how many widgets
+     */
+    void finish(String detail) {
+        long nanos = System.nanoTime() - mStart;
+        long updates;
+        long totalNanos;
+        synchronized (sTotals) {
+            long[] totals = getTotals(mName);
+            for (int kind = SKIPPED; kind <= FULL; kind++) {
+                totals[kind] += mWidgets[kind];
+            }
+            updates = ++totals[TOTAL_UPDATES];
+            totalNanos = totals[TOTAL_NANOS] += nanos;
+        }
+        Log.d(LOG_TAG, mName + ": " + detail + ", widgets skipped=" + mWidgets[SKIPPED]
+                + " partial=" + mWidgets[PARTIAL] + " full=" + mWidgets[FULL] + mPhases
+                + " total=" + millis(nanos) + ", " + updates + " updates averaging "
+                + millis(totalNanos / updates));
+    }
+
+    // Callers hold sTotals
+    private static long[] getTotals(String name) {
+        long[] totals = sTotals.get(name);
+        if (totals == null) {
+            totals = new long[5];
+            sTotals.put(name, totals);
+        }
+        return totals;
+    }
+
+    static long getUpdateCount(String name) {
+        synchronized (sTotals) {
+            return getTotals(name)[TOTAL_UPDATES];
+        }
+    }
+
+    /**
+     * @param kind SKIPPED, PARTIAL or FULL
+     * @return how many widgets were updated that way since the process started
+     */
+    static long getWidgetCount(String name, int kind) {
+        synchronized (sTotals) {
+            return getTotals(name)[kind];
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.android.sunshine.common;
+
+/**
+ * Groups OpenWeatherMap condition ids into the conditions Sunshine has pictures for, shared by
+ * the phone app and the watch face.
+ * <p>
+ * The groups are kept in a table indexed by the condition id, built once, so a lookup is a
+ * bounds check and an array read.  Each module then maps the group to its own drawables, art
+ * names or images with an array of {@link #CONDITION_COUNT} entries indexed by group.
+ * <p>
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+public final class WeatherConditions {
+    public static final int CONDITION_NONE = 0;
+    public static final int CONDITION_STORM = 1;
+    public static final int CONDITION_LIGHT_RAIN = 2;
+    public static final int CONDITION_RAIN = 3;
+    public static final int CONDITION_SNOW = 4;
+    public static final int CONDITION_FOG = 5;
+    // 781, a tornado.  It shares the storm art but has pictures of its own elsewhere.
+    public static final int CONDITION_TORNADO = 6;
+    public static final int CONDITION_CLEAR = 7;
+    public static final int CONDITION_LIGHT_CLOUDS = 8;
+    public static final int CONDITION_CLOUDS = 9;
+    /**
+     * The size of an array indexed by condition.
+     */
+    public static final int CONDITION_COUNT = 10;
+
+    /**
+     * Condition ids are three digits, anything outside [0, ID_LIMIT) has no condition.
+     */
+    public static final int ID_LIMIT = 1000;
+
+    private static final byte[] CONDITIONS = new byte[ID_LIMIT];
+
+    static {
+        // In the order of the old if/else chains: 761 (dust) is inside the fog range, so only
+        // 781 ever reached their storm branch
+        put(200, 232, CONDITION_STORM);
+        put(300, 321, CONDITION_LIGHT_RAIN);
+        put(500, 504, CONDITION_RAIN);
+        put(511, 511, CONDITION_SNOW);
+        put(520, 531, CONDITION_RAIN);
+        put(600, 622, CONDITION_SNOW);
+        put(701, 761, CONDITION_FOG);
+        put(781, 781, CONDITION_TORNADO);
+        put(800, 800, CONDITION_CLEAR);
+        put(801, 801, CONDITION_LIGHT_CLOUDS);
+        put(802, 804, CONDITION_CLOUDS);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void put(int firstId, int lastId, int condition) {
+        for (int id = firstId; id <= lastId; id++) {
+            CONDITIONS[id] = (byte) condition;
+        }
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of the CONDITION_ constants, CONDITION_NONE if no relation is found.
+     */
+    public static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= ID_LIMIT) {
+            return CONDITION_NONE;
+        }
+        return CONDITIONS[weatherId];
+    }
+}
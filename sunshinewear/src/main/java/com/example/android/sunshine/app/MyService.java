@@ -3,6 +3,7 @@ package com.example.android.sunshine.app;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.example.android.sunshine.common.WeatherConditions;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMap;
@@ -19,6 +20,21 @@ public class MyService extends WearableListenerService {
     public static final String ARG_WEATHER_DRAWABLE = "WEATHER_DRAWABLE";
     public static final String ARG_TIMESTAMP = "TIMESTAMP";
     private static final String TAG = "MyService";
+    // Indexed by WeatherConditions.getCondition()
+    private static final int[] ICONS = new int[WeatherConditions.CONDITION_COUNT];
+
+    static {
+        ICONS[WeatherConditions.CONDITION_NONE] = -1;
+        ICONS[WeatherConditions.CONDITION_STORM] = R.drawable.weather_lightning;
+        ICONS[WeatherConditions.CONDITION_LIGHT_RAIN] = R.drawable.weather_rainy;
+        ICONS[WeatherConditions.CONDITION_RAIN] = R.drawable.weather_rainy;
+        ICONS[WeatherConditions.CONDITION_SNOW] = R.drawable.weather_snowy;
+        ICONS[WeatherConditions.CONDITION_FOG] = R.drawable.weather_fog;
+        ICONS[WeatherConditions.CONDITION_TORNADO] = R.drawable.weather_lightning_rainy;
+        ICONS[WeatherConditions.CONDITION_CLEAR] = R.drawable.weather_sunny;
+        ICONS[WeatherConditions.CONDITION_LIGHT_CLOUDS] = R.drawable.weather_partlycloudy;
+        ICONS[WeatherConditions.CONDITION_CLOUDS] = R.drawable.weather_cloudy;
+    }
 
     @Override
     public void onDataChanged(DataEventBuffer dataEventBuffer) {
@@ -56,32 +72,7 @@ public class MyService extends WearableListenerService {
      * @param weatherId from OpenWeatherMap API response
      * @return resource id for the corresponding icon. -1 if no relation is found.
      */
-    private int getIconResourceForWeatherCondition(int weatherId) {
-        // Based on weather code data found at:
-        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-        if (weatherId >= 200 && weatherId <= 232) {
-            return R.drawable.weather_lightning;
-        } else if (weatherId >= 300 && weatherId <= 321) {
-            return R.drawable.weather_rainy;
-        } else if (weatherId >= 500 && weatherId <= 504) {
-            return R.drawable.weather_rainy;
-        } else if (weatherId == 511) {
-            return R.drawable.weather_snowy;
-        } else if (weatherId >= 520 && weatherId <= 531) {
-            return R.drawable.weather_rainy;
-        } else if (weatherId >= 600 && weatherId <= 622) {
-            return R.drawable.weather_snowy;
-        } else if (weatherId >= 701 && weatherId <= 761) {
-            return R.drawable.weather_fog;
-        } else if (weatherId == 761 || weatherId == 781) {
-            return R.drawable.weather_lightning_rainy;
-        } else if (weatherId == 800) {
-            return R.drawable.weather_sunny;
-        } else if (weatherId == 801) {
-            return R.drawable.weather_partlycloudy;
-        } else if (weatherId >= 802 && weatherId <= 804) {
-            return R.drawable.weather_cloudy;
-        }
-        return -1;
+    private static int getIconResourceForWeatherCondition(int weatherId) {
+        return ICONS[WeatherConditions.getCondition(weatherId)];
     }
 }